@@ -0,0 +1,139 @@
+package git.folio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free holder of the pool's connections. A borrower first tries the connections its own thread
+// returned most recently, then scans the shared list, and only then waits for a returning thread to
+// hand one over directly. The thread-local lists are just hints: an entry belongs to whoever wins
+// the CAS on its state, so a stale hint simply fails to acquire.
+final class ConcurrentBag {
+    private static final int RECENT_LIMIT = 16;
+    private static final long WAKEUP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final PooledConnection CLOSED = new PooledConnection(null, PooledConnection.REMOVED, 0, 0);
+    private static final PooledConnection WAKEUP = new PooledConnection(null, PooledConnection.REMOVED, 0, 0);
+
+    private final List<PooledConnection> shared = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<PooledConnection>> recent = ThreadLocal.withInitial(() -> new ArrayList<>(RECENT_LIMIT));
+    private final SynchronousQueue<PooledConnection> handoff = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong wakeups = new AtomicLong();
+    private volatile boolean closed;
+
+    // Returns an entry now in use by the caller, or null if none was free within the timeout or
+    // wakeWaiters has been called since wakeups() returned wakeupsSeen
+    PooledConnection borrow(long timeoutNanos, long wakeupsSeen) throws InterruptedException {
+        List<PooledConnection> local = recent.get();
+        for (int i = local.size() - 1; i >= 0; i--) {
+            PooledConnection entry = local.remove(i);
+            if (entry.acquire()) {
+                return entry;
+            }
+        }
+        waiters.incrementAndGet();
+        try {
+            for (PooledConnection entry : shared) {
+                if (entry.acquire()) {
+                    return entry;
+                }
+            }
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (!closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || wakeups.get() != wakeupsSeen) {
+                    return null;
+                }
+                PooledConnection entry = handoff.poll(remaining, TimeUnit.NANOSECONDS);
+                if (entry == WAKEUP) {
+                    return null;
+                }
+                if (entry != null && entry.acquire()) {
+                    return entry;
+                }
+            }
+            return null;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    // Makes an entry the caller has just set idle available again, preferably straight to a waiter
+    void requite(PooledConnection entry) {
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (!entry.isIdle() || handoff.offer(entry)) {
+                return;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(10_000);
+            } else {
+                Thread.yield();
+            }
+        }
+        List<PooledConnection> local = recent.get();
+        if (local.size() < RECENT_LIMIT) {
+            local.add(entry);
+        }
+    }
+
+    void add(PooledConnection entry) {
+        shared.add(entry);
+        if (entry.isIdle()) {
+            requite(entry);
+        }
+    }
+
+    void remove(PooledConnection entry) {
+        entry.markRemoved();
+        shared.remove(entry);
+    }
+
+    List<PooledConnection> entries() {
+        return new ArrayList<>(shared);
+    }
+
+    int count(int state) {
+        int count = 0;
+        for (PooledConnection entry : shared) {
+            if (entry.hasState(state)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int waiting() {
+        return waiters.get();
+    }
+
+    long wakeups() {
+        return wakeups.get();
+    }
+
+    // Makes borrowers that read wakeups() before this call return early, so they can look at why no
+    // connection is coming. Ones already polling are sent a sentinel; any about to poll see the count.
+    void wakeWaiters() {
+        wakeups.incrementAndGet();
+        long deadline = System.nanoTime() + WAKEUP_NANOS;
+        while (waiters.get() > 0 && deadline - System.nanoTime() > 0) {
+            if (!handoff.offer(WAKEUP)) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // Wakes every waiting borrower, which then gives up
+    void close() {
+        closed = true;
+        while (waiters.get() > 0) {
+            if (!handoff.offer(CLOSED)) {
+                Thread.yield();
+            }
+        }
+    }
+}
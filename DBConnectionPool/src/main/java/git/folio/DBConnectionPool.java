@@ -1,64 +1,418 @@
 package git.folio;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+// Safe for any number of threads. Borrowing and returning go through a ConcurrentBag without locks;
+// when every connection is in use and the pool is at its maximum, getConnection waits for one to be
+// returned, up to the connection timeout.
+// Connections are opened on demand and by a background housekeeper, never on the borrowing thread, so
+// getConnection's timeout holds even when the database does not answer; a borrower waiting for a
+// connection that then fails to open gets that error at once. The housekeeper also keeps minIdle of them
+// ready, closes ones idle past the idle timeout, replaces ones past their max lifetime and checks
+// the rest with isValid. None of that happens on the borrow path; a connection found past its
+// lifetime when borrowed or returned is closed on the housekeeper thread instead. The one check a
+// borrower may run is isValid on a connection idle for more than validateAfterIdleMillis, so a
+// database that went away since is noticed before its connections are handed out. A borrowed
+// connection that fails with a connection error is closed when returned.
+// getMetrics() has wait, creation and usage histograms and the connection counts; they are also
+// registered as a JMX MXBean, and a PoolMetricsListener from the config sees every event.
+// Borrowers get a wrapper rather than the physical connection: close() on it returns the connection
+// to the pool, and prepareStatement reuses statements from a per-connection LRU cache of
+// statementCacheSize entries. Statements left open are closed when the connection comes back.
 public class DBConnectionPool {
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
 
-    private String url;
-    private String user;
-    private String password;
-    private int maxConnections;
-    private List<Connection> DBConnectionPool;
-    private List<Connection> usedConnections = new ArrayList<>();
+    private final String url;
+    private final String user;
+    private final String password;
+    private final PoolConfig config;
+    private final ConcurrentBag bag = new ConcurrentBag();
+    private final Map<Connection, PooledConnection> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private final ExecutorService connector;
+    private final AtomicInteger pendingCreates = new AtomicInteger();
+    private volatile SQLException lastCreateFailure;
+    private final PoolMetrics metrics;
+    private final PoolMetricsListener listener;
+    private final ObjectName mbeanName;
+    private volatile boolean shutdown;
 
     public DBConnectionPool(String url, String user, String password, int maxConnections) throws SQLException {
+        this(url, user, password, new PoolConfig().setMaxConnections(maxConnections));
+    }
+
+    public DBConnectionPool(String url, String user, String password, int maxConnections,
+                            long connectionTimeoutMillis) throws SQLException {
+        this(url, user, password, new PoolConfig().setMaxConnections(maxConnections)
+                .setConnectionTimeoutMillis(connectionTimeoutMillis));
+    }
+
+    // Returns at once; the pool warms up to minIdle connections in the background
+    public DBConnectionPool(String url, String user, String password, PoolConfig config) throws SQLException {
         this.url = url;
         this.user = user;
         this.password = password;
-        this.maxConnections = maxConnections;
-        this.DBConnectionPool = new ArrayList<>(maxConnections);
-        for (int i = 0; i < maxConnections; i++) {
-            DBConnectionPool.add(createConnection());
-        }
+        this.config = config;
+        this.metrics = new PoolMetrics(this, bag);
+        this.listener = config.getMetricsListener();
+        this.mbeanName = config.isRegisterMbeans() ? registerMbean() : null;
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connector = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-connector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.execute(this::fill);
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, config.getHousekeepingPeriodMillis(),
+                config.getHousekeepingPeriodMillis(), TimeUnit.MILLISECONDS);
     }
 
-    private Connection createConnection() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+    // Opens a new connection if the pool is below its maximum; returns null if it is full
+    private PooledConnection createConnection(int state) throws SQLException {
+        while (true) {
+            int total = totalConnections.get();
+            if (total >= config.getMaxConnections()) {
+                return null;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+        try {
+            // Spread lifetimes out a little so connections opened together are not all replaced together
+            long lifetime = TimeUnit.MILLISECONDS.toNanos(config.getMaxLifetimeMillis());
+            if (lifetime > 0) {
+                lifetime -= ThreadLocalRandom.current().nextLong(lifetime / 40 + 1);
+            }
+            long start = System.nanoTime();
+            PooledConnection entry = new PooledConnection(DriverManager.getConnection(url, user, password), state, lifetime,
+                    config.getStatementCacheSize());
+            long elapsed = System.nanoTime() - start;
+            metrics.recordConnectionCreated(elapsed);
+            if (listener != null) {
+                listener.onConnectionCreated(elapsed);
+            }
+            entries.put(entry.connection, entry);
+            return entry;
+        } catch (SQLException | RuntimeException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
     }
 
     public Connection getConnection() throws SQLException {
-        if (DBConnectionPool.isEmpty()) {
-            if (usedConnections.size() < maxConnections) {
-                DBConnectionPool.add(createConnection());
-            } else {
-                throw new SQLException("Maximum number of connections reached");
+        return getConnection(config.getConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Waits up to the timeout for a free connection when all of them are in use
+    public Connection getConnection(long timeout, TimeUnit unit) throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        try {
+            while (true) {
+                if (shutdown) {
+                    throw new SQLException("Connection pool has been shut down");
+                }
+                // Connect failures wake the bag's waiters, so a borrower waiting on one hears of it at once
+                long wakeups = bag.wakeups();
+                PooledConnection entry = bag.borrow(0, wakeups);
+                while (entry == null && deadline - System.nanoTime() > 0 && !shutdown) {
+                    requestConnection();
+                    entry = bag.borrow(deadline - System.nanoTime(), wakeups);
+                    if (entry == null && bag.wakeups() != wakeups) {
+                        SQLException failure = lastCreateFailure; // set before the waiters were woken
+                        throw new SQLException("Could not open a connection to " + url + ": " + failure.getMessage(),
+                                failure.getSQLState(), failure);
+                    }
+                }
+                if (entry == null) {
+                    if (shutdown) {
+                        throw new SQLException("Connection pool has been shut down");
+                    }
+                    long waited = System.nanoTime() - start;
+                    metrics.recordTimeout();
+                    if (listener != null) {
+                        listener.onTimeout(waited);
+                    }
+                    throw new SQLTimeoutException("Timed out after " + unit.toMillis(timeout)
+                            + " ms waiting for a connection; " + bag.count(PooledConnection.IN_USE) + " of "
+                            + config.getMaxConnections() + " are in use");
+                }
+                long now = System.nanoTime();
+                if (entry.expired(now)) {
+                    retireLater(entry);
+                    continue;
+                }
+                long validateAfter = TimeUnit.MILLISECONDS.toNanos(config.getValidateAfterIdleMillis());
+                if (validateAfter > 0 && now - entry.lastReturnedNanos >= validateAfter
+                        && now - entry.lastValidatedNanos >= validateAfter && !validate(entry)) {
+                    retireLater(entry);
+                    continue;
+                }
+                now = System.nanoTime();
+                entry.borrowedNanos = now;
+                metrics.recordAcquire(now - start);
+                if (listener != null) {
+                    listener.onAcquire(now - start);
+                }
+                return ProxyConnection.wrap(this, entry);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
         }
+    }
 
-        Connection connection = DBConnectionPool.remove(DBConnectionPool.size() - 1);
-        usedConnections.add(connection);
-        return connection;
+    // Opens one more connection on the connector thread, if the pool has room for it counting the
+    // ones already being opened; it goes into the bag, straight to a waiting borrower if there is one
+    private void requestConnection() {
+        while (true) {
+            int pending = pendingCreates.get();
+            if (totalConnections.get() + pending >= config.getMaxConnections()) {
+                return;
+            }
+            if (pendingCreates.compareAndSet(pending, pending + 1)) {
+                break;
+            }
+        }
+        try {
+            connector.execute(() -> {
+                PooledConnection entry;
+                try {
+                    entry = createConnection(PooledConnection.IDLE);
+                } catch (SQLException e) {
+                    lastCreateFailure = e;
+                    System.out.println("Error creating connection: " + e.getMessage());
+                    bag.wakeWaiters();
+                    return;
+                } finally {
+                    // Counted in totalConnections from here on; still counting it as pending once it is
+                    // in the bag could stop the next borrower from asking for one of its own
+                    pendingCreates.decrementAndGet();
+                }
+                if (entry != null && shutdown) {
+                    retire(entry);
+                } else if (entry != null) {
+                    bag.add(entry);
+                    if (bag.waiting() > 0) {
+                        requestConnection(); // someone not waiting took it
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingCreates.decrementAndGet(); // shutting down
+        }
     }
 
+    // Same as closing the connection. Returns false if the connection did not come from this pool
+    // or was already released
     public boolean releaseConnection(Connection connection) {
-        DBConnectionPool.add(connection);
-        return usedConnections.remove(connection);
+        ProxyConnection handle = ProxyConnection.of(connection);
+        if (handle == null || handle.pool() != this) {
+            return false;
+        }
+        try {
+            return handle.release();
+        } catch (SQLException e) {
+            System.out.println("Error returning connection: " + e.getMessage());
+            return true; // released all the same, to the pool or closed if it could not be reset
+        }
+    }
+
+    boolean release(PooledConnection entry) {
+        if (!entry.hasState(PooledConnection.IN_USE)) {
+            return false;
+        }
+        long now = System.nanoTime();
+        metrics.recordRelease(now - entry.borrowedNanos);
+        if (listener != null) {
+            listener.onRelease(now - entry.borrowedNanos);
+        }
+        if (entry.evict || entry.expired(now)) {
+            retireLater(entry);
+            return true;
+        }
+        entry.lastReturnedNanos = now;
+        if (!entry.release()) {
+            return false;
+        }
+        bag.requite(entry);
+        return true;
+    }
+
+    // Called by the proxies when a call on a borrowed connection failed because the connection is gone
+    void connectionBroken(PooledConnection entry, SQLException cause) {
+        entry.evict = true;
+        if (entry.broken) {
+            return;
+        }
+        entry.broken = true;
+        metrics.recordBroken();
+        if (listener != null) {
+            listener.onConnectionBroken(cause);
+        }
     }
 
     public int getSize() {
-        return DBConnectionPool.size() + usedConnections.size();
+        return totalConnections.get();
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
     }
 
+    private ObjectName registerMbean() {
+        String name = config.getPoolName() != null ? config.getPoolName() : "pool-" + POOL_NUMBER.incrementAndGet();
+        try {
+            ObjectName objectName = new ObjectName("git.folio:type=DBConnectionPool,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            return objectName;
+        } catch (JMException e) {
+            System.out.println("Error registering pool MBean: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void retireLater(PooledConnection entry) {
+        entry.markRemoved();
+        try {
+            housekeeper.execute(() -> {
+                retire(entry);
+                fill();
+            });
+        } catch (RuntimeException e) {
+            retire(entry); // the pool is shutting down
+        }
+    }
+
+    private void retire(PooledConnection entry) {
+        bag.remove(entry);
+        if (entries.remove(entry.connection) != null) {
+            totalConnections.decrementAndGet();
+        }
+        if (entry.statements != null) {
+            entry.statements.clear();
+        }
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    private void houseKeep() {
+        try {
+            long now = System.nanoTime();
+            long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+            long validationInterval = TimeUnit.MILLISECONDS.toNanos(config.getValidationIntervalMillis());
+            int idle = bag.count(PooledConnection.IDLE);
+            for (PooledConnection entry : bag.entries()) {
+                if (!entry.reserve()) {
+                    if (entry.expired(now)) {
+                        entry.evict = true; // in use: closed when it comes back
+                    }
+                    continue;
+                }
+                if (entry.expired(now)) {
+                    retire(entry);
+                    idle--;
+                } else if (idleTimeout > 0 && idle > config.getMinIdle() && now - entry.lastReturnedNanos >= idleTimeout) {
+                    retire(entry);
+                    idle--;
+                } else if (validationInterval > 0 && now - entry.lastValidatedNanos >= validationInterval && !validate(entry)) {
+                    retire(entry);
+                    idle--;
+                } else {
+                    entry.unreserve();
+                    bag.requite(entry);
+                }
+            }
+            fill();
+        } catch (RuntimeException e) {
+            System.out.println("Error in pool housekeeping: " + e.getMessage());
+        }
+    }
+
+    private boolean validate(PooledConnection entry) {
+        try {
+            if (entry.connection.isValid(config.getValidationTimeoutSeconds())) {
+                entry.lastValidatedNanos = System.nanoTime();
+                return true;
+            }
+        } catch (SQLException e) {
+            // treated as dead
+        }
+        return false;
+    }
+
+    // Opens connections until minIdle are idle, or as many as there are threads waiting for one
+    private void fill() {
+        while (!shutdown) {
+            int wanted = Math.max(config.getMinIdle(), bag.waiting());
+            if (bag.count(PooledConnection.IDLE) >= wanted) {
+                return;
+            }
+            try {
+                PooledConnection entry = createConnection(PooledConnection.IDLE);
+                if (entry == null) {
+                    return;
+                }
+                bag.add(entry);
+            } catch (SQLException e) {
+                System.out.println("Error creating connection: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    // Closes every connection, including ones still borrowed, and fails threads waiting for one
     public void shutdown() throws SQLException {
-        usedConnections.forEach(this::releaseConnection);
-        for (Connection c : DBConnectionPool) {
-            c.close();
+        shutdown = true;
+        housekeeper.shutdownNow();
+        connector.shutdownNow();
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                System.out.println("Error unregistering pool MBean: " + e.getMessage());
+            }
+        }
+        bag.close();
+        SQLException failure = null;
+        for (PooledConnection entry : bag.entries()) {
+            bag.remove(entry);
+            if (entries.remove(entry.connection) != null) {
+                totalConnections.decrementAndGet();
+            }
+            try {
+                entry.connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
-        DBConnectionPool.clear();
     }
 
     // Getters
@@ -75,6 +429,14 @@ public class DBConnectionPool {
     }
 
     public int getMaxConnections() {
-        return maxConnections;
+        return config.getMaxConnections();
+    }
+
+    public long getConnectionTimeoutMillis() {
+        return config.getConnectionTimeoutMillis();
+    }
+
+    public PoolConfig getConfig() {
+        return config;
     }
-}
\ No newline at end of file
+}
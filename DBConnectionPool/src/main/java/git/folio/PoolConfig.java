@@ -0,0 +1,188 @@
+package git.folio;
+
+// Settings for a DBConnectionPool; setters return the config so they can be chained.
+// A timeout, lifetime or interval of 0 turns that check off.
+public class PoolConfig {
+    private int maxConnections = 10;
+    private int minIdle = -1; // same as maxConnections unless set
+    private long connectionTimeoutMillis = 30_000;
+    private long idleTimeoutMillis = 600_000;
+    private long maxLifetimeMillis = 1_800_000;
+    private long validationIntervalMillis = 120_000;
+    private long validateAfterIdleMillis = 500;
+    private int validationTimeoutSeconds = 5;
+    private long housekeepingPeriodMillis = 30_000;
+    private String poolName;
+    private boolean registerMbeans = true;
+    private PoolMetricsListener metricsListener;
+    private int statementCacheSize = 32;
+    private long replicaRetryMillis = 5_000;
+
+    public PoolConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    // Idle connections the pool keeps open, created in the background
+    public PoolConfig setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+        return this;
+    }
+
+    // How long getConnection() waits when every connection is in use
+    public PoolConfig setConnectionTimeoutMillis(long connectionTimeoutMillis) {
+        this.connectionTimeoutMillis = connectionTimeoutMillis;
+        return this;
+    }
+
+    // Connections idle for longer are closed, down to minIdle
+    public PoolConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    // Connections older than this are closed when idle and replaced; keep it below the server's own limit
+    public PoolConfig setMaxLifetimeMillis(long maxLifetimeMillis) {
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        return this;
+    }
+
+    // Idle connections not checked for this long are tested with Connection.isValid
+    public PoolConfig setValidationIntervalMillis(long validationIntervalMillis) {
+        this.validationIntervalMillis = validationIntervalMillis;
+        return this;
+    }
+
+    // A connection idle for longer is tested with Connection.isValid before it is handed out, so one
+    // that died since it was returned is replaced rather than given to the borrower
+    public PoolConfig setValidateAfterIdleMillis(long validateAfterIdleMillis) {
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+        return this;
+    }
+
+    public PoolConfig setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        return this;
+    }
+
+    // How often the background thread runs the checks above
+    public PoolConfig setHousekeepingPeriodMillis(long housekeepingPeriodMillis) {
+        if (housekeepingPeriodMillis <= 0) {
+            throw new IllegalArgumentException("housekeepingPeriodMillis must be positive");
+        }
+        this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+        return this;
+    }
+
+    // Names the pool in JMX; a unique name is made up when not set
+    public PoolConfig setPoolName(String poolName) {
+        this.poolName = poolName;
+        return this;
+    }
+
+    public PoolConfig setRegisterMbeans(boolean registerMbeans) {
+        this.registerMbeans = registerMbeans;
+        return this;
+    }
+
+    // Told about every acquire, timeout, connection opened, release and broken connection, on top of the
+    // pool's own metrics
+    public PoolConfig setMetricsListener(PoolMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+    // Prepared statements kept per connection, least recently used dropped first; 0 turns caching off
+    public PoolConfig setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("statementCacheSize must not be negative");
+        }
+        this.statementCacheSize = statementCacheSize;
+        return this;
+    }
+
+    // How long RoutingConnectionPool skips a replica that failed to hand out a connection
+    public PoolConfig setReplicaRetryMillis(long replicaRetryMillis) {
+        this.replicaRetryMillis = replicaRetryMillis;
+        return this;
+    }
+
+    // The same settings under another pool name, for the pools a RoutingConnectionPool opens
+    PoolConfig copy(String poolName) {
+        PoolConfig copy = new PoolConfig();
+        copy.maxConnections = maxConnections;
+        copy.minIdle = minIdle;
+        copy.connectionTimeoutMillis = connectionTimeoutMillis;
+        copy.idleTimeoutMillis = idleTimeoutMillis;
+        copy.maxLifetimeMillis = maxLifetimeMillis;
+        copy.validationIntervalMillis = validationIntervalMillis;
+        copy.validateAfterIdleMillis = validateAfterIdleMillis;
+        copy.validationTimeoutSeconds = validationTimeoutSeconds;
+        copy.housekeepingPeriodMillis = housekeepingPeriodMillis;
+        copy.poolName = poolName;
+        copy.registerMbeans = registerMbeans;
+        copy.metricsListener = metricsListener;
+        copy.statementCacheSize = statementCacheSize;
+        copy.replicaRetryMillis = replicaRetryMillis;
+        return copy;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMinIdle() {
+        return minIdle < 0 ? maxConnections : Math.min(minIdle, maxConnections);
+    }
+
+    public long getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    public long getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    public long getValidateAfterIdleMillis() {
+        return validateAfterIdleMillis;
+    }
+
+    public int getValidationTimeoutSeconds() {
+        return validationTimeoutSeconds;
+    }
+
+    public long getHousekeepingPeriodMillis() {
+        return housekeepingPeriodMillis;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public boolean isRegisterMbeans() {
+        return registerMbeans;
+    }
+
+    public PoolMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public long getReplicaRetryMillis() {
+        return replicaRetryMillis;
+    }
+}
@@ -0,0 +1,166 @@
+package git.folio;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms a DBConnectionPool keeps about itself; also its JMX view
+public class PoolMetrics implements PoolMetricsMXBean {
+    private final ConcurrentBag bag;
+    private final DBConnectionPool pool;
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+    private final LatencyHistogram creation = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder broken = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    PoolMetrics(DBConnectionPool pool, ConcurrentBag bag) {
+        this.pool = pool;
+        this.bag = bag;
+    }
+
+    void recordAcquire(long waitNanos) {
+        acquireWait.record(waitNanos);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void recordConnectionCreated(long creationNanos) {
+        creation.record(creationNanos);
+    }
+
+    void recordBroken() {
+        broken.increment();
+    }
+
+    void recordRelease(long usageNanos) {
+        usage.record(usageNanos);
+    }
+
+    void recordStatementCacheHit() {
+        statementHits.increment();
+    }
+
+    void recordStatementCacheMiss() {
+        statementMisses.increment();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return bag.count(PooledConnection.IN_USE);
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return bag.count(PooledConnection.IDLE);
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return pool.getSize();
+    }
+
+    @Override
+    public int getPendingThreads() {
+        return bag.waiting();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquireWait.count();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return creation.count();
+    }
+
+    @Override
+    public long getBrokenConnections() {
+        return broken.sum();
+    }
+
+    @Override
+    public double getAcquireWaitMeanMicros() {
+        return acquireWait.mean() / 1000;
+    }
+
+    @Override
+    public long getAcquireWaitP50Micros() {
+        return acquireWait.percentile(0.50) / 1000;
+    }
+
+    @Override
+    public long getAcquireWaitP99Micros() {
+        return acquireWait.percentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getAcquireWaitMaxMicros() {
+        return acquireWait.max() / 1000;
+    }
+
+    @Override
+    public double getCreationMeanMicros() {
+        return creation.mean() / 1000;
+    }
+
+    @Override
+    public long getCreationMaxMicros() {
+        return creation.max() / 1000;
+    }
+
+    @Override
+    public double getUsageMeanMicros() {
+        return usage.mean() / 1000;
+    }
+
+    @Override
+    public long getUsageP50Micros() {
+        return usage.percentile(0.50) / 1000;
+    }
+
+    @Override
+    public long getUsageP99Micros() {
+        return usage.percentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getUsageMaxMicros() {
+        return usage.max() / 1000;
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+
+    @Override
+    public double getStatementCacheHitRate() {
+        long hits = statementHits.sum();
+        long total = hits + statementMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active=%d idle=%d pending=%d acquired=%d timeouts=%d wait p50/p99/max=%d/%d/%d us"
+                        + " usage p50/p99=%d/%d us created=%d (mean %.0f us) statement cache hit rate=%.2f",
+                getActiveConnections(), getIdleConnections(), getPendingThreads(), getAcquireCount(), getTimeoutCount(),
+                getAcquireWaitP50Micros(), getAcquireWaitP99Micros(), getAcquireWaitMaxMicros(),
+                getUsageP50Micros(), getUsageP99Micros(), getConnectionsCreated(), getCreationMeanMicros(),
+                getStatementCacheHitRate());
+    }
+}
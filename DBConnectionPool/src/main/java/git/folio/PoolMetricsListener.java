@@ -0,0 +1,29 @@
+package git.folio;
+
+import java.sql.SQLException;
+
+// Receives pool events as they happen, for example to feed an external metrics library.
+// Called on the borrowing, returning or housekeeper thread, so implementations must be fast and thread-safe.
+public interface PoolMetricsListener {
+
+    // A connection was handed out after waiting this long in getConnection
+    default void onAcquire(long waitNanos) {
+    }
+
+    // getConnection gave up after waiting this long
+    default void onTimeout(long waitNanos) {
+    }
+
+    // Opening a new physical connection took this long
+    default void onConnectionCreated(long creationNanos) {
+    }
+
+    // A connection came back after being borrowed for this long
+    default void onRelease(long usageNanos) {
+    }
+
+    // A borrowed connection failed with an error saying the connection itself is gone; it is closed
+    // when returned. Called once per connection.
+    default void onConnectionBroken(SQLException cause) {
+    }
+}
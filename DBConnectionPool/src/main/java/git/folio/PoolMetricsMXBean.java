@@ -0,0 +1,51 @@
+package git.folio;
+
+// What a DBConnectionPool publishes over JMX as git.folio:type=DBConnectionPool,name=<pool name>.
+// Durations are in microseconds and cover the whole life of the pool.
+public interface PoolMetricsMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    // Threads waiting in getConnection for a connection to be returned
+    int getPendingThreads();
+
+    long getAcquireCount();
+
+    long getTimeoutCount();
+
+    long getConnectionsCreated();
+
+    // Borrowed connections found dead by the statements run on them
+    long getBrokenConnections();
+
+    double getAcquireWaitMeanMicros();
+
+    long getAcquireWaitP50Micros();
+
+    long getAcquireWaitP99Micros();
+
+    long getAcquireWaitMaxMicros();
+
+    double getCreationMeanMicros();
+
+    long getCreationMaxMicros();
+
+    double getUsageMeanMicros();
+
+    long getUsageP50Micros();
+
+    long getUsageP99Micros();
+
+    long getUsageMaxMicros();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+    // Share of prepareStatement calls served from a connection's statement cache
+    double getStatementCacheHitRate();
+}
@@ -0,0 +1,65 @@
+package git.folio;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A physical connection and its pool state; whoever wins the CAS on the state owns it
+final class PooledConnection {
+    static final int IDLE = 0;
+    static final int IN_USE = 1;
+    static final int RESERVED = 2; // held by the housekeeper while it checks the connection
+    static final int REMOVED = -1;
+
+    final Connection connection;
+    private final AtomicInteger state;
+    private final long createdNanos;
+    private final long lifetimeNanos; // 0 for no limit
+    volatile long lastReturnedNanos;
+    volatile long lastValidatedNanos;
+    volatile boolean evict; // close instead of pooling when returned
+    volatile boolean broken; // a call on it failed because the connection is gone
+    long borrowedNanos;
+    final StatementCache statements; // null when statement caching is off
+
+    PooledConnection(Connection connection, int state, long lifetimeNanos, int statementCacheSize) {
+        this.connection = connection;
+        this.statements = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+        this.state = new AtomicInteger(state);
+        this.createdNanos = System.nanoTime();
+        this.lifetimeNanos = lifetimeNanos;
+        this.lastReturnedNanos = createdNanos;
+        this.lastValidatedNanos = createdNanos;
+    }
+
+    boolean acquire() {
+        return state.compareAndSet(IDLE, IN_USE);
+    }
+
+    boolean release() {
+        return state.compareAndSet(IN_USE, IDLE);
+    }
+
+    boolean reserve() {
+        return state.compareAndSet(IDLE, RESERVED);
+    }
+
+    void unreserve() {
+        state.compareAndSet(RESERVED, IDLE);
+    }
+
+    boolean isIdle() {
+        return state.get() == IDLE;
+    }
+
+    boolean hasState(int expected) {
+        return state.get() == expected;
+    }
+
+    void markRemoved() {
+        state.set(REMOVED);
+    }
+
+    boolean expired(long now) {
+        return lifetimeNanos > 0 && now - createdNanos >= lifetimeNanos;
+    }
+}
@@ -0,0 +1,330 @@
+package git.folio;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// What a borrower holds instead of the physical connection; one per borrow. close() gives the
+// connection back to the pool, after which this handle refuses further calls. prepareStatement
+// is served from the connection's StatementCache, and statements the borrower left open are
+// closed (or put back in the cache) when the connection is returned. Statements, their result
+// sets and the metadata are wrapped too, so getConnection() on any of them leads back here
+// rather than to the physical connection. A call failing with a connection error (SQLState class 08
+// or the matching exception types) marks the connection broken, so it is closed when returned.
+// The next borrower gets the connection as this one found it: an open transaction is rolled back
+// and autoCommit, readOnly, isolation, catalog and schema are set back if they were changed. If
+// that fails the connection is closed instead of going back to the pool. Cached statements get
+// the same treatment for limits such as maxRows, fetchSize and queryTimeout.
+final class ProxyConnection implements InvocationHandler {
+    // Setters of the connection state a borrower may change, and the getter that reads it
+    private static final Map<String, String> RESTORED = Map.of(
+            "setAutoCommit", "getAutoCommit",
+            "setReadOnly", "isReadOnly",
+            "setTransactionIsolation", "getTransactionIsolation",
+            "setCatalog", "getCatalog",
+            "setSchema", "getSchema");
+    // The same for a cached statement, so the next borrower to prepare its SQL gets the driver's
+    // defaults. setLargeMaxRows changes the same limit as setMaxRows and is undone with it.
+    private static final Map<String, String> STATEMENT_RESTORED = Map.of(
+            "setMaxRows", "getMaxRows",
+            "setLargeMaxRows", "getMaxRows",
+            "setMaxFieldSize", "getMaxFieldSize",
+            "setFetchSize", "getFetchSize",
+            "setFetchDirection", "getFetchDirection",
+            "setQueryTimeout", "getQueryTimeout",
+            "setPoolable", "isPoolable");
+    // Statement settings with no getter to undo them from; a cached statement they were used on is closed
+    private static final Set<String> STATEMENT_UNRESTORABLE = Set.of("setEscapeProcessing", "setCursorName", "closeOnCompletion");
+
+    private final DBConnectionPool pool;
+    private final PooledConnection entry;
+    private final Connection proxy;
+    private final List<Object> openStatements = new ArrayList<>();
+    private final Map<Method, Object> originals = new LinkedHashMap<>(); // setter -> value before this borrow
+    private boolean usedStatements;
+    private boolean closed;
+
+    private ProxyConnection(DBConnectionPool pool, PooledConnection entry) {
+        this.pool = pool;
+        this.entry = entry;
+        this.proxy = (Connection) Proxy.newProxyInstance(ProxyConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    static Connection wrap(DBConnectionPool pool, PooledConnection entry) {
+        return new ProxyConnection(pool, entry).proxy;
+    }
+
+    // The handler behind a connection this pool handed out, or null for any other connection
+    static ProxyConnection of(Connection connection) {
+        if (Proxy.isProxyClass(connection.getClass())
+                && Proxy.getInvocationHandler(connection) instanceof ProxyConnection handler) {
+            return handler;
+        }
+        return null;
+    }
+
+    DBConnectionPool pool() {
+        return pool;
+    }
+
+    @Override
+    public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                release();
+                return null;
+            case "isClosed":
+                return closed || entry.connection.isClosed();
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            case "toString":
+                return "Pooled " + entry.connection;
+            default:
+                break;
+        }
+        if (closed) {
+            throw new SQLException("Connection has been returned to the pool");
+        }
+        String getter = RESTORED.get(method.getName());
+        if (getter != null && !originals.containsKey(method)) {
+            originals.put(method, checked(entry.connection, Connection.class.getMethod(getter), null));
+        }
+        if (method.getName().equals("prepareStatement") && entry.statements != null && cacheable(args)) {
+            return prepare(args);
+        }
+        Object result = checked(entry.connection, method, args);
+        if (result instanceof Statement statement) {
+            // Statement, PreparedStatement or CallableStatement, as the method declares
+            usedStatements = true;
+            return new ProxyStatement(statement, method.getReturnType(), null).proxy;
+        }
+        if (result instanceof DatabaseMetaData metaData) {
+            return Proxy.newProxyInstance(ProxyConnection.class.getClassLoader(), new Class<?>[]{DatabaseMetaData.class},
+                    (wrapper, metaMethod, metaArgs) -> switch (metaMethod.getName()) {
+                        case "getConnection" -> proxy;
+                        case "equals" -> wrapper == metaArgs[0];
+                        case "hashCode" -> System.identityHashCode(wrapper);
+                        default -> checked(metaData, metaMethod, metaArgs);
+                    });
+        }
+        return result;
+    }
+
+    // Only the overloads keyed by plain values; column index and name arrays go straight to the driver
+    private static boolean cacheable(Object[] args) {
+        for (Object arg : args) {
+            if (!(arg instanceof String) && !(arg instanceof Integer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PreparedStatement prepare(Object[] args) throws Throwable {
+        usedStatements = true;
+        List<Object> key = Arrays.asList(args);
+        PreparedStatement statement = entry.statements.take(key);
+        if (statement != null) {
+            pool.getMetrics().recordStatementCacheHit();
+        } else {
+            pool.getMetrics().recordStatementCacheMiss();
+            Class<?>[] types = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                types[i] = args[i] instanceof String ? String.class : int.class;
+            }
+            statement = (PreparedStatement) checked(entry.connection, Connection.class.getMethod("prepareStatement", types), args);
+        }
+        return (PreparedStatement) new ProxyStatement(statement, PreparedStatement.class, key).proxy;
+    }
+
+    boolean release() throws SQLException {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        SQLException failure = null;
+        for (Object statement : openStatements.toArray()) {
+            try {
+                ((Statement) statement).close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        openStatements.clear();
+        try {
+            if (!entry.evict) {
+                reset(); // no point on a connection that is about to be closed
+            }
+        } catch (SQLException e) {
+            entry.evict = true;
+            failure = e;
+        }
+        pool.release(entry);
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
+    }
+
+    // Rolls back what the borrower left uncommitted and undoes its setters, oldest first
+    private void reset() throws SQLException {
+        if (usedStatements && !entry.connection.getAutoCommit()) {
+            entry.connection.rollback();
+        }
+        for (Map.Entry<Method, Object> original : originals.entrySet()) {
+            try {
+                call(entry.connection, original.getKey(), new Object[]{original.getValue()});
+            } catch (SQLException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SQLException("Could not undo " + original.getKey().getName(), e);
+            }
+        }
+    }
+
+    // A call on the physical connection or one of its objects on behalf of the borrower
+    private Object checked(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return call(target, method, args);
+        } catch (SQLException e) {
+            if (isConnectionError(e)) {
+                pool.connectionBroken(entry, e);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLNonTransientConnectionException || e instanceof SQLRecoverableException
+                || state != null && state.startsWith("08");
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // A statement as the borrower sees it. close() on a cached one (key not null) clears it, undoes
+    // its setters and puts it back in the cache; any other is closed for real
+    private final class ProxyStatement implements InvocationHandler {
+        private final Statement statement;
+        private final List<Object> key;
+        private final Statement proxy;
+        private final Map<String, Object> originals = new LinkedHashMap<>(); // getter -> value before this borrow
+        private boolean unrestorable;
+        private boolean closed;
+
+        ProxyStatement(Statement statement, Class<?> type, List<Object> key) {
+            this.statement = statement;
+            this.key = key;
+            this.proxy = (Statement) Proxy.newProxyInstance(ProxyConnection.class.getClassLoader(),
+                    new Class<?>[]{type}, this);
+            openStatements.add(proxy);
+        }
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || statement.isClosed();
+                case "getConnection":
+                    return ProxyConnection.this.proxy;
+                case "equals":
+                    return self == args[0];
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "toString":
+                    return (key != null ? "Cached " : "Pooled ") + statement;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            if (key != null) {
+                String getter = STATEMENT_RESTORED.get(method.getName());
+                if (getter != null && !originals.containsKey(getter)) {
+                    originals.put(getter, checked(statement, Statement.class.getMethod(getter), null));
+                }
+                unrestorable |= STATEMENT_UNRESTORABLE.contains(method.getName());
+            }
+            Object result = checked(statement, method, args);
+            if (result instanceof ResultSet resultSet) {
+                return Proxy.newProxyInstance(ProxyConnection.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                        (wrapper, resultMethod, resultArgs) -> switch (resultMethod.getName()) {
+                            case "getStatement" -> proxy;
+                            case "equals" -> wrapper == resultArgs[0];
+                            case "hashCode" -> System.identityHashCode(wrapper);
+                            default -> checked(resultSet, resultMethod, resultArgs);
+                        });
+            }
+            return result;
+        }
+
+        private void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openStatements.remove(proxy);
+            if (key == null || unrestorable || statement.isClosed()) {
+                statement.close();
+                return;
+            }
+            PreparedStatement prepared = (PreparedStatement) statement;
+            try {
+                prepared.clearParameters();
+                prepared.clearWarnings();
+                restore();
+                entry.statements.put(key, prepared);
+            } catch (SQLException e) {
+                prepared.close();
+                throw e;
+            }
+        }
+
+        // The row limit goes first: a driver may refuse a fetch size above the limit still in place
+        private void restore() throws SQLException {
+            Object maxRows = originals.remove("getMaxRows");
+            if (maxRows != null) {
+                statement.setMaxRows((Integer) maxRows);
+            }
+            for (Map.Entry<String, Object> original : originals.entrySet()) {
+                String setter = original.getKey().replaceFirst("^(get|is)", "set");
+                Class<?> type = original.getValue() instanceof Boolean ? boolean.class : int.class;
+                try {
+                    call(statement, Statement.class.getMethod(setter, type), new Object[]{original.getValue()});
+                } catch (SQLException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new SQLException("Could not undo " + setter, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package git.folio;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// A DBConnectionPool for the primary and one for each replica, all with the same settings.
+// getConnection() borrows from the primary. getReadConnection() borrows from the replica with the
+// fewest connections in use; a replica that fails to hand out a connection is skipped for
+// replicaRetryMillis, and reads go to the primary when no replica is left. So is a replica whose
+// handed-out connection fails with a connection error: its pool replaces connections that died
+// while idle before handing them out, but one already borrowed only shows it when used. A replica
+// that is merely busy is not a failure: the borrow waits there and times out like any other. A
+// timeout on a replica with no live connections at all is one, since it means it cannot be reached.
+// Every target keeps its own PoolMetrics, so wait and usage latencies can be compared per node.
+public class RoutingConnectionPool {
+    private final Target primary;
+    private final List<Target> replicas = new ArrayList<>();
+    private final long retryNanos;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder failovers = new LongAdder();
+
+    public RoutingConnectionPool(String primaryUrl, List<String> replicaUrls, String user, String password,
+                                 PoolConfig config) throws SQLException {
+        this.retryNanos = TimeUnit.MILLISECONDS.toNanos(config.getReplicaRetryMillis());
+        String name = config.getPoolName();
+        this.primary = new Target(primaryUrl, user, password, config.copy(name == null ? null : name + "-primary"));
+        try {
+            for (int i = 0; i < replicaUrls.size(); i++) {
+                replicas.add(new Target(replicaUrls.get(i), user, password,
+                        config.copy(name == null ? null : name + "-replica-" + (i + 1))));
+            }
+        } catch (SQLException | RuntimeException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    // For writes, and reads that must see them
+    public Connection getConnection() throws SQLException {
+        return primary.pool.getConnection();
+    }
+
+    public Connection getReadConnection() throws SQLException {
+        int count = replicas.size();
+        boolean[] tried = new boolean[count];
+        // Start the scan somewhere else each time so ties do not all land on the first replica
+        int start = count == 0 ? 0 : Math.floorMod(nextReplica.getAndIncrement(), count);
+        while (true) {
+            long now = System.nanoTime();
+            int best = -1;
+            int bestActive = Integer.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int index = (start + i) % count;
+                Target target = replicas.get(index);
+                if (tried[index] || target.down && now - target.downSinceNanos < retryNanos) {
+                    continue;
+                }
+                int active = target.pool.getMetrics().getActiveConnections();
+                if (active < bestActive) {
+                    best = index;
+                    bestActive = active;
+                }
+            }
+            if (best < 0) {
+                return primary.pool.getConnection();
+            }
+            Target target = replicas.get(best);
+            tried[best] = true;
+            try {
+                Connection connection = target.pool.getConnection();
+                target.down = false;
+                return connection;
+            } catch (SQLException e) {
+                if (e instanceof SQLTimeoutException && hasLiveConnections(target)) {
+                    throw e;
+                }
+                target.markDown();
+                failovers.increment();
+                System.out.println("Error borrowing from replica " + target.url + ", trying the next: " + e.getMessage());
+            }
+        }
+    }
+
+    // A replica with connections in use or idle is busy; one with none timed out connecting, as when
+    // the host drops packets. getTotalConnections would count a connect still hanging, so not that.
+    private static boolean hasLiveConnections(Target target) {
+        PoolMetrics metrics = target.pool.getMetrics();
+        return metrics.getActiveConnections() + metrics.getIdleConnections() > 0;
+    }
+
+    // Same as closing the connection; returns false if it did not come from one of these pools
+    public boolean releaseConnection(Connection connection) {
+        if (primary.pool.releaseConnection(connection)) {
+            return true;
+        }
+        for (Target replica : replicas) {
+            if (replica.pool.releaseConnection(connection)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public DBConnectionPool getPrimary() {
+        return primary.pool;
+    }
+
+    public List<DBConnectionPool> getReplicas() {
+        List<DBConnectionPool> pools = new ArrayList<>(replicas.size());
+        for (Target replica : replicas) {
+            pools.add(replica.pool);
+        }
+        return Collections.unmodifiableList(pools);
+    }
+
+    // Replicas currently skipped after failing to hand out a connection
+    public List<String> getDownReplicas() {
+        long now = System.nanoTime();
+        List<String> down = new ArrayList<>();
+        for (Target replica : replicas) {
+            if (replica.down && now - replica.downSinceNanos < retryNanos) {
+                down.add(replica.url);
+            }
+        }
+        return down;
+    }
+
+    // Times a read moved on to another target because a replica could not hand out a connection
+    public long getFailoverCount() {
+        return failovers.sum();
+    }
+
+    // Metrics of every target by URL, primary first
+    public Map<String, PoolMetrics> getMetrics() {
+        Map<String, PoolMetrics> metrics = new LinkedHashMap<>();
+        metrics.put(primary.url, primary.pool.getMetrics());
+        for (Target replica : replicas) {
+            metrics.put(replica.url, replica.pool.getMetrics());
+        }
+        return metrics;
+    }
+
+    public void shutdown() throws SQLException {
+        SQLException failure = null;
+        List<Target> targets = new ArrayList<>(replicas);
+        targets.add(0, primary);
+        for (Target target : targets) {
+            try {
+                target.pool.shutdown();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // One node and its pool. It listens to its own pool, passing every event on to the configured
+    // listener, to hear of broken connections.
+    private static final class Target implements PoolMetricsListener {
+        final String url;
+        final PoolMetricsListener listener;
+        final DBConnectionPool pool;
+        volatile boolean down;
+        volatile long downSinceNanos;
+
+        Target(String url, String user, String password, PoolConfig config) throws SQLException {
+            this.url = url;
+            this.listener = config.getMetricsListener();
+            this.pool = new DBConnectionPool(url, user, password, config.setMetricsListener(this));
+        }
+
+        void markDown() {
+            downSinceNanos = System.nanoTime();
+            down = true;
+        }
+
+        @Override
+        public void onAcquire(long waitNanos) {
+            if (listener != null) {
+                listener.onAcquire(waitNanos);
+            }
+        }
+
+        @Override
+        public void onTimeout(long waitNanos) {
+            if (listener != null) {
+                listener.onTimeout(waitNanos);
+            }
+        }
+
+        @Override
+        public void onConnectionCreated(long creationNanos) {
+            if (listener != null) {
+                listener.onConnectionCreated(creationNanos);
+            }
+        }
+
+        @Override
+        public void onRelease(long usageNanos) {
+            if (listener != null) {
+                listener.onRelease(usageNanos);
+            }
+        }
+
+        @Override
+        public void onConnectionBroken(SQLException cause) {
+            markDown();
+            System.out.println("Error on a connection to " + url + ": " + cause.getMessage());
+            if (listener != null) {
+                listener.onConnectionBroken(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package git.folio;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Prepared statements of one physical connection that are not in use, keyed by the SQL text and
+// the other prepareStatement arguments. A statement leaves the cache while it is borrowed, so two
+// open statements for the same SQL are simply two statements. Only the thread that has the
+// connection borrowed touches it.
+final class StatementCache {
+    private final int capacity;
+    private final LinkedHashMap<List<Object>, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    PreparedStatement take(List<Object> key) {
+        return statements.remove(key);
+    }
+
+    // Keeps a statement the caller is done with, closing whatever falls off the least recently used end
+    void put(List<Object> key, PreparedStatement statement) throws SQLException {
+        PreparedStatement previous = statements.putIfAbsent(key, statement);
+        if (previous != null) {
+            statement.close(); // the same SQL was already returned; one copy is enough
+            return;
+        }
+        Iterator<Map.Entry<List<Object>, PreparedStatement>> eldest = statements.entrySet().iterator();
+        while (statements.size() > capacity) {
+            PreparedStatement evicted = eldest.next().getValue();
+            eldest.remove();
+            evicted.close();
+        }
+    }
+
+    // Closes every cached statement; called when the connection is retired
+    void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // the connection is going away anyway
+            }
+        }
+        statements.clear();
+    }
+}
@@ -0,0 +1,637 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.management.ManagementFactory;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs the pool against an in-memory H2 database that lives as long as the test
+class DBConnectionPoolTest {
+
+    private static int databaseNumber;
+
+    private DBConnectionPool pool;
+
+    private DBConnectionPool open(PoolConfig config) throws SQLException {
+        String url = "jdbc:h2:mem:pool" + (++databaseNumber) + ";DB_CLOSE_DELAY=-1";
+        pool = new DBConnectionPool(url, "sa", "", config.setRegisterMbeans(false));
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE item (id INT PRIMARY KEY, name VARCHAR(32))");
+            statement.execute("INSERT INTO item VALUES (1, 'one'), (2, 'two'), (3, 'three')");
+        }
+        return pool;
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static String name(Connection connection, int id) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT name FROM item WHERE id = ?")) {
+            statement.setInt(1, id);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        }
+    }
+
+    // The housekeeper works in the background, so its effects are polled for
+    private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail(message);
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    @DisplayName("Test closing a borrowed connection returns it to the pool")
+    void testCloseReturnsConnection() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        Connection first = pool.getConnection();
+        first.close();
+        assertTrue(first.isClosed());
+        assertThrows(SQLException.class, first::createStatement);
+        assertFalse(pool.releaseConnection(first));
+
+        Connection second = pool.getConnection();
+        assertEquals("two", name(second, 2));
+        assertEquals(1, pool.getSize());
+        assertTrue(pool.releaseConnection(second));
+    }
+
+    @Test
+    @DisplayName("Test prepared statements are reused across borrows")
+    void testStatementCacheHit() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        long missesBefore = pool.getMetrics().getStatementCacheMisses();
+        for (int i = 1; i <= 3; i++) {
+            try (Connection connection = pool.getConnection()) {
+                assertNotNull(name(connection, i));
+            }
+        }
+        PoolMetrics metrics = pool.getMetrics();
+        assertEquals(missesBefore + 1, metrics.getStatementCacheMisses());
+        assertEquals(2, metrics.getStatementCacheHits());
+
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+            PreparedStatement physical = statement.unwrap(PreparedStatement.class);
+            assertSame(connection, statement.getConnection());
+            statement.close();
+            assertThrows(SQLException.class, statement::executeQuery);
+            // The same statement is handed out again, with its parameters cleared
+            PreparedStatement again = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+            assertSame(physical, again.unwrap(PreparedStatement.class));
+            assertThrows(SQLException.class, again::executeQuery);
+            // A second open statement for the same SQL is a statement of its own
+            PreparedStatement other = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+            assertNotSame(physical, other.unwrap(PreparedStatement.class));
+        }
+    }
+
+    @Test
+    @DisplayName("Test a cached statement comes back without the limits its last borrower set")
+    void testStatementSettingsRestored() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        String sql = "SELECT name FROM item ORDER BY id";
+        PreparedStatement physical;
+        int fetchSize;
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            physical = statement.unwrap(PreparedStatement.class);
+            fetchSize = statement.getFetchSize();
+            statement.setFetchSize(fetchSize + 7);
+            statement.setMaxRows(1);
+            statement.setQueryTimeout(5);
+            try (ResultSet rows = statement.executeQuery()) {
+                assertTrue(rows.next());
+                assertFalse(rows.next());
+            }
+        }
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            assertSame(physical, statement.unwrap(PreparedStatement.class));
+            assertEquals(0, statement.getMaxRows());
+            assertEquals(fetchSize, statement.getFetchSize());
+            assertEquals(0, statement.getQueryTimeout());
+            int count = 0;
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    count++;
+                }
+            }
+            assertEquals(3, count);
+            statement.setEscapeProcessing(false);
+        }
+        // Nothing to read escape processing back from, so that statement was closed rather than cached
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            assertNotSame(physical, statement.unwrap(PreparedStatement.class));
+            assertTrue(physical.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Test the statement cache drops the least recently used statement")
+    void testStatementCacheEviction() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0).setStatementCacheSize(2));
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement a = connection.prepareStatement("SELECT 1");
+            PreparedStatement physicalA = a.unwrap(PreparedStatement.class);
+            a.close();
+            connection.prepareStatement("SELECT 2").close();
+            connection.prepareStatement("SELECT 1").close();
+            connection.prepareStatement("SELECT 3").close(); // pushes out SELECT 2
+            long misses = pool.getMetrics().getStatementCacheMisses();
+            connection.prepareStatement("SELECT 1").close();
+            assertEquals(misses, pool.getMetrics().getStatementCacheMisses());
+            connection.prepareStatement("SELECT 2").close();
+            assertEquals(misses + 1, pool.getMetrics().getStatementCacheMisses());
+            assertFalse(physicalA.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Test statements left open are closed when the connection is returned")
+    void testOpenStatementsClosedOnRelease() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0).setStatementCacheSize(0));
+        Connection connection = pool.getConnection();
+        Statement plain = connection.createStatement();
+        PreparedStatement prepared = connection.prepareStatement("SELECT 1");
+        connection.close();
+        assertTrue(plain.isClosed());
+        assertTrue(prepared.isClosed());
+        assertEquals(0, pool.getMetrics().getStatementCacheHits() + pool.getMetrics().getStatementCacheMisses());
+    }
+
+    @Test
+    @DisplayName("Test every statement, result set and metadata leads back to the pooled connection")
+    void testNoPathToPhysicalConnection() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0).setStatementCacheSize(0));
+        try (Connection connection = pool.getConnection()) {
+            Statement plain = connection.createStatement();
+            assertSame(connection, plain.getConnection());
+            try (ResultSet result = plain.executeQuery("SELECT name FROM item")) {
+                assertSame(plain, result.getStatement());
+                assertSame(connection, result.getStatement().getConnection());
+            }
+            PreparedStatement prepared = connection.prepareStatement("SELECT name FROM item WHERE id = ?");
+            assertSame(connection, prepared.getConnection());
+            prepared.setInt(1, 2);
+            try (ResultSet result = prepared.executeQuery()) {
+                assertSame(prepared, result.getStatement());
+            }
+            PreparedStatement keys = connection.prepareStatement("INSERT INTO item VALUES (5, 'five')", new int[]{1});
+            assertSame(connection, keys.getConnection());
+            CallableStatement call = connection.prepareCall("CALL 1");
+            assertSame(connection, call.getConnection());
+            assertSame(connection, connection.getMetaData().getConnection());
+
+            // Closing them for real, since nothing is cached
+            Statement physical = plain.unwrap(Statement.class);
+            plain.close();
+            assertTrue(physical.isClosed());
+        }
+    }
+
+    @Test
+    @DisplayName("Test cached statements are closed when their connection is retired")
+    void testCacheClearedOnRetire() throws Exception {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0).setMaxLifetimeMillis(200)
+                .setHousekeepingPeriodMillis(50));
+        PreparedStatement cached;
+        try (Connection connection = pool.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement("SELECT 1");
+            cached = statement.unwrap(PreparedStatement.class);
+            statement.close();
+            assertFalse(cached.isClosed());
+        }
+        awaitTrue(() -> {
+            try {
+                return cached.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }, "cached statement outlived its connection");
+    }
+
+    @Test
+    @DisplayName("Test the next borrower does not see the last one's transaction or settings")
+    void testStateResetOnRelease() throws SQLException {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        Connection physical;
+        try (Connection connection = pool.getConnection()) {
+            physical = connection.unwrap(Connection.class);
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            connection.setReadOnly(true);
+            connection.setReadOnly(false);
+            connection.setSchema("INFORMATION_SCHEMA");
+            connection.setSchema("PUBLIC");
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("INSERT INTO item VALUES (4, 'four')");
+            }
+            // Returned without a commit
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertSame(physical, connection.unwrap(Connection.class));
+            assertTrue(connection.getAutoCommit());
+            assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection.getTransactionIsolation());
+            assertFalse(connection.isReadOnly());
+            assertEquals("PUBLIC", connection.getSchema());
+            assertNull(name(connection, 4));
+        }
+        try (Connection connection = pool.getConnection()) {
+            connection.setSchema("INFORMATION_SCHEMA");
+        }
+        try (Connection connection = pool.getConnection()) {
+            assertEquals("PUBLIC", connection.getSchema());
+        }
+    }
+
+    @Test
+    @DisplayName("Test a connection that cannot be reset is closed instead of pooled")
+    void testResetFailureRetires() throws Exception {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        Connection connection = pool.getConnection();
+        Connection physical = connection.unwrap(Connection.class);
+        connection.setAutoCommit(false);
+        physical.close(); // dies mid-borrow
+        assertThrows(SQLException.class, connection::close);
+        awaitTrue(() -> pool.getSize() == 0, "connection was pooled again");
+        try (Connection fresh = pool.getConnection()) {
+            assertNotSame(physical, fresh.unwrap(Connection.class));
+            assertTrue(fresh.getAutoCommit());
+        }
+    }
+
+    @Test
+    @DisplayName("Test getConnection times out when every connection is in use")
+    void testTimeout() throws SQLException {
+        open(new PoolConfig().setMaxConnections(2).setMinIdle(0));
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        assertThrows(SQLTimeoutException.class, () -> pool.getConnection(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getMetrics().getTimeoutCount());
+        first.close();
+        try (Connection third = pool.getConnection(50, TimeUnit.MILLISECONDS)) {
+            assertEquals("three", name(third, 3));
+        }
+        second.close();
+    }
+
+    @Test
+    @DisplayName("Test concurrent borrowers never share a connection")
+    void testConcurrentBorrowNoOverlap() throws Exception {
+        open(new PoolConfig().setMaxConnections(4).setMinIdle(0));
+        Set<Connection> inUse = ConcurrentHashMap.newKeySet();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(threads.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        try (Connection connection = pool.getConnection(5, TimeUnit.SECONDS)) {
+                            Connection physical = connection.unwrap(Connection.class);
+                            if (!inUse.add(physical)) {
+                                overlaps.incrementAndGet();
+                            }
+                            assertNotNull(name(connection, 1 + i % 3));
+                            inUse.remove(physical);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(0, overlaps.get());
+        assertTrue(pool.getSize() <= 4);
+        assertEquals(1600, pool.getMetrics().getAcquireCount() - 1);
+    }
+
+    @Test
+    @DisplayName("Test a returned connection is handed straight to a waiting borrower")
+    void testHandoffToWaiter() throws Exception {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        Connection held = pool.getConnection();
+        Connection physical = held.unwrap(Connection.class);
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            Future<Connection> waiter = threads.submit(() -> {
+                Connection connection = pool.getConnection(5, TimeUnit.SECONDS);
+                Connection borrowed = connection.unwrap(Connection.class);
+                connection.close();
+                return borrowed;
+            });
+            // Give the waiter time to start waiting, then return the connection
+            Thread.sleep(100);
+            assertFalse(waiter.isDone());
+            held.close();
+            assertSame(physical, waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            threads.shutdownNow();
+        }
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    @DisplayName("Test shutdown fails the threads waiting for a connection")
+    void testShutdownWakesWaiters() throws Exception {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0));
+        Connection held = pool.getConnection();
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        CountDownLatch started = new CountDownLatch(3);
+        try {
+            List<Future<?>> waiters = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                waiters.add(threads.submit(() -> {
+                    started.countDown();
+                    return pool.getConnection(30, TimeUnit.SECONDS);
+                }));
+            }
+            started.await();
+            Thread.sleep(100);
+            pool.shutdown();
+            for (Future<?> waiter : waiters) {
+                Exception e = assertThrows(Exception.class, () -> waiter.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(SQLException.class, e.getCause());
+                assertFalse(e.getCause() instanceof SQLTimeoutException);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        assertTrue(held.unwrap(Connection.class).isClosed());
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+
+    @Test
+    @DisplayName("Test the pool warms up to minIdle without being asked")
+    void testWarmUp() throws Exception {
+        pool = new DBConnectionPool("jdbc:h2:mem:warm" + (++databaseNumber) + ";DB_CLOSE_DELAY=-1", "sa", "",
+                new PoolConfig().setMaxConnections(8).setMinIdle(3).setRegisterMbeans(false));
+        awaitTrue(() -> pool.getMetrics().getIdleConnections() == 3, "never warmed up");
+        assertEquals(3, pool.getSize());
+        assertEquals(0, pool.getMetrics().getAcquireCount());
+    }
+
+    @Test
+    @DisplayName("Test connections idle past the idle timeout are closed down to minIdle")
+    void testIdleEviction() throws Exception {
+        open(new PoolConfig().setMaxConnections(8).setMinIdle(2).setIdleTimeoutMillis(200)
+                .setHousekeepingPeriodMillis(50));
+        List<Connection> burst = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            burst.add(pool.getConnection());
+        }
+        assertTrue(pool.getSize() >= 6); // plus any the housekeeper opened to keep minIdle spare
+        for (Connection connection : burst) {
+            connection.close();
+        }
+        awaitTrue(() -> pool.getSize() == 2, "idle connections were not closed, size " + pool.getSize());
+        Thread.sleep(300);
+        assertEquals(2, pool.getSize());
+        assertEquals(2, pool.getMetrics().getIdleConnections());
+    }
+
+    @Test
+    @DisplayName("Test connections past their max lifetime are replaced, borrowed ones once returned")
+    void testMaxLifetime() throws Exception {
+        open(new PoolConfig().setMaxConnections(2).setMinIdle(1).setMaxLifetimeMillis(300)
+                .setHousekeepingPeriodMillis(50));
+        Connection held = pool.getConnection();
+        Connection physical = held.unwrap(Connection.class);
+        Thread.sleep(400);
+        // Still usable while borrowed, however old
+        assertEquals("one", name(held, 1));
+        held.close();
+        awaitTrue(() -> {
+            try {
+                return physical.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }, "expired connection was not closed");
+        try (Connection fresh = pool.getConnection()) {
+            assertNotSame(physical, fresh.unwrap(Connection.class));
+            assertEquals("two", name(fresh, 2));
+        }
+        assertTrue(pool.getMetrics().getConnectionsCreated() >= 3);
+    }
+
+    @Test
+    @DisplayName("Test validation replaces a connection that died while idle")
+    void testValidationReplacesDeadConnection() throws Exception {
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(1).setValidationIntervalMillis(50)
+                .setHousekeepingPeriodMillis(50));
+        Connection dead;
+        try (Connection connection = pool.getConnection()) {
+            dead = connection.unwrap(Connection.class);
+        }
+        dead.close(); // behind the pool's back, as if the server had dropped it
+        awaitTrue(() -> pool.getMetrics().getConnectionsCreated() >= 2, "dead connection was not replaced");
+        try (Connection connection = pool.getConnection()) {
+            assertNotSame(dead, connection.unwrap(Connection.class));
+            assertEquals("three", name(connection, 3));
+        }
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    @DisplayName("Test the metrics and the listener see every borrow, return, creation and timeout")
+    void testMetricsAndListener() throws Exception {
+        LongAdder acquires = new LongAdder();
+        LongAdder releases = new LongAdder();
+        LongAdder creations = new LongAdder();
+        LongAdder timeouts = new LongAdder();
+        PoolMetricsListener listener = new PoolMetricsListener() {
+            @Override
+            public void onAcquire(long waitNanos) {
+                acquires.increment();
+            }
+
+            @Override
+            public void onTimeout(long waitNanos) {
+                timeouts.increment();
+            }
+
+            @Override
+            public void onConnectionCreated(long creationNanos) {
+                creations.increment();
+            }
+
+            @Override
+            public void onRelease(long usageNanos) {
+                releases.increment();
+            }
+        };
+        open(new PoolConfig().setMaxConnections(1).setMinIdle(0).setMetricsListener(listener));
+        for (int i = 0; i < 9; i++) {
+            try (Connection connection = pool.getConnection()) {
+                if (i == 0) {
+                    Thread.sleep(20); // one long borrow, so it stands out in the usage histogram
+                }
+            }
+        }
+        Connection held = pool.getConnection();
+        assertThrows(SQLTimeoutException.class, () -> pool.getConnection(20, TimeUnit.MILLISECONDS));
+        held.close();
+
+        PoolMetrics metrics = pool.getMetrics();
+        assertEquals(11, metrics.getAcquireCount());
+        assertEquals(11, acquires.sum());
+        assertEquals(11, releases.sum());
+        assertEquals(1, metrics.getConnectionsCreated());
+        assertEquals(1, creations.sum());
+        assertEquals(1, metrics.getTimeoutCount());
+        assertEquals(1, timeouts.sum());
+        assertEquals(0, metrics.getActiveConnections());
+        assertEquals(1, metrics.getIdleConnections());
+        assertTrue(metrics.getUsageMaxMicros() >= 20_000);
+        assertTrue(metrics.getUsageP50Micros() < 20_000);
+        assertTrue(metrics.getUsageP99Micros() >= metrics.getUsageP50Micros());
+        assertTrue(metrics.toString().contains("acquired=11 timeouts=1"), metrics.toString());
+    }
+
+    @Test
+    @DisplayName("Test the metrics are published over JMX until shutdown")
+    void testJmx() throws Exception {
+        String url = "jdbc:h2:mem:jmx" + (++databaseNumber) + ";DB_CLOSE_DELAY=-1";
+        pool = new DBConnectionPool(url, "sa", "", new PoolConfig().setMaxConnections(2).setMinIdle(0)
+                .setPoolName("jmx-test"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("git.folio:type=DBConnectionPool,name=" + ObjectName.quote("jmx-test"));
+        assertTrue(server.isRegistered(name));
+        try (Connection connection = pool.getConnection()) {
+            assertEquals(1, server.getAttribute(name, "ActiveConnections"));
+            assertEquals(1L, server.getAttribute(name, "AcquireCount"));
+        }
+        assertEquals(1, server.getAttribute(name, "IdleConnections"));
+        pool.shutdown();
+        pool = null;
+        assertFalse(server.isRegistered(name));
+    }
+
+    // jdbc:slow:<h2 url> takes a second to connect, like a database that is not answering
+    static final class SlowDriver implements Driver {
+        static {
+            try {
+                DriverManager.registerDriver(new SlowDriver());
+            } catch (SQLException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while connecting", e);
+            }
+            return DriverManager.getConnection("jdbc:" + url.substring("jdbc:slow:".length()), info);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:slow:");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    @Test
+    @DisplayName("Test a slow connect does not hold the borrower past its timeout")
+    void testSlowConnectRespectsTimeout() throws Exception {
+        Class.forName(SlowDriver.class.getName());
+        pool = new DBConnectionPool("jdbc:slow:h2:mem:slow;DB_CLOSE_DELAY=-1", "sa", "",
+                new PoolConfig().setMaxConnections(1).setMinIdle(0).setRegisterMbeans(false));
+        long start = System.nanoTime();
+        assertThrows(SQLTimeoutException.class, () -> pool.getConnection(50, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+        // The connection opened in the background is there for the next borrower
+        try (Connection connection = pool.getConnection(5, TimeUnit.SECONDS)) {
+            assertTrue(connection.isValid(1));
+        }
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    @DisplayName("Test a borrower gets the connect error at once rather than a timeout")
+    void testConnectFailureFailsFast() throws SQLException {
+        pool = new DBConnectionPool("jdbc:h2:mem:missing;IFEXISTS=TRUE", "sa", "",
+                new PoolConfig().setMaxConnections(2).setMinIdle(0).setRegisterMbeans(false));
+        long start = System.nanoTime();
+        SQLException e = assertThrows(SQLException.class, () -> pool.getConnection(10, TimeUnit.SECONDS));
+        assertFalse(e instanceof SQLTimeoutException);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(0, pool.getSize());
+    }
+}
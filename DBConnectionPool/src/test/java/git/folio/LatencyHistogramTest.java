@@ -0,0 +1,58 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Test an empty histogram reports zeros")
+    void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.mean());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+
+    @Test
+    @DisplayName("Test small values are counted exactly")
+    void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 4; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5); // clock went backwards: counted as 0
+        assertEquals(5, histogram.count());
+        assertEquals(4, histogram.max());
+        assertEquals(2.0, histogram.mean());
+        assertEquals(2, histogram.percentile(0.50));
+        assertEquals(4, histogram.percentile(1.0));
+    }
+
+    @Test
+    @DisplayName("Test percentiles are within one bucket of the exact value")
+    void testPercentilesWithinBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(5);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over microseconds to seconds, like real waits
+            values[i] = (long) Math.exp(7 + random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double fraction : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long reported = histogram.percentile(fraction);
+            assertTrue(reported >= exact, fraction + ": " + reported + " < " + exact);
+            assertTrue(reported <= exact + exact / 8, fraction + ": " + reported + " too far above " + exact);
+        }
+        assertEquals(values[values.length - 1], histogram.max());
+        assertEquals(values[values.length - 1], histogram.percentile(1.0));
+    }
+}
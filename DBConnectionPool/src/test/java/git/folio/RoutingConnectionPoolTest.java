@@ -0,0 +1,292 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three in-memory H2 databases stand in for a primary and two replicas; each holds its own name
+class RoutingConnectionPoolTest {
+
+    private static int clusterNumber;
+
+    private final List<Connection> keepAlive = new ArrayList<>();
+    private String primaryUrl;
+    private String replica1Url;
+    private String replica2Url;
+    private RoutingConnectionPool pool;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        String prefix = "jdbc:h2:mem:cluster" + (++clusterNumber) + "-";
+        primaryUrl = createNode(prefix + "primary");
+        replica1Url = createNode(prefix + "replica1");
+        replica2Url = createNode(prefix + "replica2");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        for (Connection connection : keepAlive) {
+            connection.close();
+        }
+    }
+
+    // Shuts the database down, closing every connection to it, as if the node had crashed
+    private void kill(String url) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN IMMEDIATELY");
+        }
+    }
+
+    private String createNode(String url) throws SQLException {
+        Connection connection = DriverManager.getConnection(url, "sa", "");
+        keepAlive.add(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE node (name VARCHAR(32))");
+            statement.execute("INSERT INTO node VALUES ('" + url.substring(url.lastIndexOf('-') + 1) + "')");
+        }
+        return url + ";IFEXISTS=TRUE";
+    }
+
+    private RoutingConnectionPool open(List<String> replicaUrls) throws SQLException {
+        pool = new RoutingConnectionPool(primaryUrl, replicaUrls, "sa", "",
+                new PoolConfig().setMaxConnections(4).setMinIdle(0).setRegisterMbeans(false));
+        return pool;
+    }
+
+    private static String node(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT name FROM node")) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Test writes go to the primary and reads to the least busy replica")
+    void testRouting() throws SQLException {
+        open(List.of(replica1Url, replica2Url));
+        try (Connection write = pool.getConnection()) {
+            assertEquals("primary", node(write));
+        }
+        Connection first = pool.getReadConnection();
+        Connection second = pool.getReadConnection();
+        String busy = node(first);
+        String free = node(second);
+        assertNotEquals(busy, free);
+        assertTrue(busy.startsWith("replica") && free.startsWith("replica"));
+
+        // One replica still has a connection out, so the next read goes to the other
+        second.close();
+        try (Connection another = pool.getReadConnection()) {
+            assertEquals(free, node(another));
+        }
+        first.close();
+        assertEquals(0, pool.getFailoverCount());
+    }
+
+    @Test
+    @DisplayName("Test reads fail over to the next replica and then to the primary")
+    void testFailover() throws SQLException {
+        String missing = primaryUrl.replace("primary", "gone");
+        open(List.of(missing, replica2Url));
+        for (int i = 0; i < 4; i++) {
+            try (Connection read = pool.getReadConnection()) {
+                assertEquals("replica2", node(read));
+            }
+        }
+        assertEquals(1, pool.getFailoverCount());
+        assertEquals(List.of(missing), pool.getDownReplicas());
+        pool.shutdown();
+
+        open(List.of(missing, missing.replace("gone", "lost")));
+        try (Connection read = pool.getReadConnection()) {
+            assertEquals("primary", node(read));
+        }
+        assertEquals(2, pool.getFailoverCount());
+        assertEquals(2, pool.getDownReplicas().size());
+    }
+
+    @Test
+    @DisplayName("Test a failed replica is tried again after the retry interval")
+    void testReplicaRetry() throws Exception {
+        String late = primaryUrl.replace("primary", "late");
+        pool = new RoutingConnectionPool(primaryUrl, List.of(late), "sa", "",
+                new PoolConfig().setMinIdle(0).setRegisterMbeans(false).setReplicaRetryMillis(2000));
+        try (Connection read = pool.getReadConnection()) {
+            assertEquals("primary", node(read));
+        }
+        createNode(late.replace(";IFEXISTS=TRUE", ""));
+        // Still within the retry interval, which leaves room for a slow first connect attempt
+        try (Connection read = pool.getReadConnection()) {
+            assertEquals("primary", node(read));
+        }
+        Thread.sleep(2100);
+        try (Connection read = pool.getReadConnection()) {
+            assertEquals("late", node(read));
+        }
+        assertTrue(pool.getDownReplicas().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test a replica whose connects never return is failed over, but a busy one is not")
+    void testUnreachableReplica() throws Exception {
+        // Stands in for a host that drops packets: connecting hangs until the pool gives up on it
+        CountDownLatch unreachable = new CountDownLatch(1);
+        Driver hanging = new Driver() {
+            @Override
+            public Connection connect(String url, Properties info) throws SQLException {
+                if (!acceptsURL(url)) {
+                    return null;
+                }
+                try {
+                    unreachable.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SQLException("Connection timed out");
+            }
+
+            @Override
+            public boolean acceptsURL(String url) {
+                return url.startsWith("jdbc:hang:");
+            }
+
+            @Override
+            public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+                return new DriverPropertyInfo[0];
+            }
+
+            @Override
+            public int getMajorVersion() {
+                return 1;
+            }
+
+            @Override
+            public int getMinorVersion() {
+                return 0;
+            }
+
+            @Override
+            public boolean jdbcCompliant() {
+                return false;
+            }
+
+            @Override
+            public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+                throw new SQLFeatureNotSupportedException();
+            }
+        };
+        DriverManager.registerDriver(hanging);
+        try {
+            pool = new RoutingConnectionPool(primaryUrl, List.of("jdbc:hang:replica", replica1Url), "sa", "",
+                    new PoolConfig().setMaxConnections(1).setMinIdle(0).setRegisterMbeans(false)
+                            .setConnectionTimeoutMillis(300));
+            // Least active is the hanging replica, with nothing in use; the read times out there and moves on
+            Connection held = pool.getReadConnection();
+            assertEquals("replica1", node(held));
+            assertEquals(1, pool.getFailoverCount());
+            assertEquals(List.of("jdbc:hang:replica"), pool.getDownReplicas());
+
+            // replica1 has its only connection out: that is busy, not down
+            assertThrows(SQLTimeoutException.class, pool::getReadConnection);
+            assertEquals(List.of("jdbc:hang:replica"), pool.getDownReplicas());
+            held.close();
+            try (Connection read = pool.getReadConnection()) {
+                assertEquals("replica1", node(read));
+            }
+            assertEquals(1, pool.getFailoverCount());
+        } finally {
+            unreachable.countDown();
+            DriverManager.deregisterDriver(hanging);
+        }
+    }
+
+    @Test
+    @DisplayName("Test metrics are kept per target")
+    void testPerTargetMetrics() throws SQLException {
+        open(List.of(replica1Url, replica2Url));
+        pool.getConnection().close();
+        for (int i = 0; i < 6; i++) {
+            pool.getReadConnection().close();
+        }
+        Map<String, PoolMetrics> metrics = pool.getMetrics();
+        assertEquals(List.of(primaryUrl, replica1Url, replica2Url), new ArrayList<>(metrics.keySet()));
+        assertEquals(1, metrics.get(primaryUrl).getAcquireCount());
+        assertEquals(6, metrics.get(replica1Url).getAcquireCount() + metrics.get(replica2Url).getAcquireCount());
+        assertTrue(metrics.get(replica1Url).getAcquireCount() > 0);
+        assertTrue(metrics.get(replica2Url).getAcquireCount() > 0);
+    }
+
+    @Test
+    @DisplayName("Test reads fail over when a replica dies while its pool holds idle connections")
+    void testWarmReplicaDies() throws Exception {
+        pool = new RoutingConnectionPool(primaryUrl, List.of(replica1Url, replica2Url), "sa", "",
+                new PoolConfig().setMaxConnections(4).setMinIdle(2).setRegisterMbeans(false)
+                        .setValidateAfterIdleMillis(100));
+        // Let both replica pools warm up and be used once
+        for (int i = 0; i < 4; i++) {
+            pool.getReadConnection().close();
+        }
+        assertTrue(pool.getReplicas().get(0).getSize() >= 2);
+        kill(replica1Url);
+        Thread.sleep(200);
+
+        for (int i = 0; i < 6; i++) {
+            try (Connection read = pool.getReadConnection()) {
+                assertEquals("replica2", node(read));
+            }
+        }
+        assertEquals(List.of(replica1Url), pool.getDownReplicas());
+        assertEquals(1, pool.getFailoverCount());
+    }
+
+    @Test
+    @DisplayName("Test a replica whose borrowed connection breaks is skipped for later reads")
+    void testBorrowedConnectionBreaks() throws Exception {
+        // One connection per node, so the dying replica has no spare opened alongside the one that breaks
+        pool = new RoutingConnectionPool(primaryUrl, List.of(replica1Url, replica2Url), "sa", "",
+                new PoolConfig().setMaxConnections(1).setMinIdle(0).setRegisterMbeans(false));
+        Connection first = pool.getReadConnection();
+        String dead = node(first);
+        String dyingUrl = dead.equals("replica1") ? replica1Url : replica2Url;
+        kill(dyingUrl);
+        assertThrows(SQLException.class, () -> node(first));
+        first.close();
+
+        // No waiting for validation: the replica is skipped straight away
+        for (int i = 0; i < 4; i++) {
+            try (Connection read = pool.getReadConnection()) {
+                assertNotEquals(dead, node(read));
+            }
+        }
+        assertEquals(List.of(dyingUrl), pool.getDownReplicas());
+        PoolMetrics metrics = pool.getMetrics().get(dyingUrl);
+        assertEquals(1, metrics.getBrokenConnections());
+        // The broken connection is retired by the housekeeper, in the background
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (metrics.getTotalConnections() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, metrics.getTotalConnections());
+    }
+}
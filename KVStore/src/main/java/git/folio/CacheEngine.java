@@ -0,0 +1,348 @@
+package git.folio;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Bounded in-memory cache using W-TinyLFU: new entries land in a small LRU window, and an entry
+// leaving the window only displaces the main area's LRU victim if the frequency sketch says it
+// is more popular. The main area is a segmented LRU (probation + protected).
+// Per-key TTLs are tracked by a hierarchical timing wheel that is advanced on every operation.
+public class CacheEngine implements StorageEngine {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final Map<String, Node> data = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final TimerWheel timerWheel;
+    private final LongSupplier ticker;
+    private final AccessOrderList window = new AccessOrderList();
+    private final AccessOrderList probation = new AccessOrderList();
+    private final AccessOrderList protectedList = new AccessOrderList();
+
+    private final boolean weighByBytes;
+    private final long maximum;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final long defaultTtlNanos;
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public CacheEngine(long maximumEntries) {
+        this(maximumEntries, false, 0, TimeUnit.MILLISECONDS);
+    }
+
+    // With weighByBytes the maximum is an approximate heap size: two bytes per char plus a fixed overhead
+    public CacheEngine(long maximum, boolean weighByBytes, long defaultTtl, TimeUnit unit) {
+        this(maximum, weighByBytes, unit.toNanos(defaultTtl), System::nanoTime);
+    }
+
+    CacheEngine(long maximum, boolean weighByBytes, long defaultTtlNanos, LongSupplier ticker) {
+        if (maximum <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maximum = maximum;
+        this.weighByBytes = weighByBytes;
+        this.defaultTtlNanos = defaultTtlNanos;
+        this.ticker = ticker;
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8);
+        this.sketch = new FrequencySketch(weighByBytes ? maximum / 256 : maximum);
+        this.timerWheel = new TimerWheel(ticker.getAsLong());
+    }
+
+    @Override
+    public String get(String key) {
+        lock.lock();
+        try {
+            long now = expireEntries();
+            Node node = data.get(key);
+            if (node == null || node.isExpired(now)) {
+                if (node != null) {
+                    remove(node);
+                    expirations.increment();
+                }
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            sketch.increment(key.hashCode());
+            onAccess(node);
+            return node.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        put(key, value, defaultTtlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // A ttl of zero means the entry never expires
+    public void put(String key, String value, long ttl, TimeUnit unit) {
+        lock.lock();
+        try {
+            long now = expireEntries();
+            long expiresAt = ttl > 0 ? now + unit.toNanos(ttl) : 0;
+            sketch.increment(key.hashCode());
+            Node node = data.get(key);
+            if (node != null) {
+                timerWheel.deschedule(node);
+                long oldWeight = node.weight;
+                node.value = value;
+                node.weight = weigh(key, value);
+                node.expiresAt = expiresAt;
+                adjustWeight(node, node.weight - oldWeight);
+                onAccess(node);
+            } else {
+                node = new Node(key, value, weigh(key, value), expiresAt);
+                data.put(key, node);
+                node.queue = WINDOW;
+                window.addLast(node);
+                windowWeight += node.weight;
+                totalWeight += node.weight;
+            }
+            if (expiresAt != 0) {
+                timerWheel.schedule(node);
+            }
+            evictEntries();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        lock.lock();
+        try {
+            expireEntries();
+            Node node = data.get(key);
+            if (node != null) {
+                remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return data.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long expirationCount() {
+        return expirations.sum();
+    }
+
+    public double hitRate() {
+        long requests = hits.sum() + misses.sum();
+        return requests == 0 ? 1.0 : (double) hits.sum() / requests;
+    }
+
+    public String stats() {
+        return String.format("hits=%d misses=%d hitRate=%.2f%% evictions=%d expirations=%d size=%d",
+                hitCount(), missCount(), hitRate() * 100, evictionCount(), expirationCount(), size());
+    }
+
+    private long weigh(String key, String value) {
+        return weighByBytes ? 2L * (key.length() + value.length()) + ENTRY_OVERHEAD_BYTES : 1;
+    }
+
+    private long expireEntries() {
+        long now = ticker.getAsLong();
+        timerWheel.advance(now, node -> {
+            remove(node);
+            expirations.increment();
+        });
+        return now;
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == WINDOW) {
+            window.moveToLast(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedList.addLast(node);
+            protectedWeight += node.weight;
+            // Keep the protected segment within budget by demoting its least recently used entries
+            while (protectedWeight > protectedMaximum && protectedList.first() != node) {
+                Node demoted = protectedList.removeFirst();
+                protectedWeight -= demoted.weight;
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+        } else {
+            protectedList.moveToLast(node);
+        }
+    }
+
+    private void adjustWeight(Node node, long delta) {
+        totalWeight += delta;
+        if (node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight += delta;
+        }
+    }
+
+    private void evictEntries() {
+        // Entries overflowing the window become candidates at the tail of probation
+        Node firstCandidate = null;
+        while (windowWeight > windowMaximum && window.first() != null) {
+            Node candidate = window.removeFirst();
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+            if (firstCandidate == null) {
+                firstCandidate = candidate;
+            }
+        }
+
+        Node candidate = firstCandidate;
+        while (totalWeight > maximum && candidate != null) {
+            Node next = candidate.next;
+            Node victim = probation.first();
+            if (victim != candidate && candidate.weight <= maximum
+                    && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evict(victim);
+            } else {
+                evict(candidate);
+            }
+            candidate = next;
+        }
+
+        // Fall back to plain LRU order when the candidates alone did not free enough room
+        while (totalWeight > maximum) {
+            Node victim = probation.first();
+            if (victim == null) {
+                victim = protectedList.first();
+            }
+            if (victim == null) {
+                victim = window.first();
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(Node node) {
+        remove(node);
+        evictions.increment();
+    }
+
+    private void remove(Node node) {
+        data.remove(node.key);
+        timerWheel.deschedule(node);
+        if (node.queue == WINDOW) {
+            window.remove(node);
+            windowWeight -= node.weight;
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else {
+            protectedList.remove(node);
+            protectedWeight -= node.weight;
+        }
+        totalWeight -= node.weight;
+    }
+
+    static final class Node {
+        final String key;
+        String value;
+        long weight;
+        long expiresAt;
+        int queue;
+        Node prev;
+        Node next;
+        Node wheelPrev;
+        Node wheelNext;
+
+        Node(String key, String value, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && expiresAt - now <= 0;
+        }
+    }
+
+    // Intrusive doubly-linked list in access order, least recently used first
+    static final class AccessOrderList {
+        private Node head;
+        private Node tail;
+
+        Node first() {
+            return head;
+        }
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        Node removeFirst() {
+            Node first = head;
+            remove(first);
+            return first;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package git.folio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class InMemoryEngine implements StorageEngine {
+    private final Map<String, String> store = new HashMap<>();
+
+    @Override
+    public void put(String key, String value) {
+        store.put(key, value);
+    }
+
+    @Override
+    public String get(String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public void delete(String key) {
+        store.remove(key);
+    }
+}
@@ -0,0 +1,133 @@
+package git.folio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Drives a KeyValueServer with pipelined SET/GET batches from several connections and reports
+// throughput and batch round-trip latency percentiles.
+public class KeyValueLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java KeyValueLoadGenerator <host> <port> [connections] [pipeline] [seconds] [valueSize] [keys] [readPercent]");
+            return;
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int pipeline = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        int valueSize = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        int keys = args.length > 6 ? Integer.parseInt(args[6]) : 100_000;
+        int readPercent = args.length > 7 ? Integer.parseInt(args[7]) : 80;
+
+        AtomicLong operations = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        List<long[]> latencies = new ArrayList<>();
+        char[] fill = new char[valueSize];
+        Arrays.fill(fill, 'x');
+        String value = new String(fill);
+
+        for (int c = 0; c < connections; c++) {
+            long[] samples = new long[1 << 20];
+            latencies.add(samples);
+            Thread worker = new Thread(() -> {
+                try {
+                    runConnection(host, port, pipeline, keys, readPercent, value, deadline, operations, samples);
+                } catch (IOException e) {
+                    System.out.println("Connection failed: " + e.getMessage());
+                }
+            }, "load-" + c);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long total = operations.get();
+        System.out.printf("%d operations in %d s: %.0f ops/sec (%d connections, pipeline %d)%n",
+                total, seconds, total / (double) seconds, connections, pipeline);
+        printLatencies(latencies);
+    }
+
+    private static void runConnection(String host, int port, int pipeline, int keys, int readPercent, String value,
+                                      long deadline, AtomicLong operations, long[] samples) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port))) {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+            ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int sampleCount = 0;
+
+            while (System.nanoTime() < deadline) {
+                out.clear();
+                for (int i = 0; i < pipeline; i++) {
+                    String key = "key:" + random.nextInt(keys);
+                    if (random.nextInt(100) < readPercent) {
+                        out = RespCodec.writeCommand(out, "GET", key);
+                    } else {
+                        out = RespCodec.writeCommand(out, "SET", key, value);
+                    }
+                }
+                long start = System.nanoTime();
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+
+                int replies = 0;
+                while (replies < pipeline) {
+                    in = RespCodec.ensureCapacity(in, 1024);
+                    if (channel.read(in) < 0) {
+                        throw new IOException("Server closed the connection");
+                    }
+                    in.flip();
+                    Object reply;
+                    while (replies < pipeline && (reply = RespCodec.parseReply(in)) != RespCodec.INCOMPLETE) {
+                        if (reply instanceof RespCodec.RespError) {
+                            throw new IOException("Server error: " + reply);
+                        }
+                        replies++;
+                    }
+                    in.compact();
+                }
+                if (sampleCount < samples.length) {
+                    samples[sampleCount++] = System.nanoTime() - start;
+                }
+                operations.addAndGet(pipeline);
+            }
+            if (sampleCount < samples.length) {
+                samples[sampleCount] = -1; // end marker
+            }
+        }
+    }
+
+    private static void printLatencies(List<long[]> perConnection) {
+        List<Long> all = new ArrayList<>();
+        for (long[] samples : perConnection) {
+            for (long sample : samples) {
+                if (sample <= 0) {
+                    break;
+                }
+                all.add(sample);
+            }
+        }
+        if (all.isEmpty()) {
+            return;
+        }
+        all.sort(Long::compare);
+        System.out.printf("Batch round trip: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                all.get(all.size() / 2) / 1000.0,
+                all.get((int) (all.size() * 0.99)) / 1000.0,
+                all.get(all.size() - 1) / 1000.0);
+    }
+}
@@ -0,0 +1,279 @@
+package git.folio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+// Single-threaded NIO server speaking a RESP subset (PING, GET, SET, DEL, EXISTS, QUIT).
+// Every complete command in a read is executed before the replies are flushed with one write,
+// so pipelining clients get batched responses. Engine calls all happen on the selector thread.
+public class KeyValueServer implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 4 * 1024 * 1024;
+
+    private final StorageEngine engine;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    public KeyValueServer(StorageEngine engine, int port) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    } catch (RuntimeException e) {
+                        // A bug on one connection must not take the whole server down
+                        System.out.println("Error serving connection: " + e);
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Server error: " + e.getMessage());
+        } finally {
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing server: " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.socket().setTcpNoDelay(true);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        connection.in = RespCodec.ensureCapacity(connection.in, 1024);
+        int n = channel.read(connection.in);
+        if (n < 0) {
+            closeConnection(key);
+            return;
+        }
+
+        connection.in.flip();
+        List<byte[]> command;
+        try {
+            while ((command = RespCodec.parseCommand(connection.in)) != null) {
+                if (!command.isEmpty()) {
+                    execute(connection, command);
+                }
+                if (connection.closeAfterFlush) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            connection.out = RespCodec.writeError(connection.out, "ERR " + e.getMessage());
+            connection.closeAfterFlush = true;
+        }
+        connection.in.compact();
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        connection.out.flip();
+        channel.write(connection.out);
+        boolean drained = !connection.out.hasRemaining();
+        connection.out.compact();
+
+        if (drained && connection.closeAfterFlush) {
+            closeConnection(key);
+            return;
+        }
+        int ops = drained ? 0 : SelectionKey.OP_WRITE;
+        // Stop reading from clients that do not drain their replies
+        if (connection.out.position() < MAX_PENDING_OUTPUT && !connection.closeAfterFlush) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void execute(Connection connection, List<byte[]> command) {
+        String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase();
+        ByteBuffer out = connection.out;
+        try {
+            switch (name) {
+                case "PING":
+                    out = command.size() > 1 ? RespCodec.writeBulk(out, command.get(1)) : RespCodec.writeSimple(out, "PONG");
+                    break;
+                case "GET":
+                    if (command.size() != 2) {
+                        out = wrongArguments(out, name);
+                        break;
+                    }
+                    String value = engine.get(utf8(command.get(1)));
+                    out = RespCodec.writeBulk(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+                    break;
+                case "SET":
+                    if (command.size() != 3) {
+                        out = wrongArguments(out, name);
+                        break;
+                    }
+                    engine.put(utf8(command.get(1)), utf8(command.get(2)));
+                    out = RespCodec.writeSimple(out, "OK");
+                    break;
+                case "DEL":
+                case "EXISTS":
+                    if (command.size() < 2) {
+                        out = wrongArguments(out, name);
+                        break;
+                    }
+                    int count = 0;
+                    for (int i = 1; i < command.size(); i++) {
+                        String key = utf8(command.get(i));
+                        if (engine.get(key) != null) {
+                            count++;
+                            if (name.equals("DEL")) {
+                                engine.delete(key);
+                            }
+                        }
+                    }
+                    out = RespCodec.writeInteger(out, count);
+                    break;
+                case "COMMAND":
+                    // redis-cli asks for command docs on connect; an empty array keeps it happy
+                    out = RespCodec.writeArrayHeader(out, 0);
+                    break;
+                case "QUIT":
+                    out = RespCodec.writeSimple(out, "OK");
+                    connection.closeAfterFlush = true;
+                    break;
+                default:
+                    out = RespCodec.writeError(out, "ERR unknown command '" + name + "'");
+            }
+        } catch (IOException | RuntimeException e) {
+            out = RespCodec.writeError(out, "ERR " + e.getMessage());
+        }
+        connection.out = out;
+    }
+
+    private static ByteBuffer wrongArguments(ByteBuffer out, String command) {
+        return RespCodec.writeError(out, "ERR wrong number of arguments for '" + command.toLowerCase() + "' command");
+    }
+
+    private static String utf8(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    static final class Connection {
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        boolean closeAfterFlush;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java KeyValueServer <port> [memory | offheap | log <directory> | lsm <directory> | leader <directory> <replication port>]");
+            return;
+        }
+        try {
+            int port = Integer.parseInt(args[0]);
+            String type = args.length > 1 ? args[1] : "memory";
+            StorageEngine engine;
+            ReplicationServer replication = null;
+            switch (type) {
+                case "log":
+                    engine = new LogStructuredEngine(args[2]);
+                    break;
+                case "lsm":
+                    engine = new LsmEngine(args[2]);
+                    break;
+                case "offheap":
+                    engine = new OffHeapEngine();
+                    break;
+                case "leader":
+                    ReplicatedEngine replicated = new ReplicatedEngine(new StripedHashEngine(), Path.of(args[2]));
+                    replication = new ReplicationServer(replicated.log(), Integer.parseInt(args[3]));
+                    new Thread(replication, "replication-server").start();
+                    System.out.println("Shipping mutations to followers on port " + replication.getPort());
+                    engine = replicated;
+                    break;
+                default:
+                    engine = new StripedHashEngine();
+            }
+            KeyValueServer server = new KeyValueServer(engine, port);
+            System.out.println("Key-value server listening on port " + server.getPort() + " (" + type + " engine)");
+            ReplicationServer replicationServer = replication;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                if (replicationServer != null) {
+                    replicationServer.stop();
+                }
+                try {
+                    engine.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing store: " + e.getMessage());
+                }
+            }));
+            server.run();
+        } catch (IOException e) {
+            System.out.println("Error starting server: " + e.getMessage());
+        }
+    }
+}
@@ -1,67 +1,108 @@
 package git.folio;
 
-import java.io.*;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 public class KeyValueStore {
-    private Map<String, String> inMemoryStore;
-    private Properties persistentStore;
-    private String filePath;
-    private boolean isPersistent;
+    private final StorageEngine engine;
 
     public KeyValueStore(boolean isPersistent, String filePath) {
-        this.isPersistent = isPersistent;
-        if (isPersistent) {
-            this.filePath = filePath;
-            this.persistentStore = new Properties();
-            loadProperties();
-        } else {
-            this.inMemoryStore = new HashMap<>();
-        }
+        this(isPersistent ? new PropertiesEngine(filePath) : new InMemoryEngine());
     }
 
-    private void loadProperties() {
-        try (FileInputStream fis = new FileInputStream(filePath)) {
-            persistentStore.load(fis);
-        } catch (IOException e) {
-            System.out.println("Error loading properties: " + e.getMessage());
-        }
+    public KeyValueStore(StorageEngine engine) {
+        this.engine = engine;
     }
 
     public void put(String key, String value) {
-        if (isPersistent) {
-            persistentStore.setProperty(key, value);
-            saveProperties();
-        } else {
-            inMemoryStore.put(key, value);
+        try {
+            engine.put(key, value);
+        } catch (IOException e) {
+            System.out.println("Error storing key: " + e.getMessage());
         }
     }
 
     public String get(String key) {
-        if (isPersistent) {
-            return persistentStore.getProperty(key);
-        } else {
-            return inMemoryStore.get(key);
+        try {
+            return engine.get(key);
+        } catch (IOException e) {
+            System.out.println("Error reading key: " + e.getMessage());
+            return null;
         }
     }
 
     public void delete(String key) {
-        if (isPersistent) {
-            persistentStore.remove(key);
-            saveProperties();
-        } else {
-            inMemoryStore.remove(key);
+        try {
+            engine.delete(key);
+        } catch (IOException e) {
+            System.out.println("Error deleting key: " + e.getMessage());
+        }
+    }
+
+    public void write(WriteBatch batch) {
+        try {
+            engine.write(batch);
+        } catch (IOException e) {
+            System.out.println("Error writing batch: " + e.getMessage());
+        }
+    }
+
+    public void putAll(Map<String, String> entries) {
+        write(new WriteBatch().putAll(entries));
+    }
+
+    public void deleteAll(Collection<String> keys) {
+        write(new WriteBatch().deleteAll(keys));
+    }
+
+    public String putIfAbsent(String key, String value) {
+        try {
+            return engine.putIfAbsent(key, value);
+        } catch (IOException e) {
+            System.out.println("Error storing key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public String compute(String key, BiFunction<String, String, String> remapping) {
+        try {
+            return engine.compute(key, remapping);
+        } catch (IOException e) {
+            System.out.println("Error storing key: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Range and prefix scans need a sorted engine; hash-based engines throw UnsupportedOperationException
+    public Iterator<Map.Entry<String, String>> scan(String from, String to) {
+        return ordered().scan(from, to);
+    }
+
+    public Iterator<Map.Entry<String, String>> prefix(String prefix) {
+        return ordered().prefix(prefix);
+    }
+
+    public OrderedEngine.Snapshot snapshot() {
+        return ordered().snapshot();
+    }
+
+    private OrderedEngine ordered() {
+        if (!(engine instanceof OrderedEngine)) {
+            throw new UnsupportedOperationException("Scans are not supported by " + engine.getClass().getSimpleName());
         }
+        return (OrderedEngine) engine;
     }
 
-    private void saveProperties() {
-        try (FileOutputStream fos = new FileOutputStream(filePath)) {
-            persistentStore.store(fos, null);
+    public void close() {
+        try {
+            engine.close();
         } catch (IOException e) {
-            System.out.println("Error saving properties: " + e.getMessage());
+            System.out.println("Error closing store: " + e.getMessage());
         }
     }
 
@@ -72,6 +113,12 @@ public class KeyValueStore {
         System.out.println("Choose store type:");
         System.out.println("1. In-memory store");
         System.out.println("2. Persistent store");
+        System.out.println("3. Log-structured persistent store");
+        System.out.println("4. Concurrent in-memory store");
+        System.out.println("5. LSM-tree persistent store");
+        System.out.println("6. Bounded in-memory cache");
+        System.out.println("7. Off-heap in-memory store");
+        System.out.println("8. Ordered in-memory store");
         int choice = scanner.nextInt();
         scanner.nextLine(); // Consume newline
 
@@ -83,6 +130,43 @@ public class KeyValueStore {
             String filePath = scanner.nextLine();
             store = new KeyValueStore(true, filePath);
             System.out.println("Persistent store initialized.");
+        } else if (choice == 3) {
+            System.out.print("Enter directory for log-structured store: ");
+            String directory = scanner.nextLine();
+            try {
+                store = new KeyValueStore(new LogStructuredEngine(directory));
+            } catch (IOException e) {
+                System.out.println("Error opening log-structured store: " + e.getMessage());
+                return;
+            }
+            System.out.println("Log-structured store initialized.");
+        } else if (choice == 4) {
+            store = new KeyValueStore(new StripedHashEngine());
+            System.out.println("Concurrent in-memory store initialized.");
+        } else if (choice == 5) {
+            System.out.print("Enter directory for LSM-tree store: ");
+            String directory = scanner.nextLine();
+            try {
+                store = new KeyValueStore(new LsmEngine(directory));
+            } catch (IOException e) {
+                System.out.println("Error opening LSM-tree store: " + e.getMessage());
+                return;
+            }
+            System.out.println("LSM-tree store initialized.");
+        } else if (choice == 6) {
+            System.out.print("Enter maximum number of entries: ");
+            long maximumEntries = scanner.nextLong();
+            System.out.print("Enter time-to-live in seconds (0 for none): ");
+            long ttlSeconds = scanner.nextLong();
+            scanner.nextLine(); // Consume newline
+            store = new KeyValueStore(new CacheEngine(maximumEntries, false, ttlSeconds, TimeUnit.SECONDS));
+            System.out.println("Bounded cache initialized.");
+        } else if (choice == 7) {
+            store = new KeyValueStore(new OffHeapEngine());
+            System.out.println("Off-heap store initialized.");
+        } else if (choice == 8) {
+            store = new KeyValueStore(new OrderedEngine());
+            System.out.println("Ordered store initialized.");
         } else {
             System.out.println("Invalid choice. Exiting.");
             return;
@@ -94,6 +178,7 @@ public class KeyValueStore {
             System.out.println("2. Get");
             System.out.println("3. Delete");
             System.out.println("4. Exit");
+            System.out.println("5. Prefix scan");
             int operation = scanner.nextInt();
             scanner.nextLine(); // Consume newline
 
@@ -123,8 +208,22 @@ public class KeyValueStore {
                     System.out.println("Key deleted.");
                     break;
                 case 4:
+                    store.close();
                     System.out.println("Exiting.");
                     return;
+                case 5:
+                    System.out.print("Enter prefix: ");
+                    String prefix = scanner.nextLine();
+                    try {
+                        Iterator<Map.Entry<String, String>> entries = store.prefix(prefix);
+                        while (entries.hasNext()) {
+                            Map.Entry<String, String> entry = entries.next();
+                            System.out.println(entry.getKey() + " = " + entry.getValue());
+                        }
+                    } catch (UnsupportedOperationException e) {
+                        System.out.println(e.getMessage());
+                    }
+                    break;
                 default:
                     System.out.println("Invalid operation.");
             }
@@ -0,0 +1,791 @@
+package git.folio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Bitcask-style engine: every mutation is appended to the active segment and an in-memory
+// index maps each key to the position of its latest value, so puts are one append and gets one positional read.
+public class LogStructuredEngine implements StorageEngine {
+    private static final String DATA_SUFFIX = ".data";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String COMPACTION_MARKER = "compaction.marker";
+    static final int HEADER_SIZE = 20; // crc(4) + seq(8) + keyLength(4) + valueLength(4)
+    private static final int HINT_HEADER_SIZE = 24; // seq(8) + keyLength(4) + valueLength(4) + recordOffset(8)
+    static final int TOMBSTONE = -1;
+    private static final int BATCH_MARKER = -2;
+
+    private static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 60_000;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final Durability durability;
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextSegmentId = new AtomicLong();
+    private final Queue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService compactor;
+    private volatile LogSegment active;
+    private volatile boolean unsynced;
+    private long lastSeq;
+
+    // When appended data is forced to disk: after every group commit, on a timer, or only by the OS
+    public enum Durability {
+        SYNC_EVERY_WRITE, SYNC_INTERVAL, OS_MANAGED
+    }
+
+    public LogStructuredEngine(String directory) throws IOException {
+        this(Path.of(directory), DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL_MILLIS);
+    }
+
+    public LogStructuredEngine(Path directory, long maxSegmentSize, long compactionIntervalMillis) throws IOException {
+        this(directory, maxSegmentSize, compactionIntervalMillis, Durability.OS_MANAGED, 0);
+    }
+
+    public LogStructuredEngine(Path directory, long maxSegmentSize, long compactionIntervalMillis,
+                               Durability durability, long syncIntervalMillis) throws IOException {
+        if (durability == Durability.SYNC_INTERVAL && syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("SYNC_INTERVAL needs a positive syncIntervalMillis");
+        }
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.durability = durability;
+        Files.createDirectories(directory);
+        finishInterruptedCompaction();
+        recover();
+        this.active = openSegment(nextSegmentId.getAndIncrement());
+
+        compactor = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "kv-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        if (compactionIntervalMillis > 0) {
+            compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                    compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (durability == Durability.SYNC_INTERVAL) {
+            compactor.scheduleWithFixedDelay(this::syncActiveSegment,
+                    syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        commit(new PendingWrite(new String[]{key}, new String[]{value}, false));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        commit(new PendingWrite(new String[]{key}, new String[]{null}, false));
+    }
+
+    // All mutations of the batch become visible together, and recovery drops a batch that was only partly written
+    @Override
+    public void write(WriteBatch batch) throws IOException {
+        if (batch.size() > 0) {
+            commit(new PendingWrite(batch.keys(), batch.values(), batch.size() > 1));
+        }
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) throws IOException {
+        commitLock.lock();
+        try {
+            return StorageEngine.super.putIfAbsent(key, value);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public String compute(String key, BiFunction<String, String, String> remapping) throws IOException {
+        commitLock.lock();
+        try {
+            return StorageEngine.super.compute(key, remapping);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    // Group commit: writers queue their mutations and whoever holds the commit lock appends everything
+    // queued so far with one write and at most one fsync. Writers that queued behind it find their
+    // mutation already committed once they get the lock.
+    private void commit(PendingWrite write) throws IOException {
+        pendingWrites.add(write);
+        commitLock.lock();
+        try {
+            if (!write.done) {
+                commitPending();
+            }
+        } finally {
+            commitLock.unlock();
+        }
+        if (write.error != null) {
+            throw new IOException("Write failed: " + write.error.getMessage(), write.error);
+        }
+    }
+
+    private void commitPending() {
+        List<PendingWrite> group = new ArrayList<>();
+        PendingWrite next;
+        int totalSize = 0;
+        while ((next = pendingWrites.poll()) != null) {
+            group.add(next);
+            totalSize += next.encodedSize();
+        }
+
+        long firstSeq = lastSeq + 1;
+        ByteBuffer buffer = ByteBuffer.allocate(totalSize);
+        for (PendingWrite write : group) {
+            if (write.atomic) {
+                encodeBatchMarker(buffer, lastSeq + 1, write.keys.length);
+            }
+            for (int i = 0; i < write.keys.length; i++) {
+                write.offsets[i] = buffer.position();
+                write.seqs[i] = ++lastSeq;
+                encodeRecord(buffer, write.seqs[i], write.keyBytes[i], write.valueBytes[i]);
+            }
+        }
+        buffer.flip();
+
+        LogSegment segment = active;
+        long base;
+        try {
+            if (segment == null) {
+                throw new IOException("Store is closed");
+            }
+            if (segment.size() > 0 && segment.size() + totalSize > maxSegmentSize) {
+                rollover();
+                segment = active;
+            }
+            base = segment.append(buffer);
+            if (durability == Durability.SYNC_EVERY_WRITE) {
+                segment.force();
+            } else {
+                unsynced = true;
+            }
+        } catch (IOException e) {
+            lastSeq = firstSeq - 1;
+            for (PendingWrite write : group) {
+                write.error = e;
+                write.done = true;
+            }
+            return;
+        }
+
+        for (PendingWrite write : group) {
+            for (int i = 0; i < write.keys.length; i++) {
+                IndexEntry previous;
+                int keyLength = write.keyBytes[i].length;
+                if (write.valueBytes[i] == null) {
+                    previous = index.remove(write.keys[i]);
+                    // The tombstone itself is garbage as soon as it has been compacted away
+                    segment.addGarbage(HEADER_SIZE + keyLength);
+                } else {
+                    previous = index.put(write.keys[i], new IndexEntry(segment.id, base + write.offsets[i],
+                            keyLength, write.valueBytes[i].length, write.seqs[i]));
+                }
+                if (previous != null) {
+                    addGarbage(previous);
+                }
+            }
+            if (write.atomic) {
+                segment.addGarbage(HEADER_SIZE);
+            }
+            write.done = true;
+        }
+    }
+
+    private void syncActiveSegment() {
+        LogSegment segment = active;
+        if (segment != null && unsynced) {
+            unsynced = false;
+            try {
+                segment.force();
+            } catch (IOException e) {
+                System.out.println("Error syncing segment: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        while (true) {
+            IndexEntry entry = index.get(key);
+            if (entry == null) {
+                return null;
+            }
+            LogSegment segment = segments.get(entry.segmentId);
+            if (segment == null) {
+                continue; // compacted away, the index already points at the new location
+            }
+            try {
+                byte[] value = segment.read(entry.valuePosition(), entry.valueLength);
+                return new String(value, StandardCharsets.UTF_8);
+            } catch (ClosedByInterruptException e) {
+                throw e; // this thread was interrupted; retrying would only fail again
+            } catch (ClosedChannelException e) {
+                if (active == null || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                // Segment closed by a concurrent compaction; retry against the updated index
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    private void addGarbage(IndexEntry entry) {
+        LogSegment segment = segments.get(entry.segmentId);
+        if (segment != null) {
+            segment.addGarbage(entry.recordLength());
+        }
+    }
+
+    // Caller holds the commit lock
+    private void rollover() throws IOException {
+        LogSegment previous = active;
+        previous.force();
+        active = openSegment(nextSegmentId.getAndIncrement());
+        compactor.execute(() -> {
+            try {
+                writeHintFile(previous);
+            } catch (IOException e) {
+                if (segments.containsKey(previous.id)) {
+                    System.out.println("Error writing hint file: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private LogSegment openSegment(long id) throws IOException {
+        LogSegment segment = new LogSegment(id, dataPath(id));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    static ByteBuffer encodeRecord(long seq, byte[] key, byte[] value) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + key.length + (value == null ? 0 : value.length));
+        encodeRecord(record, seq, key, value);
+        record.flip();
+        return record;
+    }
+
+    static void encodeRecord(ByteBuffer out, long seq, byte[] key, byte[] value) {
+        int start = out.position();
+        out.putInt(0);
+        out.putLong(seq);
+        out.putInt(key.length);
+        out.putInt(value == null ? TOMBSTONE : value.length);
+        out.put(key);
+        if (value != null) {
+            out.put(value);
+        }
+        out.putInt(start, checksum(out.array(), start + 4, out.position() - start - 4));
+    }
+
+    // A batch is framed by a marker record announcing how many records follow
+    private static void encodeBatchMarker(ByteBuffer out, long firstSeq, int count) {
+        int start = out.position();
+        out.putInt(0);
+        out.putLong(firstSeq);
+        out.putInt(BATCH_MARKER);
+        out.putInt(count);
+        out.putInt(start, checksum(out.array(), start + 4, HEADER_SIZE - 4));
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(name -> name.endsWith(DATA_SUFFIX))
+                    .forEach(name -> ids.add(Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length()))));
+        }
+        ids.sort(Long::compare);
+
+        Map<String, IndexEntry> recovered = new HashMap<>();
+        for (long id : ids) {
+            LogSegment segment = openSegment(id);
+            Path hint = hintPath(id);
+            if (Files.exists(hint)) {
+                loadHintFile(segment, hint, recovered);
+            } else {
+                scanSegment(segment, recovered);
+                writeHintFile(segment);
+            }
+            nextSegmentId.set(id + 1);
+        }
+
+        for (Map.Entry<String, IndexEntry> e : recovered.entrySet()) {
+            IndexEntry entry = e.getValue();
+            lastSeq = Math.max(lastSeq, entry.seq);
+            if (entry.valueLength == TOMBSTONE) {
+                segments.get(entry.segmentId).addGarbage(entry.recordLength());
+            } else {
+                index.put(e.getKey(), entry);
+            }
+        }
+    }
+
+    private void recoverEntry(Map<String, IndexEntry> recovered, LogSegment segment, String key, IndexEntry entry) {
+        IndexEntry existing = recovered.get(key);
+        if (existing == null || existing.seq < entry.seq) {
+            recovered.put(key, entry);
+            if (existing != null) {
+                segments.get(existing.segmentId).addGarbage(existing.recordLength());
+            }
+        } else {
+            segment.addGarbage(entry.recordLength());
+        }
+    }
+
+    private void scanSegment(LogSegment segment, Map<String, IndexEntry> recovered) throws IOException {
+        long offset = 0;
+        long validEnd = 0;
+        long fileSize = segment.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        List<String> batchKeys = new ArrayList<>();
+        List<IndexEntry> batchEntries = new ArrayList<>();
+        int batchRemaining = 0;
+        while (offset + HEADER_SIZE <= fileSize) {
+            header.clear();
+            segment.readFully(header, offset);
+            header.flip();
+            int crc = header.getInt();
+            long seq = header.getLong();
+            int keyLength = header.getInt();
+            int valueLength = header.getInt();
+            if (keyLength == BATCH_MARKER) {
+                if (batchRemaining > 0 || valueLength <= 0 || checksum(header.array(), 4, HEADER_SIZE - 4) != crc) {
+                    break;
+                }
+                batchRemaining = valueLength;
+                offset += HEADER_SIZE;
+                continue;
+            }
+            if (keyLength < 0 || valueLength < TOMBSTONE) {
+                break;
+            }
+            int bodyLength = keyLength + Math.max(valueLength, 0);
+            if (offset + HEADER_SIZE + bodyLength > fileSize) {
+                break; // torn write at the tail
+            }
+            byte[] record = new byte[HEADER_SIZE + bodyLength];
+            segment.readFully(ByteBuffer.wrap(record), offset);
+            if (checksum(record, 4, record.length - 4) != crc) {
+                break;
+            }
+            String key = new String(record, HEADER_SIZE, keyLength, StandardCharsets.UTF_8);
+            IndexEntry entry = new IndexEntry(segment.id, offset, keyLength, valueLength, seq);
+            offset += record.length;
+            if (batchRemaining > 0) {
+                // Records of a batch only count once the whole batch has been read back intact
+                batchKeys.add(key);
+                batchEntries.add(entry);
+                if (--batchRemaining == 0) {
+                    for (int i = 0; i < batchKeys.size(); i++) {
+                        recoverEntry(recovered, segment, batchKeys.get(i), batchEntries.get(i));
+                    }
+                    segment.addGarbage(HEADER_SIZE);
+                    batchKeys.clear();
+                    batchEntries.clear();
+                    validEnd = offset;
+                }
+            } else {
+                recoverEntry(recovered, segment, key, entry);
+                validEnd = offset;
+            }
+        }
+        if (validEnd < fileSize) {
+            System.out.println("Truncating corrupt tail of segment " + segment.id + " at offset " + validEnd);
+            segment.truncate(validEnd);
+        }
+    }
+
+    private void loadHintFile(LogSegment segment, Path hint, Map<String, IndexEntry> recovered) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(hint));
+        while (buffer.remaining() >= HINT_HEADER_SIZE) {
+            long seq = buffer.getLong();
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            long offset = buffer.getLong();
+            String key = new String(buffer.array(), buffer.position(), keyLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + keyLength);
+            recoverEntry(recovered, segment, key, new IndexEntry(segment.id, offset, keyLength, valueLength, seq));
+        }
+    }
+
+    // Hint files list every record of an immutable segment without the values, so recovery skips the data scan
+    private void writeHintFile(LogSegment segment) throws IOException {
+        Path tmp = directory.resolve(segment.id + HINT_SUFFIX + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer hint = ByteBuffer.allocate(64 * 1024);
+            long offset = 0;
+            long size = segment.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (offset + HEADER_SIZE <= size) {
+                header.clear();
+                segment.readFully(header, offset);
+                header.flip();
+                header.getInt();
+                long seq = header.getLong();
+                int keyLength = header.getInt();
+                int valueLength = header.getInt();
+                if (keyLength == BATCH_MARKER) {
+                    offset += HEADER_SIZE;
+                    continue;
+                }
+                byte[] key = new byte[keyLength];
+                segment.readFully(ByteBuffer.wrap(key), offset + HEADER_SIZE);
+                if (hint.remaining() < HINT_HEADER_SIZE + keyLength) {
+                    hint.flip();
+                    writeFully(out, hint);
+                    hint = ByteBuffer.allocate(Math.max(hint.capacity(), HINT_HEADER_SIZE + keyLength));
+                }
+                hint.putLong(seq).putInt(keyLength).putInt(valueLength).putLong(offset).put(key);
+                offset += HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            }
+            hint.flip();
+            writeFully(out, hint);
+            out.force(true);
+        }
+        Files.move(tmp, hintPath(segment.id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Compaction
+
+    private void compactIfNeeded() {
+        try {
+            long total = 0;
+            long garbage = 0;
+            for (LogSegment segment : immutableSegments()) {
+                total += segment.size();
+                garbage += segment.garbage();
+            }
+            if (total > 0 && (double) garbage / total >= COMPACTION_GARBAGE_RATIO) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.out.println("Error compacting segments: " + e.getMessage());
+        }
+    }
+
+    // Rewrites the live records of all immutable segments into fresh segments and deletes the old files.
+    // Every immutable segment takes part, so tombstones can be dropped without resurrecting older values.
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<LogSegment> inputs = immutableSegments();
+            if (inputs.isEmpty()) {
+                return;
+            }
+            Map<Long, LogSegment> inputById = new HashMap<>();
+            for (LogSegment segment : inputs) {
+                inputById.put(segment.id, segment);
+            }
+
+            List<LogSegment> outputs = new ArrayList<>();
+            LogSegment output = null;
+            for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+                IndexEntry entry = e.getValue();
+                LogSegment source = inputById.get(entry.segmentId);
+                if (source == null) {
+                    continue;
+                }
+                byte[] keyBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+                byte[] value = source.read(entry.valuePosition(), entry.valueLength);
+                ByteBuffer record = encodeRecord(entry.seq, keyBytes, value);
+                if (output == null || output.size() + record.remaining() > maxSegmentSize) {
+                    output = openSegment(nextSegmentId.getAndIncrement());
+                    outputs.add(output);
+                }
+                long offset = output.append(record);
+                IndexEntry moved = new IndexEntry(output.id, offset, keyBytes.length, entry.valueLength, entry.seq);
+                if (!index.replace(e.getKey(), entry, moved)) {
+                    output.addGarbage(moved.recordLength()); // overwritten while we were copying
+                }
+            }
+            for (LogSegment segment : outputs) {
+                segment.force();
+                writeHintFile(segment);
+            }
+
+            // The marker makes deletion of the inputs restartable if we crash half-way
+            writeCompactionMarker(inputs);
+            for (LogSegment segment : inputs) {
+                segments.remove(segment.id);
+                segment.close();
+                Files.deleteIfExists(hintPath(segment.id));
+                Files.deleteIfExists(dataPath(segment.id));
+            }
+            Files.deleteIfExists(directory.resolve(COMPACTION_MARKER));
+        }
+    }
+
+    private List<LogSegment> immutableSegments() {
+        LogSegment current = active;
+        List<LogSegment> immutable = new ArrayList<>();
+        for (LogSegment segment : segments.values()) {
+            if (segment != current) {
+                immutable.add(segment);
+            }
+        }
+        return immutable;
+    }
+
+    private void writeCompactionMarker(List<LogSegment> inputs) throws IOException {
+        StringBuilder ids = new StringBuilder();
+        for (LogSegment segment : inputs) {
+            ids.append(segment.id).append('\n');
+        }
+        Path tmp = directory.resolve(COMPACTION_MARKER + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.wrap(ids.toString().getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(COMPACTION_MARKER), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void finishInterruptedCompaction() throws IOException {
+        Path marker = directory.resolve(COMPACTION_MARKER);
+        if (!Files.exists(marker)) {
+            return;
+        }
+        for (String line : Files.readAllLines(marker, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                long id = Long.parseLong(line.trim());
+                Files.deleteIfExists(hintPath(id));
+                Files.deleteIfExists(dataPath(id));
+            }
+        }
+        Files.delete(marker);
+    }
+
+    private Path dataPath(long id) {
+        return directory.resolve(id + DATA_SUFFIX);
+    }
+
+    private Path hintPath(long id) {
+        return directory.resolve(id + HINT_SUFFIX);
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitLock.lock();
+        try {
+            if (active == null) {
+                return;
+            }
+            active.force();
+            writeHintFile(active);
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+            active = null;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    static final class PendingWrite {
+        final String[] keys;
+        final byte[][] keyBytes;
+        final byte[][] valueBytes;
+        final boolean atomic;
+        final int[] offsets;
+        final long[] seqs;
+        volatile boolean done;
+        volatile IOException error;
+
+        PendingWrite(String[] keys, String[] values, boolean atomic) {
+            this.keys = keys;
+            this.atomic = atomic;
+            this.keyBytes = new byte[keys.length][];
+            this.valueBytes = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                keyBytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+                valueBytes[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+            }
+            this.offsets = new int[keys.length];
+            this.seqs = new long[keys.length];
+        }
+
+        int encodedSize() {
+            int size = atomic ? HEADER_SIZE : 0;
+            for (int i = 0; i < keys.length; i++) {
+                size += HEADER_SIZE + keyBytes[i].length + (valueBytes[i] == null ? 0 : valueBytes[i].length);
+            }
+            return size;
+        }
+    }
+
+    static final class IndexEntry {
+        final long segmentId;
+        final long recordOffset;
+        final int keyLength;
+        final int valueLength;
+        final long seq;
+
+        IndexEntry(long segmentId, long recordOffset, int keyLength, int valueLength, long seq) {
+            this.segmentId = segmentId;
+            this.recordOffset = recordOffset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+            this.seq = seq;
+        }
+
+        long valuePosition() {
+            return recordOffset + HEADER_SIZE + keyLength;
+        }
+
+        int recordLength() {
+            return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        }
+    }
+
+    // An interrupt during any channel call closes the channel for every thread, so a segment that
+    // was not closed on purpose reopens it on next use
+    static final class LogSegment {
+        final long id;
+        private final Path path;
+        private final AtomicLong garbage = new AtomicLong();
+        private volatile FileChannel channel;
+        private volatile boolean closed;
+        private volatile long size;
+
+        LogSegment(long id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        private FileChannel channel() throws IOException {
+            FileChannel current = channel;
+            if (current.isOpen() || closed) {
+                return current; // a closed segment fails with ClosedChannelException as before
+            }
+            synchronized (this) {
+                if (!channel.isOpen() && !closed) {
+                    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                return channel;
+            }
+        }
+
+        // Appends at the end; if the write fails partway the segment is cut back to where it was,
+        // so the torn bytes are neither counted nor left for the next append to follow
+        long append(ByteBuffer record) throws IOException {
+            long offset = size;
+            try {
+                while (record.hasRemaining()) {
+                    size += channel().write(record, size);
+                }
+            } catch (IOException e) {
+                size = offset;
+                try {
+                    channel().truncate(offset);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure); // the next append overwrites them anyway
+                }
+                throw e;
+            }
+            return offset;
+        }
+
+        byte[] read(long position, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            readFully(ByteBuffer.wrap(bytes), position);
+            return bytes;
+        }
+
+        void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel().read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of segment " + id);
+                }
+                position += n;
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        long garbage() {
+            return garbage.get();
+        }
+
+        void addGarbage(long bytes) {
+            garbage.addAndGet(bytes);
+        }
+
+        void truncate(long length) throws IOException {
+            channel().truncate(length);
+            size = length;
+        }
+
+        void force() throws IOException {
+            channel().force(false);
+        }
+
+        void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+}
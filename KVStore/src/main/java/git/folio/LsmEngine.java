@@ -0,0 +1,580 @@
+package git.folio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// LSM tree: writes go to a write-ahead log and a sorted memtable, full memtables are flushed to
+// memory-mapped SSTables in level 0, and a background thread compacts them down into non-overlapping levels.
+public class LsmEngine implements StorageEngine {
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TABLE_SUFFIX = ".sst";
+    private static final String WAL_SUFFIX = ".wal";
+    private static final int LEVEL0_COMPACTION_TRIGGER = 4;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+    private static final int MAX_LEVELS = 7;
+
+    private static final long DEFAULT_MEMTABLE_SIZE = 4L * 1024 * 1024;
+    private static final long DEFAULT_TABLE_SIZE = 8L * 1024 * 1024;
+    private static final long DEFAULT_LEVEL1_SIZE = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final long memtableSize;
+    private final long tableSize;
+    private final long level1Size;
+    private final AtomicLong nextFileId = new AtomicLong(1);
+    private final Object writeLock = new Object();
+    private final String[] compactPointers = new String[MAX_LEVELS];
+    private final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lsm-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile ConcurrentSkipListMap<String, byte[]> memtable = new ConcurrentSkipListMap<>();
+    private volatile ConcurrentSkipListMap<String, byte[]> flushing;
+    private volatile Version version;
+    private long memtableBytes;
+    private FileChannel wal;
+    private long walId;
+    private long flushingWalId;
+    private IOException backgroundError;
+
+    public LsmEngine(String directory) throws IOException {
+        this(Path.of(directory), DEFAULT_MEMTABLE_SIZE, DEFAULT_TABLE_SIZE, DEFAULT_LEVEL1_SIZE);
+    }
+
+    public LsmEngine(Path directory, long memtableSize, long tableSize, long level1Size) throws IOException {
+        this.directory = directory;
+        this.memtableSize = memtableSize;
+        this.tableSize = tableSize;
+        this.level1Size = level1Size;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        write(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        write(key, SSTable.TOMBSTONE);
+    }
+
+    private void write(String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        synchronized (writeLock) {
+            if (backgroundError != null) {
+                throw new IOException("Background flush failed", backgroundError);
+            }
+            appendToWal(wal, keyBytes, value);
+            memtable.put(key, value);
+            memtableBytes += keyBytes.length + value.length + 32;
+            if (memtableBytes >= memtableSize) {
+                rotateMemtable();
+            }
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        byte[] value = memtable.get(key);
+        if (value == null) {
+            ConcurrentSkipListMap<String, byte[]> immutable = flushing;
+            if (immutable != null) {
+                value = immutable.get(key);
+            }
+        }
+        if (value == null) {
+            value = version.get(key);
+        }
+        return value == null || value == SSTable.TOMBSTONE ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    // Write-ahead log
+
+    private static void appendToWal(FileChannel channel, byte[] key, byte[] value) throws IOException {
+        boolean deleted = value == SSTable.TOMBSTONE;
+        ByteBuffer record = ByteBuffer.allocate(12 + key.length + (deleted ? 0 : value.length));
+        record.putInt(0);
+        record.putInt(key.length);
+        record.putInt(deleted ? -1 : value.length);
+        record.put(key);
+        if (!deleted) {
+            record.put(value);
+        }
+        record.putInt(0, LogStructuredEngine.checksum(record.array(), 4, record.capacity() - 4));
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    private void replayWal(Path path) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (in.remaining() >= 12) {
+            int start = in.position();
+            int crc = in.getInt();
+            int keyLength = in.getInt();
+            int valueLength = in.getInt();
+            if (keyLength < 0 || valueLength < -1 || in.remaining() < keyLength + Math.max(valueLength, 0)) {
+                break;
+            }
+            int length = 8 + keyLength + Math.max(valueLength, 0);
+            if (LogStructuredEngine.checksum(in.array(), start + 4, length) != crc) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            in.get(key);
+            byte[] value = SSTable.TOMBSTONE;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                in.get(value);
+            }
+            String k = new String(key, StandardCharsets.UTF_8);
+            memtable.put(k, value);
+            memtableBytes += keyLength + value.length + 32;
+        }
+    }
+
+    // Flush and compaction
+
+    private void rotateMemtable() throws IOException {
+        while (flushing != null) {
+            if (backgroundError != null) {
+                // The flush gave up and will never clear flushing
+                throw new IOException("Background flush failed", backgroundError);
+            }
+            try {
+                writeLock.wait(); // the previous memtable is still being flushed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for memtable flush", e);
+            }
+        }
+        wal.force(false);
+        wal.close();
+        flushing = memtable;
+        flushingWalId = walId;
+        memtable = new ConcurrentSkipListMap<>();
+        memtableBytes = 0;
+        openWal();
+        background.execute(this::flushAndCompact);
+    }
+
+    private void openWal() throws IOException {
+        walId = nextFileId.getAndIncrement();
+        wal = FileChannel.open(walPath(walId), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void flushAndCompact() {
+        try {
+            ConcurrentSkipListMap<String, byte[]> immutable = flushing;
+            List<SSTable> flushed = new ArrayList<>();
+            Iterator<SSTable.Record> records = recordIterator(immutable);
+            while (records.hasNext()) {
+                long id = nextFileId.getAndIncrement();
+                flushed.add(SSTable.write(id, tablePath(id), records, Long.MAX_VALUE));
+            }
+            Version current = version;
+            List<List<SSTable>> levels = current.copyLevels();
+            levels.get(0).addAll(0, flushed);
+            installVersion(new Version(levels), Collections.emptyList());
+            Files.deleteIfExists(walPath(flushingWalId));
+            synchronized (writeLock) {
+                flushing = null;
+                writeLock.notifyAll();
+            }
+            while (compactOnce()) {
+                // keep compacting until every level is within its budget
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error flushing memtable: " + e.getMessage());
+            synchronized (writeLock) {
+                backgroundError = e instanceof IOException io ? io : new IOException(e);
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    private boolean compactOnce() throws IOException {
+        Version current = version;
+        int level = -1;
+        if (current.levels.get(0).size() >= LEVEL0_COMPACTION_TRIGGER) {
+            level = 0;
+        } else {
+            for (int i = 1; i < MAX_LEVELS - 1; i++) {
+                if (current.levelSize(i) > levelBudget(i)) {
+                    level = i;
+                    break;
+                }
+            }
+        }
+        if (level < 0) {
+            return false;
+        }
+
+        List<SSTable> inputs = new ArrayList<>();
+        if (level == 0) {
+            inputs.addAll(current.levels.get(0));
+        } else {
+            inputs.add(pickCompactionInput(current.levels.get(level), level));
+        }
+        String from = inputs.get(0).firstKey;
+        String to = inputs.get(0).lastKey;
+        for (SSTable table : inputs) {
+            from = table.firstKey.compareTo(from) < 0 ? table.firstKey : from;
+            to = table.lastKey.compareTo(to) > 0 ? table.lastKey : to;
+        }
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : current.levels.get(level + 1)) {
+            if (table.overlaps(from, to)) {
+                overlapping.add(table);
+            }
+        }
+
+        // Newer sources first so their records win the merge
+        List<Iterator<SSTable.Record>> sources = new ArrayList<>();
+        for (SSTable table : inputs) {
+            sources.add(table.iterator());
+        }
+        for (SSTable table : overlapping) {
+            sources.add(table.iterator());
+        }
+        boolean bottom = current.isBottom(level + 1);
+        Iterator<SSTable.Record> merged = new MergingIterator(sources, bottom);
+
+        List<SSTable> outputs = new ArrayList<>();
+        while (merged.hasNext()) {
+            long id = nextFileId.getAndIncrement();
+            SSTable table = SSTable.write(id, tablePath(id), merged, tableSize);
+            if (table != null) {
+                outputs.add(table);
+            }
+        }
+
+        Set<SSTable> obsolete = new HashSet<>(inputs);
+        obsolete.addAll(overlapping);
+        List<List<SSTable>> levels = current.copyLevels();
+        levels.get(level).removeAll(obsolete);
+        List<SSTable> target = levels.get(level + 1);
+        target.removeAll(obsolete);
+        target.addAll(outputs);
+        target.sort((a, b) -> a.firstKey.compareTo(b.firstKey));
+        compactPointers[level] = to;
+        installVersion(new Version(levels), obsolete);
+        return true;
+    }
+
+    // Round-robin through the key space so every file in the level eventually gets compacted
+    private SSTable pickCompactionInput(List<SSTable> level, int levelNumber) {
+        String pointer = compactPointers[levelNumber];
+        if (pointer != null) {
+            for (SSTable table : level) {
+                if (table.firstKey.compareTo(pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return level.get(0);
+    }
+
+    private long levelBudget(int level) {
+        long budget = level1Size;
+        for (int i = 1; i < level; i++) {
+            budget *= LEVEL_SIZE_MULTIPLIER;
+        }
+        return budget;
+    }
+
+    // The manifest is rewritten atomically, so a crash leaves either the old or the new set of tables.
+    // Obsolete files are deleted afterwards; readers holding the old version keep their mappings.
+    private void installVersion(Version next, Iterable<SSTable> obsolete) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        manifest.append("next ").append(nextFileId.get()).append('\n');
+        for (int level = 0; level < next.levels.size(); level++) {
+            for (SSTable table : next.levels.get(level)) {
+                manifest.append(level).append(' ').append(table.id).append('\n');
+            }
+        }
+        Path tmp = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        version = next;
+        for (SSTable table : obsolete) {
+            Files.deleteIfExists(table.path);
+        }
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        List<List<SSTable>> levels = Version.emptyLevels();
+        Set<Long> live = new HashSet<>();
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 2) {
+                    continue;
+                }
+                if (parts[0].equals("next")) {
+                    nextFileId.set(Long.parseLong(parts[1]));
+                } else {
+                    long id = Long.parseLong(parts[1]);
+                    levels.get(Integer.parseInt(parts[0])).add(SSTable.open(id, tablePath(id)));
+                    live.add(id);
+                }
+            }
+        }
+        version = new Version(levels);
+
+        List<Path> wals = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.delete(path); // interrupted flush, compaction or manifest update
+                    continue;
+                }
+                if (!name.endsWith(WAL_SUFFIX) && !name.endsWith(TABLE_SUFFIX)) {
+                    continue;
+                }
+                long id = Long.parseLong(name.substring(0, name.indexOf('.')));
+                nextFileId.set(Math.max(nextFileId.get(), id + 1));
+                if (name.endsWith(WAL_SUFFIX)) {
+                    wals.add(path);
+                } else if (!live.contains(id)) {
+                    Files.delete(path); // table that never made it into the manifest
+                }
+            }
+        }
+        wals.sort((a, b) -> a.getFileName().toString().compareTo(b.getFileName().toString()));
+        for (Path path : wals) {
+            replayWal(path);
+        }
+
+        // Replayed data is rewritten into a fresh log so the old ones can go
+        openWal();
+        for (Map.Entry<String, byte[]> e : memtable.entrySet()) {
+            appendToWal(wal, e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue());
+        }
+        wal.force(false);
+        for (Path path : wals) {
+            Files.delete(path);
+        }
+    }
+
+    private static Iterator<SSTable.Record> recordIterator(Map<String, byte[]> map) {
+        Iterator<Map.Entry<String, byte[]>> it = map.entrySet().iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public SSTable.Record next() {
+                Map.Entry<String, byte[]> e = it.next();
+                return new SSTable.Record(e.getKey(), e.getValue());
+            }
+        };
+    }
+
+    private Path tablePath(long id) {
+        return directory.resolve(String.format("%06d%s", id, TABLE_SUFFIX));
+    }
+
+    private Path walPath(long id) {
+        return directory.resolve(String.format("%06d%s", id, WAL_SUFFIX));
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            wal.force(false);
+            wal.close();
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Immutable snapshot of the table layout: level 0 newest first, deeper levels sorted by key range
+    static final class Version {
+        final List<List<SSTable>> levels;
+
+        Version(List<List<SSTable>> levels) {
+            this.levels = levels;
+        }
+
+        static List<List<SSTable>> emptyLevels() {
+            List<List<SSTable>> levels = new ArrayList<>();
+            for (int i = 0; i < MAX_LEVELS; i++) {
+                levels.add(new ArrayList<>());
+            }
+            return levels;
+        }
+
+        List<List<SSTable>> copyLevels() {
+            List<List<SSTable>> copy = new ArrayList<>();
+            for (List<SSTable> level : levels) {
+                copy.add(new ArrayList<>(level));
+            }
+            return copy;
+        }
+
+        long levelSize(int level) {
+            long size = 0;
+            for (SSTable table : levels.get(level)) {
+                size += table.sizeBytes;
+            }
+            return size;
+        }
+
+        boolean isBottom(int level) {
+            for (int i = level + 1; i < levels.size(); i++) {
+                if (!levels.get(i).isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] get(String key) {
+            long hash = BloomFilter.hash(key.getBytes(StandardCharsets.UTF_8));
+            for (SSTable table : levels.get(0)) {
+                byte[] value = table.get(key, hash);
+                if (value != null) {
+                    return value;
+                }
+            }
+            for (int i = 1; i < levels.size(); i++) {
+                List<SSTable> level = levels.get(i);
+                int lo = 0;
+                int hi = level.size() - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    SSTable table = level.get(mid);
+                    if (key.compareTo(table.firstKey) < 0) {
+                        hi = mid - 1;
+                    } else if (key.compareTo(table.lastKey) > 0) {
+                        lo = mid + 1;
+                    } else {
+                        byte[] value = table.get(key, hash);
+                        if (value != null) {
+                            return value;
+                        }
+                        break;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // K-way merge of sorted sources; on equal keys the earliest source wins. Tombstones are dropped
+    // when the output is the bottom level because nothing older can be shadowed any more.
+    static final class MergingIterator implements Iterator<SSTable.Record> {
+        private final PriorityQueue<Head> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = a.record.key.compareTo(b.record.key);
+            return cmp != 0 ? cmp : Integer.compare(a.source, b.source);
+        });
+        private final boolean dropTombstones;
+        private SSTable.Record next;
+
+        MergingIterator(List<Iterator<SSTable.Record>> sources, boolean dropTombstones) {
+            this.dropTombstones = dropTombstones;
+            for (int i = 0; i < sources.size(); i++) {
+                Iterator<SSTable.Record> it = sources.get(i);
+                if (it.hasNext()) {
+                    heap.add(new Head(i, it, it.next()));
+                }
+            }
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !heap.isEmpty()) {
+                Head head = heap.poll();
+                SSTable.Record winner = head.record;
+                refill(head);
+                while (!heap.isEmpty() && heap.peek().record.key.equals(winner.key)) {
+                    refill(heap.poll());
+                }
+                if (!(dropTombstones && winner.value == SSTable.TOMBSTONE)) {
+                    next = winner;
+                }
+            }
+        }
+
+        private void refill(Head head) {
+            if (head.iterator.hasNext()) {
+                head.record = head.iterator.next();
+                heap.add(head);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public SSTable.Record next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            SSTable.Record current = next;
+            advance();
+            return current;
+        }
+
+        static final class Head {
+            final int source;
+            final Iterator<SSTable.Record> iterator;
+            SSTable.Record record;
+
+            Head(int source, Iterator<SSTable.Record> iterator, SSTable.Record record) {
+                this.source = source;
+                this.iterator = iterator;
+                this.record = record;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package git.folio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append-only file of mutations numbered 1, 2, 3... in the order they were applied.
+// Records use the log-structured engine's format (crc, seq, key/value lengths, key, value),
+// so a follower can verify and apply the raw bytes it is sent. A sparse seq -> offset index
+// lets readers start anywhere without scanning the whole file.
+public class MutationLog implements Closeable {
+    static final String FILE_NAME = "mutations.log";
+    private static final int INDEX_INTERVAL = 1024;
+
+    private final FileChannel channel;
+    private final TreeMap<Long, Long> index = new TreeMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private volatile long lastSeq;
+    private volatile long size;
+
+    public MutationLog(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        channel = FileChannel.open(directory.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    public long append(String key, String value) throws IOException {
+        return appendAll(new String[] {key}, new String[] {value});
+    }
+
+    // Appends the batch as consecutive records that become visible together, or not at all if the write fails
+    public long appendAll(String[] keys, String[] values) throws IOException {
+        lock.lock();
+        try {
+            long seq = lastSeq;
+            long position = size;
+            TreeMap<Long, Long> indexed = new TreeMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                seq++;
+                byte[] valueBytes = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = LogStructuredEngine.encodeRecord(seq, keys[i].getBytes(StandardCharsets.UTF_8), valueBytes);
+                if ((seq - 1) % INDEX_INTERVAL == 0) {
+                    indexed.put(seq, position);
+                }
+                try {
+                    while (record.hasRemaining()) {
+                        position += channel.write(record, position);
+                    }
+                } catch (IOException e) {
+                    // Records written before the failure are whole and recovery would keep them
+                    try {
+                        channel.truncate(size);
+                    } catch (IOException truncateFailure) {
+                        e.addSuppressed(truncateFailure);
+                    }
+                    throw e;
+                }
+            }
+            index.putAll(indexed);
+            size = position;
+            lastSeq = seq;
+            appended.signalAll();
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long lastSeq() {
+        return lastSeq;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // File offset of the first record with a sequence number above afterSeq
+    public long offsetAfter(long afterSeq) throws IOException {
+        long seq;
+        long offset;
+        lock.lock();
+        try {
+            if (afterSeq >= lastSeq) {
+                return size;
+            }
+            Map.Entry<Long, Long> floor = index.floorEntry(afterSeq + 1);
+            seq = floor == null ? 1 : floor.getKey();
+            offset = floor == null ? 0 : floor.getValue();
+        } finally {
+            lock.unlock();
+        }
+        ByteBuffer header = ByteBuffer.allocate(LogStructuredEngine.HEADER_SIZE);
+        while (seq <= afterSeq) {
+            header.clear();
+            readFully(header, offset);
+            offset += recordSize(header);
+            seq++;
+        }
+        return offset;
+    }
+
+    // Copies whole records starting at offset into out; returns the number of bytes copied
+    public int read(long offset, ByteBuffer out) throws IOException {
+        long end = size;
+        int start = out.position();
+        int limit = (int) Math.min(out.remaining(), end - offset);
+        if (limit <= 0) {
+            return 0;
+        }
+        ByteBuffer slice = out.slice(start, limit);
+        while (slice.hasRemaining()) {
+            channel.read(slice, offset + slice.position());
+        }
+        // Trim a record that was cut off by the buffer size
+        int length = 0;
+        while (length + LogStructuredEngine.HEADER_SIZE <= limit) {
+            int next = length + recordSize(out.duplicate().position(start + length).slice());
+            if (next > limit) {
+                break;
+            }
+            length = next;
+        }
+        out.position(start + length);
+        return length;
+    }
+
+    // Blocks until a record after seq exists or the timeout expires; returns the latest seq
+    public long awaitAfter(long seq, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (lastSeq <= seq && nanos > 0) {
+                nanos = appended.awaitNanos(nanos);
+            }
+            return lastSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Replays every record in order
+    public void replay(MutationHandler handler) throws IOException {
+        long offset = 0;
+        long end = size;
+        ByteBuffer header = ByteBuffer.allocate(LogStructuredEngine.HEADER_SIZE);
+        while (offset < end) {
+            header.clear();
+            readFully(header, offset);
+            ByteBuffer record = ByteBuffer.allocate(recordSize(header));
+            readFully(record, offset);
+            record.flip();
+            apply(record, handler);
+            offset += record.capacity();
+        }
+    }
+
+    // Verifies and applies one record; returns its sequence number
+    static long apply(ByteBuffer record, MutationHandler handler) throws IOException {
+        int start = record.position();
+        int crc = record.getInt(start);
+        long seq = record.getLong(start + 4);
+        int keyLength = record.getInt(start + 12);
+        int valueLength = record.getInt(start + 16);
+        int length = LogStructuredEngine.HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        if (LogStructuredEngine.checksum(bytes, 4, length - 4) != crc) {
+            throw new IOException("Corrupt mutation record " + seq);
+        }
+        String key = new String(bytes, LogStructuredEngine.HEADER_SIZE, keyLength, StandardCharsets.UTF_8);
+        String value = valueLength == LogStructuredEngine.TOMBSTONE ? null
+                : new String(bytes, LogStructuredEngine.HEADER_SIZE + keyLength, valueLength, StandardCharsets.UTF_8);
+        handler.apply(seq, key, value);
+        return seq;
+    }
+
+    static int recordSize(ByteBuffer header) {
+        int keyLength = header.getInt(12);
+        int valueLength = header.getInt(16);
+        return LogStructuredEngine.HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of mutation log");
+            }
+        }
+    }
+
+    // Rebuilds the index and drops a torn record left by a crash mid-append
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        long offset = 0;
+        long seq = 0;
+        ByteBuffer header = ByteBuffer.allocate(LogStructuredEngine.HEADER_SIZE);
+        while (offset + LogStructuredEngine.HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(header, offset);
+            int length = recordSize(header);
+            if (header.getLong(4) != seq + 1 || length < LogStructuredEngine.HEADER_SIZE || offset + length > fileSize) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(record, offset);
+            if (LogStructuredEngine.checksum(record.array(), 4, length - 4) != record.getInt(0)) {
+                break;
+            }
+            seq++;
+            if ((seq - 1) % INDEX_INTERVAL == 0) {
+                index.put(seq, offset);
+            }
+            offset += length;
+        }
+        if (offset < fileSize) {
+            channel.truncate(offset);
+        }
+        size = offset;
+        lastSeq = seq;
+    }
+
+    @FunctionalInterface
+    public interface MutationHandler {
+        // A null value is a delete
+        void apply(long seq, String key, String value) throws IOException;
+    }
+}
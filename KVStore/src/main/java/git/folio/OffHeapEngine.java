@@ -0,0 +1,283 @@
+package git.folio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Stores keys and values as UTF-8 bytes in direct-memory slabs and indexes them with an open-addressing
+// table of primitive longs, so the heap holds a handful of arrays no matter how many entries there are.
+// Each slot packs a 23-bit hash tag, the slab number and the offset of the entry inside the slab.
+// Direct memory is limited by -XX:MaxDirectMemorySize.
+public class OffHeapEngine implements StorageEngine {
+    private static final int OFFSET_BITS = 26;
+    private static final int SLAB_BITS = 14;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final long SLAB_MASK = (1L << SLAB_BITS) - 1;
+    private static final int TAG_SHIFT = OFFSET_BITS + SLAB_BITS;
+    private static final long TAG_MASK = (1L << 23) - 1;
+    private static final int MAX_SLAB_SIZE = 1 << OFFSET_BITS;
+    private static final int SLAB_RESERVED = 8; // offset 0 is never used, so a zero slot means empty
+    private static final int ENTRY_HEADER = 8; // keyLength(4) + valueLength(4)
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final double MAX_LOAD = 0.7;
+    private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+
+    private final int slabSize;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private int writeOffset;
+    private long[] slots;
+    private int size;
+    private int deletedSlots;
+    private long allocatedBytes;
+    private long garbageBytes;
+
+    public OffHeapEngine() {
+        this(MAX_SLAB_SIZE, 1 << 16);
+    }
+
+    public OffHeapEngine(int slabSize, int initialCapacity) {
+        if (slabSize > MAX_SLAB_SIZE || slabSize <= SLAB_RESERVED + ENTRY_HEADER) {
+            throw new IllegalArgumentException("Slab size must be at most " + MAX_SLAB_SIZE + " bytes");
+        }
+        this.slabSize = slabSize;
+        int capacity = 16;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.slots = new long[capacity];
+        newSlab();
+    }
+
+    @Override
+    public String get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                return null;
+            }
+            long address = slots[slot];
+            ByteBuffer slab = slabs.get(slabOf(address));
+            int offset = offsetOf(address);
+            byte[] value = new byte[slab.getInt(offset + 4)];
+            slab.get(offset + ENTRY_HEADER + keyBytes.length, value);
+            return new String(value, StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int entrySize = ENTRY_HEADER + keyBytes.length + valueBytes.length;
+        if (entrySize > slabSize - SLAB_RESERVED) {
+            throw new IllegalArgumentException("Entry of " + entrySize + " bytes does not fit in a slab");
+        }
+        int hash = hash(keyBytes);
+        lock.writeLock().lock();
+        try {
+            int slot = find(keyBytes, hash);
+            if (slot >= 0) {
+                garbageBytes += entrySize(slots[slot]);
+                slots[slot] = allocate(keyBytes, valueBytes, hash);
+                compactIfNeeded();
+                return;
+            }
+            if (size + deletedSlots + 1 > slots.length * MAX_LOAD) {
+                rehash(size + 1 > slots.length * MAX_LOAD / 2 ? slots.length << 1 : slots.length);
+            }
+            long address = allocate(keyBytes, valueBytes, hash);
+            int free = findFreeSlot(hash);
+            if (slots[free] == DELETED) {
+                deletedSlots--;
+            }
+            slots[free] = address;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot >= 0) {
+                garbageBytes += entrySize(slots[slot]);
+                slots[slot] = DELETED;
+                size--;
+                deletedSlots++;
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) slabs.size() * slabSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int hash(byte[] key) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long tagOf(int hash) {
+        return (hash >>> 9) & TAG_MASK;
+    }
+
+    private static int slabOf(long address) {
+        return (int) ((address >>> OFFSET_BITS) & SLAB_MASK);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) (address & OFFSET_MASK);
+    }
+
+    // Linear probing; the tag filters out almost every mismatch before slab memory is touched
+    private int find(byte[] key, int hash) {
+        int mask = slots.length - 1;
+        long tag = tagOf(hash);
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long address = slots[i];
+            if (address == EMPTY) {
+                return -1;
+            }
+            if (address != DELETED && (address >>> TAG_SHIFT) == tag && keyEquals(address, key)) {
+                return i;
+            }
+        }
+    }
+
+    private int findFreeSlot(int hash) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != EMPTY && slots[i] != DELETED) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        if (slab.getInt(offset) != key.length) {
+            return false;
+        }
+        int keyStart = offset + ENTRY_HEADER;
+        for (int i = 0; i < key.length; i++) {
+            if (slab.get(keyStart + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int entrySize(long address) {
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        return ENTRY_HEADER + slab.getInt(offset) + slab.getInt(offset + 4);
+    }
+
+    private long allocate(byte[] key, byte[] value, int hash) {
+        int entrySize = ENTRY_HEADER + key.length + value.length;
+        if (writeOffset + entrySize > slabSize) {
+            newSlab();
+        }
+        int slabIndex = slabs.size() - 1;
+        ByteBuffer slab = slabs.get(slabIndex);
+        int offset = writeOffset;
+        slab.putInt(offset, key.length);
+        slab.putInt(offset + 4, value.length);
+        slab.put(offset + ENTRY_HEADER, key);
+        slab.put(offset + ENTRY_HEADER + key.length, value);
+        writeOffset += entrySize;
+        allocatedBytes += entrySize;
+        return (tagOf(hash) << TAG_SHIFT) | ((long) slabIndex << OFFSET_BITS) | offset;
+    }
+
+    private void newSlab() {
+        if (slabs.size() > SLAB_MASK) {
+            throw new IllegalStateException("Off-heap store is full");
+        }
+        slabs.add(ByteBuffer.allocateDirect(slabSize));
+        writeOffset = SLAB_RESERVED;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = new long[capacity];
+        deletedSlots = 0;
+        int mask = capacity - 1;
+        for (long address : old) {
+            if (address != EMPTY && address != DELETED) {
+                int i = rehashSlot(address) & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = address;
+            }
+        }
+    }
+
+    private int rehashSlot(long address) {
+        ByteBuffer slab = slabs.get(slabOf(address));
+        int offset = offsetOf(address);
+        byte[] key = new byte[slab.getInt(offset)];
+        slab.get(offset + ENTRY_HEADER, key);
+        return hash(key);
+    }
+
+    // Copies live entries into fresh slabs once half of the allocated memory is dead
+    private void compactIfNeeded() {
+        if (slabs.size() < 2 || garbageBytes < allocatedBytes * COMPACTION_GARBAGE_RATIO) {
+            return;
+        }
+        List<ByteBuffer> oldSlabs = slabs;
+        slabs = new ArrayList<>();
+        allocatedBytes = 0;
+        garbageBytes = 0;
+        newSlab();
+        for (int i = 0; i < slots.length; i++) {
+            long address = slots[i];
+            if (address == EMPTY || address == DELETED) {
+                continue;
+            }
+            ByteBuffer slab = oldSlabs.get(slabOf(address));
+            int offset = offsetOf(address);
+            byte[] key = new byte[slab.getInt(offset)];
+            byte[] value = new byte[slab.getInt(offset + 4)];
+            slab.get(offset + ENTRY_HEADER, key);
+            slab.get(offset + ENTRY_HEADER + key.length, value);
+            slots[i] = allocate(key, value, hash(key));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package git.folio;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sorted in-memory engine on a concurrent skip list with range and prefix iterators.
+// Every key holds a short chain of versions stamped with a sequence number; a snapshot pins a
+// sequence number and reads the newest version at or below it, so iterating a snapshot is
+// consistent while writers keep going. Versions no open snapshot can see are pruned on write.
+public class OrderedEngine implements StorageEngine {
+    private final ConcurrentSkipListMap<String, Version> map = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Long, AtomicInteger> openSnapshots = new ConcurrentSkipListMap<>();
+    private final ConcurrentLinkedQueue<String> deletedKeys = new ConcurrentLinkedQueue<>();
+    private final Object writeLock = new Object();
+    private volatile long lastSeq;
+
+    @Override
+    public String get(String key) {
+        Version version = map.get(key);
+        return version == null ? null : version.value;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        write(key, value);
+    }
+
+    @Override
+    public void delete(String key) {
+        write(key, null);
+    }
+
+    private void write(String key, String value) {
+        synchronized (writeLock) {
+            Version current = map.get(key);
+            if (value == null && (current == null || current.value == null)) {
+                return;
+            }
+            long seq = lastSeq + 1;
+            Version version = new Version(seq, value, current);
+            map.put(key, version);
+            lastSeq = seq;
+            prune(version, oldestSnapshot());
+            if (value == null) {
+                if (version.older == null) {
+                    map.remove(key, version);
+                } else {
+                    deletedKeys.add(key); // still visible to a snapshot, purge once it closes
+                }
+            }
+        }
+    }
+
+    // Weakly consistent: reflects some writes made while iterating. Use a snapshot for a stable view.
+    public Iterator<Map.Entry<String, String>> scan(String from, String to) {
+        return new VersionIterator(range(from, to), Long.MAX_VALUE, null);
+    }
+
+    public Iterator<Map.Entry<String, String>> prefix(String prefix) {
+        return new VersionIterator(map.tailMap(prefix, true).entrySet().iterator(), Long.MAX_VALUE, prefix);
+    }
+
+    public Snapshot snapshot() {
+        synchronized (writeLock) {
+            long seq = lastSeq;
+            openSnapshots.computeIfAbsent(seq, s -> new AtomicInteger()).incrementAndGet();
+            return new Snapshot(seq);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Version version : map.values()) {
+            if (version.value != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private Iterator<Map.Entry<String, Version>> range(String from, String to) {
+        ConcurrentNavigableMap<String, Version> view;
+        if (from == null && to == null) {
+            view = map;
+        } else if (from == null) {
+            view = map.headMap(to, false);
+        } else if (to == null) {
+            view = map.tailMap(from, true);
+        } else {
+            view = map.subMap(from, true, to, false);
+        }
+        return view.entrySet().iterator();
+    }
+
+    private long oldestSnapshot() {
+        Map.Entry<Long, AtomicInteger> oldest = openSnapshots.firstEntry();
+        return oldest == null ? Long.MAX_VALUE : oldest.getKey();
+    }
+
+    // Drops every version older than the newest one visible to the oldest snapshot
+    private static void prune(Version head, long oldestSnapshot) {
+        for (Version v = head; v != null; v = v.older) {
+            if (v.seq <= oldestSnapshot) {
+                v.older = null;
+                return;
+            }
+        }
+    }
+
+    private void release(long seq) {
+        synchronized (writeLock) {
+            AtomicInteger count = openSnapshots.get(seq);
+            if (count != null && count.decrementAndGet() == 0) {
+                openSnapshots.remove(seq);
+            }
+            long oldest = oldestSnapshot();
+            int pending = deletedKeys.size();
+            for (int i = 0; i < pending; i++) {
+                String key = deletedKeys.poll();
+                Version head = map.get(key);
+                if (head == null) {
+                    continue;
+                }
+                prune(head, oldest);
+                if (head.value == null && head.older == null) {
+                    map.remove(key, head);
+                } else if (head.value == null) {
+                    deletedKeys.add(key);
+                }
+            }
+        }
+    }
+
+    static Version visible(Version head, long seq) {
+        for (Version v = head; v != null; v = v.older) {
+            if (v.seq <= seq) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    static final class Version {
+        final long seq;
+        final String value; // null marks a delete
+        volatile Version older;
+
+        Version(long seq, String value, Version older) {
+            this.seq = seq;
+            this.value = value;
+            this.older = older;
+        }
+    }
+
+    // Point-in-time view; must be closed so the versions it pins can be reclaimed
+    public final class Snapshot implements AutoCloseable {
+        private final long seq;
+        private boolean closed;
+
+        private Snapshot(long seq) {
+            this.seq = seq;
+        }
+
+        public String get(String key) {
+            Version version = visible(map.get(key), seq);
+            return version == null ? null : version.value;
+        }
+
+        public Iterator<Map.Entry<String, String>> scan(String from, String to) {
+            return new VersionIterator(range(from, to), seq, null);
+        }
+
+        public Iterator<Map.Entry<String, String>> prefix(String prefix) {
+            return new VersionIterator(map.tailMap(prefix, true).entrySet().iterator(), seq, prefix);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(seq);
+            }
+        }
+    }
+
+    static final class VersionIterator implements Iterator<Map.Entry<String, String>> {
+        private final Iterator<Map.Entry<String, Version>> entries;
+        private final long seq;
+        private final String prefix;
+        private Map.Entry<String, String> next;
+
+        VersionIterator(Iterator<Map.Entry<String, Version>> entries, long seq, String prefix) {
+            this.entries = entries;
+            this.seq = seq;
+            this.prefix = prefix;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && entries.hasNext()) {
+                Map.Entry<String, Version> entry = entries.next();
+                if (prefix != null && !entry.getKey().startsWith(prefix)) {
+                    return; // keys are sorted, so nothing after this matches either
+                }
+                Version version = visible(entry.getValue(), seq);
+                if (version != null && version.value != null) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), version.value);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> current = next;
+            advance();
+            return current;
+        }
+    }
+}
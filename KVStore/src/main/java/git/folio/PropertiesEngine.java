@@ -0,0 +1,63 @@
+package git.folio;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+// Rewrites the whole file on every mutation; kept for stores created before the log-structured engine
+public class PropertiesEngine implements StorageEngine {
+    private final Properties persistentStore = new Properties();
+    private final String filePath;
+
+    public PropertiesEngine(String filePath) {
+        this.filePath = filePath;
+        loadProperties();
+    }
+
+    private void loadProperties() {
+        try (FileInputStream fis = new FileInputStream(filePath)) {
+            persistentStore.load(fis);
+        } catch (IOException e) {
+            System.out.println("Error loading properties: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        persistentStore.setProperty(key, value);
+        saveProperties();
+    }
+
+    @Override
+    public String get(String key) {
+        return persistentStore.getProperty(key);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        persistentStore.remove(key);
+        saveProperties();
+    }
+
+    // Applies the whole batch to the in-memory copy and rewrites the file once, instead of once per entry
+    @Override
+    public void write(WriteBatch batch) throws IOException {
+        String[] keys = batch.keys();
+        String[] values = batch.values();
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                persistentStore.remove(keys[i]);
+            } else {
+                persistentStore.setProperty(keys[i], values[i]);
+            }
+        }
+        saveProperties();
+    }
+
+    private void saveProperties() throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(filePath)) {
+            persistentStore.store(fos, null);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package git.folio;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+// Tails a leader's ReplicationServer and applies the mutations to a local engine on its own thread.
+// Reads can be served from readOnlyView() while it runs; lag() is how many mutations behind the
+// leader the engine was at the last frame. Reconnects with the last applied seq after a failure.
+public class ReplicaFollower implements Runnable, Closeable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long RECONNECT_MILLIS = 1_000;
+
+    private final StorageEngine engine;
+    private final String host;
+    private final int port;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile long appliedSeq;
+    private volatile long leaderSeq;
+    private volatile long lastContactMillis;
+
+    public ReplicaFollower(StorageEngine engine, String host, int port) {
+        this.engine = engine;
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                follow();
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Replication from " + host + ":" + port + " failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void follow() throws IOException {
+        try (Socket connection = new Socket()) {
+            socket = connection;
+            connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout((int) ReplicationServer.HEARTBEAT_MILLIS * 10);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 256 * 1024));
+            DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+            out.writeLong(appliedSeq);
+            out.flush();
+            byte[] frame = new byte[0];
+            while (running) {
+                long latest = in.readLong();
+                int length = in.readInt();
+                if (frame.length < length) {
+                    frame = new byte[length];
+                }
+                in.readFully(frame, 0, length);
+                ByteBuffer records = ByteBuffer.wrap(frame, 0, length);
+                while (records.hasRemaining()) {
+                    MutationLog.apply(records, this::apply);
+                }
+                leaderSeq = latest;
+                lastContactMillis = System.currentTimeMillis();
+                out.writeLong(appliedSeq);
+                out.flush();
+            }
+        }
+    }
+
+    private void apply(long seq, String key, String value) throws IOException {
+        if (seq <= appliedSeq) {
+            return; // already applied before a reconnect
+        }
+        if (value == null) {
+            engine.delete(key);
+        } else {
+            engine.put(key, value);
+        }
+        appliedSeq = seq;
+    }
+
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    public long lag() {
+        return Math.max(0, leaderSeq - appliedSeq);
+    }
+
+    public long millisSinceContact() {
+        return lastContactMillis == 0 ? -1 : System.currentTimeMillis() - lastContactMillis;
+    }
+
+    // Writes to a follower would be lost or diverge from the leader, so they are rejected
+    public StorageEngine readOnlyView() {
+        return new StorageEngine() {
+            @Override
+            public String get(String key) throws IOException {
+                return engine.get(key);
+            }
+
+            @Override
+            public void put(String key, String value) {
+                throw new UnsupportedOperationException("replica is read-only");
+            }
+
+            @Override
+            public void delete(String key) {
+                throw new UnsupportedOperationException("replica is read-only");
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java ReplicaFollower <leader host> <replication port> <port>");
+            return;
+        }
+        try {
+            ReplicaFollower follower = new ReplicaFollower(new StripedHashEngine(), args[0], Integer.parseInt(args[1]));
+            Thread replication = new Thread(follower, "replica-follower");
+            replication.setDaemon(true);
+            replication.start();
+            KeyValueServer server = new KeyValueServer(follower.readOnlyView(), Integer.parseInt(args[2]));
+            System.out.println("Replica listening on port " + server.getPort() + ", following " + args[0] + ":" + args[1]);
+            Thread reporter = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(5_000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.println("Replica applied seq " + follower.appliedSeq() + ", lag " + follower.lag()
+                            + " mutations, last contact " + follower.millisSinceContact() + " ms ago");
+                }
+            }, "replica-lag-reporter");
+            reporter.setDaemon(true);
+            reporter.start();
+            server.run();
+        } catch (IOException e) {
+            System.out.println("Error starting replica: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package git.folio;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+// Leader side of replication: every mutation is applied to the engine and then appended to a MutationLog,
+// both under one lock so the log order is exactly the order the engine saw. A mutation the engine rejects
+// never reaches the log, and one the log rejects is undone in the engine, so followers never see a write
+// the leader does not hold or miss one it does.
+// On open the log is replayed into the engine, so an in-memory engine is rebuilt after a restart.
+public class ReplicatedEngine implements StorageEngine {
+    private final StorageEngine engine;
+    private final MutationLog log;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ReplicatedEngine(StorageEngine engine, Path logDirectory) throws IOException {
+        this.engine = engine;
+        this.log = new MutationLog(logDirectory);
+        log.replay((seq, key, value) -> {
+            if (value == null) {
+                engine.delete(key);
+            } else {
+                engine.put(key, value);
+            }
+        });
+    }
+
+    public MutationLog log() {
+        return log;
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        return engine.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        lock.lock();
+        try {
+            Map<String, String> previous = new LinkedHashMap<>();
+            previous.put(key, engine.get(key));
+            engine.put(key, value);
+            logOrUndo(new String[] {key}, new String[] {value}, previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        lock.lock();
+        try {
+            Map<String, String> previous = new LinkedHashMap<>();
+            previous.put(key, engine.get(key));
+            engine.delete(key);
+            logOrUndo(new String[] {key}, new String[] {null}, previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(WriteBatch batch) throws IOException {
+        String[] keys = batch.keys();
+        String[] values = batch.values();
+        lock.lock();
+        try {
+            Map<String, String> previous = new LinkedHashMap<>();
+            for (String key : keys) {
+                if (!previous.containsKey(key)) {
+                    previous.put(key, engine.get(key));
+                }
+            }
+            engine.write(batch);
+            logOrUndo(keys, values, previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the lock and has just applied the mutations; previous maps each key to its value before
+    private void logOrUndo(String[] keys, String[] values, Map<String, String> previous) throws IOException {
+        try {
+            if (keys.length == 1) {
+                log.append(keys[0], values[0]);
+            } else {
+                log.appendAll(keys, values);
+            }
+        } catch (IOException e) {
+            WriteBatch undo = new WriteBatch();
+            previous.forEach((key, value) -> {
+                if (value == null) {
+                    undo.delete(key);
+                } else {
+                    undo.put(key, value);
+                }
+            });
+            try {
+                engine.write(undo);
+            } catch (IOException undoFailure) {
+                e.addSuppressed(undoFailure);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) throws IOException {
+        lock.lock();
+        try {
+            String existing = engine.get(key);
+            if (existing == null) {
+                put(key, value);
+            }
+            return existing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String compute(String key, BiFunction<String, String, String> remapping) throws IOException {
+        lock.lock();
+        try {
+            String value = remapping.apply(key, engine.get(key));
+            if (value == null) {
+                delete(key);
+            } else {
+                put(key, value);
+            }
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            engine.close();
+            log.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package git.folio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Ships a MutationLog to followers. A follower connects and sends the last sequence number it applied;
+// from then on it receives frames of [leader seq(8)][length(4)][records] and answers each with its
+// applied seq. An empty frame is sent as a heartbeat when nothing was written for a while.
+public class ReplicationServer implements Runnable {
+    static final long HEARTBEAT_MILLIS = 500;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final MutationLog log;
+    private final ServerSocket serverSocket;
+    private final Map<Socket, Long> followers = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public ReplicationServer(MutationLog log, int port) throws IOException {
+        this.log = log;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread sender = new Thread(() -> ship(socket), "replication-" + socket.getRemoteSocketAddress());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Replication server error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+            for (Socket socket : followers.keySet()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error closing replication server: " + e.getMessage());
+        }
+    }
+
+    // Mutations each connected follower has yet to acknowledge, keyed by its address
+    public Map<String, Long> followerLag() {
+        Map<String, Long> lag = new ConcurrentHashMap<>();
+        long last = log.lastSeq();
+        followers.forEach((socket, acked) -> lag.put(socket.getRemoteSocketAddress().toString(), last - acked));
+        return lag;
+    }
+
+    private void ship(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE))) {
+            long sentSeq = in.readLong();
+            followers.put(socket, sentSeq);
+            long offset = log.offsetAfter(sentSeq);
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            while (running) {
+                long latest = log.awaitAfter(sentSeq, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                chunk.clear();
+                int length = log.read(offset, chunk);
+                if (length == 0 && offset < log.size()) {
+                    chunk = ByteBuffer.allocate(chunk.capacity() * 2); // a single record larger than the chunk
+                    continue;
+                }
+                for (int position = 0; position < length; position += MutationLog.recordSize(chunk.slice(position, length - position))) {
+                    sentSeq = chunk.getLong(position + 4);
+                }
+                offset += length;
+                out.writeLong(Math.max(latest, sentSeq));
+                out.writeInt(length);
+                out.write(chunk.array(), 0, length);
+                out.flush();
+                while (in.available() >= Long.BYTES) {
+                    followers.put(socket, in.readLong());
+                }
+            }
+        } catch (IOException e) {
+            // Follower went away; it reconnects with the seq it reached
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(socket);
+        }
+    }
+}
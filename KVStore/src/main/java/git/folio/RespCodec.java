@@ -0,0 +1,286 @@
+package git.folio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Minimal RESP (REdis Serialization Protocol) encoding shared by the server and its clients
+final class RespCodec {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    private static final int MAX_MULTIBULK_LENGTH = 1024 * 1024; // Redis' own limit on arguments per command
+    private static final int MAX_INLINE_LENGTH = 64 * 1024; // Redis' own limit on an inline command
+    private static final int MAX_NUMBER_LENGTH = 20; // a sign and 19 digits
+    static final Object INCOMPLETE = new Object();
+
+    private RespCodec() {
+    }
+
+    // Parses one command (a RESP array of bulk strings, or an inline command) from the buffer.
+    // Returns null and leaves the position untouched if the command is not complete yet.
+    static List<byte[]> parseCommand(ByteBuffer in) throws IOException {
+        int start = in.position();
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        if (in.get(start) != '*') {
+            return parseInline(in);
+        }
+        in.get();
+        Long count = readLong(in);
+        if (count == null) {
+            in.position(start);
+            return null;
+        }
+        checkMultibulkLength(count);
+        // Sized as the arguments arrive, not from the count the client claims
+        List<byte[]> args = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            if (!in.hasRemaining()) {
+                in.position(start);
+                return null;
+            }
+            if (in.get() != '$') {
+                throw new IOException("Protocol error: expected bulk string");
+            }
+            byte[] arg = readBulkBody(in);
+            if (arg == null) {
+                in.position(start);
+                return null;
+            }
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static List<byte[]> parseInline(ByteBuffer in) throws IOException {
+        int start = in.position();
+        int end = indexOfCrlf(in, start, MAX_INLINE_LENGTH, "inline request");
+        if (end < 0) {
+            return null;
+        }
+        String line = new String(in.array(), in.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        in.position(end + 2);
+        List<byte[]> args = new ArrayList<>();
+        for (String part : line.trim().split("\\s+")) {
+            if (!part.isEmpty()) {
+                args.add(part.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return args;
+    }
+
+    // Reads one reply of any type. Returns INCOMPLETE if more bytes are needed.
+    static Object parseReply(ByteBuffer in) throws IOException {
+        int start = in.position();
+        if (!in.hasRemaining()) {
+            return INCOMPLETE;
+        }
+        byte type = in.get();
+        Object reply;
+        switch (type) {
+            case '+':
+            case '-': {
+                int end = indexOfCrlf(in, in.position());
+                if (end < 0) {
+                    reply = INCOMPLETE;
+                    break;
+                }
+                String text = new String(in.array(), in.arrayOffset() + in.position(), end - in.position(),
+                        StandardCharsets.UTF_8);
+                in.position(end + 2);
+                reply = type == '+' ? text : new RespError(text);
+                break;
+            }
+            case ':': {
+                Long value = readLong(in);
+                reply = value == null ? INCOMPLETE : value;
+                break;
+            }
+            case '$': {
+                int lengthStart = in.position();
+                Long length = readLong(in);
+                if (length == null) {
+                    reply = INCOMPLETE;
+                } else if (length < 0) {
+                    reply = null;
+                } else {
+                    in.position(lengthStart);
+                    byte[] bulk = readBulkBody(in);
+                    reply = bulk == null ? INCOMPLETE : bulk;
+                }
+                break;
+            }
+            case '*': {
+                Long count = readLong(in);
+                if (count == null) {
+                    reply = INCOMPLETE;
+                    break;
+                }
+                checkMultibulkLength(count);
+                if (count < 0) {
+                    reply = null;
+                    break;
+                }
+                List<Object> items = new ArrayList<>();
+                reply = items;
+                for (long i = 0; i < count; i++) {
+                    Object item = parseReply(in);
+                    if (item == INCOMPLETE) {
+                        reply = INCOMPLETE;
+                        break;
+                    }
+                    items.add(item);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Protocol error: unexpected reply type '" + (char) type + "'");
+        }
+        if (reply == INCOMPLETE) {
+            in.position(start);
+        }
+        return reply;
+    }
+
+    // -1 is a null array, which has no elements
+    private static void checkMultibulkLength(long count) throws IOException {
+        if (count < -1 || count > MAX_MULTIBULK_LENGTH) {
+            throw new IOException("Protocol error: invalid multibulk length");
+        }
+    }
+
+    private static byte[] readBulkBody(ByteBuffer in) throws IOException {
+        Long length = readLong(in);
+        if (length == null) {
+            return null;
+        }
+        if (length < 0 || length > MAX_BULK_LENGTH) {
+            throw new IOException("Protocol error: invalid bulk length " + length);
+        }
+        if (in.remaining() < length + 2) {
+            return null;
+        }
+        byte[] bytes = new byte[length.intValue()];
+        in.get(bytes);
+        in.position(in.position() + 2);
+        return bytes;
+    }
+
+    private static Long readLong(ByteBuffer in) throws IOException {
+        int end = indexOfCrlf(in, in.position(), MAX_NUMBER_LENGTH, "count string");
+        if (end < 0) {
+            return null;
+        }
+        long value = 0;
+        boolean negative = false;
+        int i = in.position();
+        if (in.get(i) == '-') {
+            negative = true;
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            throw new IOException("Protocol error: invalid number"); // empty, or too long to fit a long
+        }
+        for (; i < end; i++) {
+            byte b = in.get(i);
+            if (b < '0' || b > '9') {
+                throw new IOException("Protocol error: invalid number");
+            }
+            value = value * 10 + (b - '0');
+        }
+        in.position(end + 2);
+        return negative ? -value : value;
+    }
+
+    private static int indexOfCrlf(ByteBuffer in, int from) {
+        for (int i = from; i < in.limit() - 1; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Like indexOfCrlf, but a line longer than maxLength is an error rather than a reason to wait for
+    // more bytes, so a client that never ends its line cannot grow the buffer without limit
+    private static int indexOfCrlf(ByteBuffer in, int from, int maxLength, String what) throws IOException {
+        int limit = (int) Math.min(in.limit(), (long) from + maxLength + 2);
+        for (int i = from; i < limit - 1; i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        if (in.limit() - from >= maxLength + 2) {
+            throw new IOException("Protocol error: too big " + what);
+        }
+        return -1;
+    }
+
+    // Encoding
+
+    static ByteBuffer writeSimple(ByteBuffer out, String text) {
+        return writeLine(out, (byte) '+', text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ByteBuffer writeError(ByteBuffer out, String message) {
+        return writeLine(out, (byte) '-', message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static ByteBuffer writeInteger(ByteBuffer out, long value) {
+        return writeLine(out, (byte) ':', Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static ByteBuffer writeBulk(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            return writeLine(out, (byte) '$', "-1".getBytes(StandardCharsets.US_ASCII));
+        }
+        out = writeLine(out, (byte) '$', Integer.toString(value.length).getBytes(StandardCharsets.US_ASCII));
+        out = ensureCapacity(out, value.length + 2);
+        return out.put(value).put(CRLF);
+    }
+
+    static ByteBuffer writeArrayHeader(ByteBuffer out, int count) {
+        return writeLine(out, (byte) '*', Integer.toString(count).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static ByteBuffer writeCommand(ByteBuffer out, String... args) {
+        out = writeArrayHeader(out, args.length);
+        for (String arg : args) {
+            out = writeBulk(out, arg.getBytes(StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static ByteBuffer writeLine(ByteBuffer out, byte type, byte[] body) {
+        out = ensureCapacity(out, body.length + 3);
+        return out.put(type).put(body).put(CRLF);
+    }
+
+    // Buffers are grown by copying; callers must keep the returned reference
+    static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    static final class RespError {
+        final String message;
+
+        RespError(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+}
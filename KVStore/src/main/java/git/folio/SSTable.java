@@ -0,0 +1,219 @@
+package git.folio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Immutable sorted table: records, a sparse index of every INDEX_INTERVAL-th key, a Bloom filter and a footer.
+// The file is memory-mapped, so only the sparse index and the filter live on the heap.
+final class SSTable {
+    static final byte[] TOMBSTONE = new byte[0];
+    private static final int INDEX_INTERVAL = 16;
+    private static final int FOOTER_SIZE = 20; // indexOffset(4) + bloomOffset(4) + lastRecordOffset(4) + entryCount(4) + magic(4)
+    private static final int MAGIC = 0x5353544c;
+
+    final long id;
+    final Path path;
+    final String firstKey;
+    final String lastKey;
+    final long sizeBytes;
+    private final MappedByteBuffer data;
+    private final int dataEnd;
+    private final String[] indexKeys;
+    private final int[] indexOffsets;
+    private final BloomFilter bloom;
+
+    private SSTable(long id, Path path) throws IOException {
+        this.id = id;
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.sizeBytes = channel.size();
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, sizeBytes);
+        }
+        int footer = (int) sizeBytes - FOOTER_SIZE;
+        if (footer < 0 || data.getInt(footer + 16) != MAGIC) {
+            throw new IOException("Not an SSTable: " + path);
+        }
+        this.dataEnd = data.getInt(footer);
+        int bloomOffset = data.getInt(footer + 4);
+
+        ByteBuffer in = data.duplicate().position(dataEnd);
+        int indexCount = in.getInt();
+        indexKeys = new String[indexCount];
+        indexOffsets = new int[indexCount];
+        for (int i = 0; i < indexCount; i++) {
+            byte[] key = new byte[in.getInt()];
+            in.get(key);
+            indexKeys[i] = new String(key, StandardCharsets.UTF_8);
+            indexOffsets[i] = in.getInt();
+        }
+        bloom = BloomFilter.readFrom(data.duplicate().position(bloomOffset));
+
+        int lastRecordOffset = data.getInt(footer + 8);
+        byte[] last = new byte[data.getInt(lastRecordOffset)];
+        data.get(lastRecordOffset + 8, last);
+        this.firstKey = indexKeys[0];
+        this.lastKey = new String(last, StandardCharsets.UTF_8);
+    }
+
+    static SSTable open(long id, Path path) throws IOException {
+        return new SSTable(id, path);
+    }
+
+    // Drains records from the iterator until it is exhausted or the file reaches maxBytes
+    static SSTable write(long id, Path path, Iterator<Record> records, long maxBytes) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        List<byte[]> indexKeys = new ArrayList<>();
+        List<Integer> indexOffsets = new ArrayList<>();
+        long[] hashes = new long[1024];
+        int count = 0;
+        int position = 0;
+        int lastRecordOffset = 0;
+
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            while (records.hasNext() && position < maxBytes) {
+                Record record = records.next();
+                byte[] key = record.key.getBytes(StandardCharsets.UTF_8);
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(key);
+                    indexOffsets.add(position);
+                }
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                hashes[count++] = BloomFilter.hash(key);
+
+                lastRecordOffset = position;
+                boolean deleted = record.value == TOMBSTONE;
+                out.writeInt(key.length);
+                out.writeInt(deleted ? -1 : record.value.length);
+                out.write(key);
+                if (!deleted) {
+                    out.write(record.value);
+                }
+                position += 8 + key.length + (deleted ? 0 : record.value.length);
+            }
+            if (count == 0) {
+                out.close();
+                Files.delete(tmp);
+                return null;
+            }
+
+            int indexOffset = position;
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeInt(indexKeys.get(i).length);
+                out.write(indexKeys.get(i));
+                out.writeInt(indexOffsets.get(i));
+                position += 8 + indexKeys.get(i).length;
+            }
+            position += 4;
+
+            BloomFilter filter = BloomFilter.create(hashes, count);
+            ByteBuffer bloomBytes = ByteBuffer.allocate(filter.serializedSize());
+            filter.writeTo(bloomBytes);
+            out.write(bloomBytes.array());
+
+            out.writeInt(indexOffset);
+            out.writeInt(position);
+            out.writeInt(lastRecordOffset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(id, path);
+    }
+
+    boolean overlaps(String from, String to) {
+        return firstKey.compareTo(to) <= 0 && lastKey.compareTo(from) >= 0;
+    }
+
+    // Returns the value, TOMBSTONE if the key was deleted, or null if this table knows nothing about it
+    byte[] get(String key, long keyHash) {
+        if (key.compareTo(firstKey) < 0 || key.compareTo(lastKey) > 0 || !bloom.mightContain(keyHash)) {
+            return null;
+        }
+        int slot = Arrays.binarySearch(indexKeys, key);
+        if (slot < 0) {
+            slot = -slot - 2;
+        }
+        int offset = indexOffsets[slot];
+        int end = slot + 1 < indexOffsets.length ? indexOffsets[slot + 1] : dataEnd;
+        while (offset < end) {
+            int keyLength = data.getInt(offset);
+            int valueLength = data.getInt(offset + 4);
+            byte[] keyBytes = new byte[keyLength];
+            data.get(offset + 8, keyBytes);
+            int cmp = new String(keyBytes, StandardCharsets.UTF_8).compareTo(key);
+            if (cmp == 0) {
+                if (valueLength < 0) {
+                    return TOMBSTONE;
+                }
+                byte[] value = new byte[valueLength];
+                data.get(offset + 8 + keyLength, value);
+                return value;
+            }
+            if (cmp > 0) {
+                return null;
+            }
+            offset += 8 + keyLength + Math.max(valueLength, 0);
+        }
+        return null;
+    }
+
+    Iterator<Record> iterator() {
+        return new Iterator<>() {
+            private int offset = 0;
+
+            @Override
+            public boolean hasNext() {
+                return offset < dataEnd;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int keyLength = data.getInt(offset);
+                int valueLength = data.getInt(offset + 4);
+                byte[] key = new byte[keyLength];
+                data.get(offset + 8, key);
+                byte[] value = TOMBSTONE;
+                if (valueLength >= 0) {
+                    value = new byte[valueLength];
+                    data.get(offset + 8 + keyLength, value);
+                }
+                offset += 8 + keyLength + Math.max(valueLength, 0);
+                return new Record(new String(key, StandardCharsets.UTF_8), value);
+            }
+        };
+    }
+
+    static final class Record {
+        final String key;
+        final byte[] value;
+
+        Record(String key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package git.folio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.BiFunction;
+
+public interface StorageEngine extends Closeable {
+    void put(String key, String value) throws IOException;
+
+    String get(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+
+    // The defaults below are not atomic; engines meant to be shared between threads override them
+    default void write(WriteBatch batch) throws IOException {
+        String[] keys = batch.keys();
+        String[] values = batch.values();
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] == null) {
+                delete(keys[i]);
+            } else {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    default String putIfAbsent(String key, String value) throws IOException {
+        String existing = get(key);
+        if (existing == null) {
+            put(key, value);
+        }
+        return existing;
+    }
+
+    default String compute(String key, BiFunction<String, String, String> remapping) throws IOException {
+        String updated = remapping.apply(key, get(key));
+        if (updated == null) {
+            delete(key);
+        } else {
+            put(key, updated);
+        }
+        return updated;
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
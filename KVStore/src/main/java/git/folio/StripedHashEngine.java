@@ -0,0 +1,203 @@
+package git.folio;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+// Hash table split into independently locked stripes. Writers lock only their stripe; readers never lock
+// and walk immutable chains published through volatile slots, so reads scale with the number of cores.
+public class StripedHashEngine implements StorageEngine {
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    public StripedHashEngine() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public StripedHashEngine(int concurrencyLevel) {
+        int stripeCount = 1;
+        int bits = 0;
+        while (stripeCount < concurrencyLevel) {
+            stripeCount <<= 1;
+            bits++;
+        }
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        // Stripes use the high bits of the hash, buckets the low bits
+        this.stripeShift = 32 - bits;
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[hash >>> stripeShift];
+    }
+
+    @Override
+    public String get(String key) {
+        int hash = spread(key.hashCode());
+        Node node = stripeFor(hash).find(key, hash);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        int hash = spread(key.hashCode());
+        stripeFor(hash).put(key, hash, value, false);
+    }
+
+    @Override
+    public String putIfAbsent(String key, String value) {
+        int hash = spread(key.hashCode());
+        return stripeFor(hash).put(key, hash, value, true);
+    }
+
+    @Override
+    public void delete(String key) {
+        int hash = spread(key.hashCode());
+        stripeFor(hash).remove(key, hash);
+    }
+
+    @Override
+    public String compute(String key, BiFunction<String, String, String> remapping) {
+        int hash = spread(key.hashCode());
+        return stripeFor(hash).compute(key, hash, remapping);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.count;
+        }
+        return size;
+    }
+
+    static final class Node {
+        final int hash;
+        final String key;
+        volatile String value;
+        final Node next;
+
+        Node(int hash, String key, String value, Node next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    static final class Stripe extends ReentrantLock {
+        private volatile AtomicReferenceArray<Node> table = new AtomicReferenceArray<>(INITIAL_STRIPE_CAPACITY);
+        private volatile int count;
+
+        Node find(String key, int hash) {
+            AtomicReferenceArray<Node> tab = table;
+            for (Node e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+                if (e.hash == hash && key.equals(e.key)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+
+        String put(String key, int hash, String value, boolean onlyIfAbsent) {
+            lock();
+            try {
+                Node existing = find(key, hash);
+                if (existing != null) {
+                    String old = existing.value;
+                    if (!onlyIfAbsent) {
+                        existing.value = value;
+                    }
+                    return old;
+                }
+                insert(key, hash, value);
+                return null;
+            } finally {
+                unlock();
+            }
+        }
+
+        void remove(String key, int hash) {
+            lock();
+            try {
+                unlink(key, hash);
+            } finally {
+                unlock();
+            }
+        }
+
+        String compute(String key, int hash, BiFunction<String, String, String> remapping) {
+            lock();
+            try {
+                Node existing = find(key, hash);
+                String updated = remapping.apply(key, existing == null ? null : existing.value);
+                if (updated == null) {
+                    if (existing != null) {
+                        unlink(key, hash);
+                    }
+                } else if (existing != null) {
+                    existing.value = updated;
+                } else {
+                    insert(key, hash, updated);
+                }
+                return updated;
+            } finally {
+                unlock();
+            }
+        }
+
+        private void insert(String key, int hash, String value) {
+            AtomicReferenceArray<Node> tab = table;
+            if (count + 1 > tab.length() * LOAD_FACTOR) {
+                tab = resize(tab);
+            }
+            int i = hash & (tab.length() - 1);
+            tab.set(i, new Node(hash, key, value, tab.get(i)));
+            count++;
+        }
+
+        // Chains are immutable, so the nodes in front of the removed one are cloned instead of relinked
+        private void unlink(String key, int hash) {
+            AtomicReferenceArray<Node> tab = table;
+            int i = hash & (tab.length() - 1);
+            Node head = tab.get(i);
+            Node target = head;
+            while (target != null && !(target.hash == hash && key.equals(target.key))) {
+                target = target.next;
+            }
+            if (target == null) {
+                return;
+            }
+            Node newHead = target.next;
+            for (Node p = head; p != target; p = p.next) {
+                newHead = new Node(p.hash, p.key, p.value, newHead);
+            }
+            tab.set(i, newHead);
+            count--;
+        }
+
+        // Builds a fresh table so readers still traversing the old one see a consistent snapshot
+        private AtomicReferenceArray<Node> resize(AtomicReferenceArray<Node> old) {
+            AtomicReferenceArray<Node> tab = new AtomicReferenceArray<>(old.length() << 1);
+            int mask = tab.length() - 1;
+            for (int i = 0; i < old.length(); i++) {
+                for (Node e = old.get(i); e != null; e = e.next) {
+                    int j = e.hash & mask;
+                    tab.set(j, new Node(e.hash, e.key, e.value, tab.get(j)));
+                }
+            }
+            table = tab;
+            return tab;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package git.folio;
+
+import java.util.function.Consumer;
+
+// Hierarchical timing wheel for per-entry expiry. Each level covers a coarser span of time; advancing
+// the clock only visits the buckets whose span has elapsed, and entries that are not due yet are
+// cascaded into finer levels. Scheduling and cancelling are O(1) list operations.
+final class TimerWheel {
+    // ~1.07s, ~1.14m, ~1.22h, ~1.63d, ~6.5d (powers of two in nanoseconds)
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {1L << 30, 1L << 36, 1L << 42, 1L << 47, 1L << 49, 1L << 49};
+    private static final int[] SHIFT = {30, 36, 42, 47, 49};
+
+    private final CacheEngine.Node[][] wheel;
+    private long nanos;
+
+    TimerWheel(long now) {
+        this.nanos = now;
+        wheel = new CacheEngine.Node[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new CacheEngine.Node[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                CacheEngine.Node sentinel = new CacheEngine.Node(null, null, 0, 0);
+                sentinel.wheelPrev = sentinel;
+                sentinel.wheelNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    void schedule(CacheEngine.Node node) {
+        CacheEngine.Node sentinel = findBucket(node.expiresAt);
+        node.wheelNext = sentinel;
+        node.wheelPrev = sentinel.wheelPrev;
+        sentinel.wheelPrev.wheelNext = node;
+        sentinel.wheelPrev = node;
+    }
+
+    void deschedule(CacheEngine.Node node) {
+        if (node.wheelNext != null) {
+            node.wheelPrev.wheelNext = node.wheelNext;
+            node.wheelNext.wheelPrev = node.wheelPrev;
+            node.wheelNext = null;
+            node.wheelPrev = null;
+        }
+    }
+
+    // Moves the clock to now and hands every entry that has expired to the callback
+    void advance(long now, Consumer<CacheEngine.Node> expired) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long currentTicks = now >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0) {
+                break;
+            }
+            expireBuckets(i, previousTicks, currentTicks - previousTicks, expired);
+        }
+    }
+
+    private void expireBuckets(int level, long previousTicks, long delta, Consumer<CacheEngine.Node> expired) {
+        CacheEngine.Node[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int start = (int) (previousTicks & mask);
+        int steps = (int) Math.min(delta + 1, buckets.length);
+        for (int i = start; i < start + steps; i++) {
+            CacheEngine.Node sentinel = buckets[i & mask];
+            CacheEngine.Node node = sentinel.wheelNext;
+            sentinel.wheelPrev = sentinel;
+            sentinel.wheelNext = sentinel;
+            while (node != sentinel) {
+                CacheEngine.Node next = node.wheelNext;
+                node.wheelPrev = null;
+                node.wheelNext = null;
+                if (node.expiresAt - nanos <= 0) {
+                    expired.accept(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private CacheEngine.Node findBucket(long time) {
+        long duration = time - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+}
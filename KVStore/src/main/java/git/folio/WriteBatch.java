@@ -0,0 +1,54 @@
+package git.folio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Ordered set of puts and deletes applied together; engines that support it apply the batch atomically
+public class WriteBatch {
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+
+    // A null value would read back as a delete, so it is refused here rather than silently turned into one
+    public WriteBatch put(String key, String value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Batch puts need a non-null key and value; use delete to remove a key");
+        }
+        keys.add(key);
+        values.add(value);
+        return this;
+    }
+
+    public WriteBatch putAll(Map<String, String> entries) {
+        entries.forEach(this::put);
+        return this;
+    }
+
+    public WriteBatch delete(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Batch deletes need a non-null key");
+        }
+        keys.add(key);
+        values.add(null);
+        return this;
+    }
+
+    public WriteBatch deleteAll(Collection<String> keysToDelete) {
+        keysToDelete.forEach(this::delete);
+        return this;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    String[] keys() {
+        return keys.toArray(new String[0]);
+    }
+
+    // A null value marks a delete
+    String[] values() {
+        return values.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,73 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheEngineTest {
+
+    @Test
+    @DisplayName("Test put, get and delete below the size bound")
+    void testPutGetDelete() {
+        CacheEngine cache = new CacheEngine(100);
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.put("b", "3");
+        cache.delete("b");
+        assertEquals("2", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    @DisplayName("Test the size bound holds and a scan of one-off keys does not flush popular ones")
+    void testEviction() {
+        CacheEngine cache = new CacheEngine(100);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.get("hot" + i) == null) {
+                    cache.put("hot" + i, "value" + i);
+                }
+            }
+        }
+        for (int i = 0; i < 10_000; i++) {
+            cache.put("scan" + i, "value" + i);
+            assertTrue(cache.size() <= 100);
+        }
+        assertTrue(cache.evictionCount() >= 9_950 - 50);
+        int hotLeft = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null) {
+                hotLeft++;
+            }
+        }
+        assertTrue(hotLeft >= 45, hotLeft + " of 50 popular keys survived the scan");
+    }
+
+    @Test
+    @DisplayName("Test entries expire after their own or the default time to live")
+    void testExpiry() {
+        AtomicLong now = new AtomicLong();
+        CacheEngine cache = new CacheEngine(100, false, TimeUnit.SECONDS.toNanos(10), now::get);
+        cache.put("default", "1");
+        cache.put("short", "2", 1, TimeUnit.SECONDS);
+        cache.put("forever", "3", 0, TimeUnit.SECONDS);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals("2", cache.get("short"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+        assertNull(cache.get("short"));
+        assertEquals("1", cache.get("default"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertNull(cache.get("default"));
+        assertEquals("3", cache.get("forever"));
+        assertEquals(2, cache.expirationCount());
+        assertEquals(1, cache.size());
+    }
+}
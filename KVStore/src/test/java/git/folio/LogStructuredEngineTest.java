@@ -0,0 +1,95 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStructuredEngineTest {
+
+    private Path directory;
+    private LogStructuredEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("log-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (engine != null) {
+            engine.close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private LogStructuredEngine open() throws IOException {
+        engine = new LogStructuredEngine(directory, 4 * 1024, 0);
+        return engine;
+    }
+
+    @Test
+    @DisplayName("Test values survive segment rollover, compaction and a reopen")
+    void testPutGetDeleteReopen() throws Exception {
+        open();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 300; i++) {
+                engine.put("key" + i, "value-" + i + "-" + round);
+            }
+        }
+        engine.delete("key7");
+        engine.compact();
+        assertEquals("value-5-2", engine.get("key5"));
+        engine.close();
+
+        open();
+        assertNull(engine.get("key7"));
+        assertEquals(299, engine.size());
+        for (int i = 0; i < 300; i++) {
+            if (i != 7) {
+                assertEquals("value-" + i + "-2", engine.get("key" + i), "key" + i);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test an interrupted read fails instead of spinning and leaves the store usable")
+    void testInterruptedGet() throws Exception {
+        open();
+        engine.put("key", "value");
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            Thread.currentThread().interrupt();
+            assertThrows(ClosedByInterruptException.class, () -> engine.get("key"));
+            assertTrue(Thread.interrupted());
+        });
+
+        // The interrupt closed the segment's channel for every thread; it is reopened on next use
+        assertEquals("value", engine.get("key"));
+        engine.put("other", "value 2");
+        assertEquals("value 2", engine.get("other"));
+        engine.close();
+
+        open();
+        assertEquals("value", engine.get("key"));
+        assertEquals("value 2", engine.get("other"));
+    }
+
+    @Test
+    @DisplayName("Test SYNC_INTERVAL without a positive interval is rejected")
+    void testInvalidSyncInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new LogStructuredEngine(directory, 4 * 1024, 0,
+                LogStructuredEngine.Durability.SYNC_INTERVAL, 0));
+        assertThrows(IllegalArgumentException.class, () -> new LogStructuredEngine(directory, 4 * 1024, 0,
+                LogStructuredEngine.Durability.SYNC_INTERVAL, -1));
+    }
+}
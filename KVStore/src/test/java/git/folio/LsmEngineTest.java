@@ -0,0 +1,132 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tiny memtables and tables so a few thousand writes exercise flushes and several levels of compaction
+class LsmEngineTest {
+
+    private Path directory;
+    private LsmEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("lsm-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (engine != null) {
+            engine.close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private LsmEngine open() throws IOException {
+        engine = new LsmEngine(directory, 4 * 1024, 8 * 1024, 32 * 1024);
+        return engine;
+    }
+
+    private List<String> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).filter(name -> name.endsWith(suffix)).toList();
+        }
+    }
+
+    // Waits for the background thread to finish what it has queued: a write that rotates the memtable
+    // blocks until the previous flush is done, and compaction runs right after it
+    private void settle() throws IOException, InterruptedException {
+        engine.close();
+        open();
+    }
+
+    private static String value(int i, int round) {
+        return "value-" + i + "-" + round + "-" + "x".repeat(i % 50);
+    }
+
+    @Test
+    @DisplayName("Test full memtables are flushed to tables and stay readable")
+    void testFlush() throws Exception {
+        open();
+        for (int i = 0; i < 500; i++) {
+            engine.put("key" + i, value(i, 0));
+        }
+        settle();
+        assertFalse(files(".sst").isEmpty());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(value(i, 0), engine.get("key" + i), "key" + i);
+        }
+        assertNull(engine.get("missing"));
+    }
+
+    @Test
+    @DisplayName("Test compaction keeps the newest value and drops deleted keys")
+    void testCompaction() throws Exception {
+        open();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 2000; i++) {
+                engine.put("key" + i, value(i, round));
+            }
+        }
+        for (int i = 0; i < 2000; i += 3) {
+            engine.delete("key" + i);
+        }
+        settle();
+        // Level 0 never holds more than the trigger once compaction has caught up
+        assertTrue(files(".sst").size() > 1);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i % 3 == 0 ? null : value(i, 4), engine.get("key" + i), "key" + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Test a reopened store recovers its tables and the unflushed log")
+    void testRecovery() throws Exception {
+        open();
+        for (int i = 0; i < 1000; i++) {
+            engine.put("key" + i, value(i, 0));
+        }
+        engine.delete("key7");
+        engine.put("last", "only in the log");
+        engine.close();
+
+        open();
+        assertEquals("only in the log", engine.get("last"));
+        assertNull(engine.get("key7"));
+        for (int i = 0; i < 1000; i++) {
+            if (i != 7) {
+                assertEquals(value(i, 0), engine.get("key" + i), "key" + i);
+            }
+        }
+        assertEquals(1, files(".wal").size());
+        assertTrue(files(".tmp").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test writers fail instead of hanging once a background flush has failed")
+    void testFlushFailureSurfaces() throws Exception {
+        open();
+        // The first flush writes table 3 (logs 1 and 2 come first); a directory in its way makes it fail
+        Files.createDirectories(directory.resolve("000003.sst.tmp"));
+        IOException e = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 100_000; i++) {
+                engine.put("key" + i, value(i, 0));
+            }
+        }));
+        assertEquals("Background flush failed", e.getMessage());
+        // Everything written before the failure is still readable
+        assertEquals(value(0, 0), engine.get("key0"));
+    }
+}
@@ -0,0 +1,52 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Small slabs and table so a few thousand entries span many slabs, rehashes and compactions
+class OffHeapEngineTest {
+
+    @Test
+    @DisplayName("Test put, get and delete across slabs and rehashes")
+    void testPutGetDelete() {
+        OffHeapEngine engine = new OffHeapEngine(4 * 1024, 16);
+        for (int i = 0; i < 5_000; i++) {
+            engine.put("key" + i, "välue-" + i);
+        }
+        for (int i = 0; i < 5_000; i += 2) {
+            engine.delete("key" + i);
+        }
+        engine.delete("missing");
+        engine.put("key1", "updated");
+        assertEquals(2_500, engine.size());
+        assertEquals("updated", engine.get("key1"));
+        assertNull(engine.get("key0"));
+        assertEquals("välue-4999", engine.get("key4999"));
+        assertTrue(engine.offHeapBytes() > 4 * 1024);
+    }
+
+    @Test
+    @DisplayName("Test overwriting keys reclaims slab memory through compaction")
+    void testCompaction() {
+        OffHeapEngine engine = new OffHeapEngine(4 * 1024, 16);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 100; i++) {
+                engine.put("key" + i, "value-" + i + "-" + round);
+            }
+        }
+        // 5,000 writes of ~20 bytes would need ~30 slabs without reclaiming overwritten entries
+        assertTrue(engine.offHeapBytes() <= 8 * 4 * 1024, engine.offHeapBytes() + " bytes");
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value-" + i + "-49", engine.get("key" + i));
+        }
+    }
+
+    @Test
+    @DisplayName("Test entries larger than a slab are rejected")
+    void testOversizedEntry() {
+        OffHeapEngine engine = new OffHeapEngine(1024, 16);
+        assertThrows(IllegalArgumentException.class, () -> engine.put("key", "x".repeat(2048)));
+        assertEquals(0, engine.size());
+    }
+}
@@ -0,0 +1,98 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedEngineTest {
+
+    private static List<String> keys(Iterator<Map.Entry<String, String>> entries) {
+        List<String> keys = new ArrayList<>();
+        entries.forEachRemaining(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+
+    @Test
+    @DisplayName("Test put, get, delete and ordered range and prefix scans")
+    void testPutGetDeleteScan() {
+        OrderedEngine engine = new OrderedEngine();
+        for (String key : new String[] {"b", "a", "ab", "abc", "c", "d"}) {
+            engine.put(key, key.toUpperCase());
+        }
+        engine.delete("c");
+        engine.delete("missing");
+        assertEquals("AB", engine.get("ab"));
+        assertNull(engine.get("c"));
+        assertEquals(5, engine.size());
+        assertEquals(List.of("a", "ab", "abc", "b", "d"), keys(engine.scan(null, null)));
+        assertEquals(List.of("ab", "abc", "b"), keys(engine.scan("ab", "c")));
+        assertEquals(List.of("a", "ab", "abc"), keys(engine.prefix("a")));
+    }
+
+    @Test
+    @DisplayName("Test a snapshot sees neither later writes nor later deletes")
+    void testSnapshotIsolation() {
+        OrderedEngine engine = new OrderedEngine();
+        engine.put("a", "1");
+        engine.put("b", "1");
+        try (OrderedEngine.Snapshot snapshot = engine.snapshot()) {
+            engine.put("a", "2");
+            engine.delete("b");
+            engine.put("c", "2");
+
+            assertEquals("1", snapshot.get("a"));
+            assertEquals("1", snapshot.get("b"));
+            assertNull(snapshot.get("c"));
+            assertEquals(List.of("a", "b"), keys(snapshot.scan(null, null)));
+            assertEquals(List.of("b"), keys(snapshot.prefix("b")));
+
+            assertEquals("2", engine.get("a"));
+            assertNull(engine.get("b"));
+            assertEquals(List.of("a", "c"), keys(engine.scan(null, null)));
+        }
+        // Once the snapshot is closed the versions it pinned are gone
+        engine.put("a", "3");
+        assertEquals(List.of("a", "c"), keys(engine.scan(null, null)));
+        assertEquals(2, engine.size());
+    }
+
+    @Test
+    @DisplayName("Test a snapshot stays consistent while writers keep going")
+    void testSnapshotUnderConcurrentWrites() throws InterruptedException {
+        OrderedEngine engine = new OrderedEngine();
+        for (int i = 0; i < 1_000; i++) {
+            engine.put(String.format("key%04d", i), "0");
+        }
+        Thread writer = new Thread(() -> {
+            for (int round = 1; round <= 20; round++) {
+                for (int i = 0; i < 1_000; i++) {
+                    engine.put(String.format("key%04d", i), String.valueOf(round));
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int check = 0; check < 20; check++) {
+                try (OrderedEngine.Snapshot snapshot = engine.snapshot()) {
+                    // Each round rewrites keys in order, so a consistent view never has a later key ahead
+                    int previous = Integer.MAX_VALUE;
+                    int count = 0;
+                    for (Iterator<Map.Entry<String, String>> it = snapshot.scan(null, null); it.hasNext(); count++) {
+                        int round = Integer.parseInt(it.next().getValue());
+                        assertTrue(round <= previous, "round " + round + " after " + previous);
+                        assertTrue(previous == Integer.MAX_VALUE || previous - round <= 1, "rounds " + previous + " and " + round);
+                        previous = round;
+                    }
+                    assertEquals(1_000, count);
+                }
+            }
+        } finally {
+            writer.join();
+        }
+    }
+}
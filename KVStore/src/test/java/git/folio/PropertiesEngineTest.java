@@ -0,0 +1,53 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PropertiesEngineTest {
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("properties-test", ".properties");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @DisplayName("Test a batch of puts and deletes is applied and survives a reload")
+    void testWriteBatch() throws IOException {
+        PropertiesEngine engine = new PropertiesEngine(file.toString());
+        engine.put("gone", "soon");
+        engine.write(new WriteBatch().put("a", "1").put("b", "2").delete("gone").put("a", "3"));
+        assertEquals("3", engine.get("a"));
+        assertNull(engine.get("gone"));
+
+        PropertiesEngine reloaded = new PropertiesEngine(file.toString());
+        assertEquals("3", reloaded.get("a"));
+        assertEquals("2", reloaded.get("b"));
+        assertNull(reloaded.get("gone"));
+    }
+
+    @Test
+    @DisplayName("Test a batch refuses a null value instead of treating it as a delete")
+    void testBatchRejectsNull() throws IOException {
+        PropertiesEngine engine = new PropertiesEngine(file.toString());
+        engine.put("key", "value");
+        WriteBatch batch = new WriteBatch();
+        assertThrows(IllegalArgumentException.class, () -> batch.put("key", null));
+        assertThrows(IllegalArgumentException.class, () -> batch.put(null, "value"));
+        assertThrows(IllegalArgumentException.class, () -> batch.delete(null));
+        assertEquals(0, batch.size());
+        engine.write(batch);
+        assertEquals("value", engine.get("key"));
+    }
+}
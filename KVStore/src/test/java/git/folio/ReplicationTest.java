@@ -0,0 +1,184 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs the leader in this JVM and a ReplicaFollower in a second JVM, talking over loopback
+class ReplicationTest {
+
+    private Path directory;
+    private ReplicatedEngine leader;
+    private ReplicationServer replicationServer;
+    private Process follower;
+    private int followerPort;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("replication-test");
+        leader = new ReplicatedEngine(new StripedHashEngine(), directory);
+        replicationServer = new ReplicationServer(leader.log(), 0);
+        new Thread(replicationServer, "replication-server").start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (follower != null) {
+            follower.destroyForcibly();
+        }
+        replicationServer.stop();
+        leader.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    @DisplayName("Test follower JVM catches up on history and then tails new writes")
+    void testFollowerReplicatesWrites() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            leader.put("key" + i, "value" + i);
+        }
+        startFollower();
+        assertEquals("value999", awaitValue("key999", "value999"));
+
+        for (int i = 0; i < 1000; i++) {
+            leader.put("key" + i, "updated" + i);
+        }
+        leader.delete("key0");
+        assertEquals("updated999", awaitValue("key999", "updated999"));
+        assertNull(awaitValue("key0", null));
+        assertEquals("updated500", send("GET", "key500"));
+    }
+
+    @Test
+    @DisplayName("Test follower rejects writes")
+    void testFollowerIsReadOnly() throws Exception {
+        startFollower();
+        Object reply = send("SET", "key", "value");
+        assertTrue(reply instanceof RespCodec.RespError, "expected an error but got " + reply);
+    }
+
+    @Test
+    @DisplayName("Test leader rebuilds its state from the mutation log")
+    void testLeaderReplaysLog() throws IOException {
+        leader.put("a", "1");
+        leader.put("b", "2");
+        leader.delete("a");
+        replicationServer.stop();
+        leader.close();
+
+        leader = new ReplicatedEngine(new StripedHashEngine(), directory);
+        replicationServer = new ReplicationServer(leader.log(), 0);
+        assertNull(leader.get("a"));
+        assertEquals("2", leader.get("b"));
+        assertEquals(3, leader.log().lastSeq());
+    }
+
+    @Test
+    @DisplayName("Test a write the engine rejects is not logged")
+    void testEngineFailureNotLogged() throws IOException {
+        StorageEngine failing = new StripedHashEngine() {
+            @Override
+            public void put(String key, String value) {
+                if (key.equals("bad")) {
+                    throw new IllegalStateException("engine rejected " + key);
+                }
+                super.put(key, value);
+            }
+        };
+        replicationServer.stop();
+        leader.close();
+        leader = new ReplicatedEngine(failing, directory.resolve("failing"));
+        replicationServer = new ReplicationServer(leader.log(), 0);
+
+        leader.put("good", "1");
+        assertThrows(IllegalStateException.class, () -> leader.put("bad", "2"));
+        assertEquals(1, leader.log().lastSeq());
+    }
+
+    @Test
+    @DisplayName("Test a write the log rejects is undone in the engine")
+    void testLogFailureUndone() throws IOException {
+        leader.put("a", "1");
+        leader.write(new WriteBatch().put("b", "1").put("c", "1"));
+        leader.log().close();
+
+        assertThrows(IOException.class, () -> leader.put("a", "2"));
+        assertThrows(IOException.class, () -> leader.delete("b"));
+        assertThrows(IOException.class, () -> leader.write(new WriteBatch().put("c", "2").put("d", "2").delete("a")));
+        assertEquals("1", leader.get("a"));
+        assertEquals("1", leader.get("b"));
+        assertEquals("1", leader.get("c"));
+        assertNull(leader.get("d"));
+    }
+
+    private void startFollower() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            followerPort = probe.getLocalPort();
+        }
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        follower = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ReplicaFollower.class.getName(),
+                "127.0.0.1", Integer.toString(replicationServer.getPort()), Integer.toString(followerPort))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                send("PING");
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private String awaitValue(String key, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        Object value;
+        do {
+            value = send("GET", key);
+            if (value == null ? expected == null : value.equals(expected)) {
+                break;
+            }
+            Thread.sleep(20);
+        } while (System.currentTimeMillis() < deadline);
+        return (String) value;
+    }
+
+    private Object send(String... command) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", followerPort))) {
+            ByteBuffer out = RespCodec.writeCommand(ByteBuffer.allocate(256), command);
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            ByteBuffer in = ByteBuffer.allocate(1024);
+            Object reply;
+            while ((reply = RespCodec.parseReply(in.flip())) == RespCodec.INCOMPLETE) {
+                in.compact();
+                in = RespCodec.ensureCapacity(in, 1024);
+                if (channel.read(in) < 0) {
+                    throw new IOException("Connection closed");
+                }
+            }
+            return reply instanceof byte[] ? new String((byte[]) reply, StandardCharsets.UTF_8) : reply;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RespCodecTest {
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Test a command is parsed once complete and left in place until then")
+    void testParseCommand() throws IOException {
+        ByteBuffer partial = bytes("*2\r\n$3\r\nGET\r\n$3\r\nke");
+        assertNull(RespCodec.parseCommand(partial));
+        assertEquals(0, partial.position());
+
+        ByteBuffer in = bytes("*2\r\n$3\r\nGET\r\n$3\r\nkey\r\nPING\r\n");
+        List<byte[]> command = RespCodec.parseCommand(in);
+        assertEquals(2, command.size());
+        assertEquals("key", new String(command.get(1), StandardCharsets.UTF_8));
+        assertEquals(1, RespCodec.parseCommand(in).size());
+        assertTrue(RespCodec.parseCommand(bytes("*0\r\n")).isEmpty());
+        assertTrue(RespCodec.parseCommand(bytes("*-1\r\n")).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test absurd or malformed multibulk lengths are rejected before anything is allocated")
+    void testInvalidMultibulkLength() {
+        for (String header : new String[] {"*3000000000\r\n", "*1000000000\r\n", "*1048577\r\n", "*-2\r\n",
+                "*99999999999999999999\r\n", "*\r\n", "*1x\r\n"}) {
+            IOException e = assertThrows(IOException.class, () -> RespCodec.parseCommand(bytes(header)), header);
+            assertTrue(e.getMessage().startsWith("Protocol error"), e.getMessage());
+        }
+        assertThrows(IOException.class, () -> RespCodec.parseReply(bytes("*2000000000\r\n")));
+    }
+
+    @Test
+    @DisplayName("Test lines that never end are rejected once they pass the limit instead of buffered")
+    void testUnterminatedLines() throws IOException {
+        ByteBuffer inline = bytes("GET " + "k".repeat(60 * 1024));
+        assertNull(RespCodec.parseCommand(inline));
+        assertEquals(0, inline.position());
+        for (String partial : new String[] {"GET " + "k".repeat(64 * 1024), "*" + "1".repeat(30), "*1\r\n$" + "9".repeat(30)}) {
+            IOException e = assertThrows(IOException.class, () -> RespCodec.parseCommand(bytes(partial)));
+            assertTrue(e.getMessage().startsWith("Protocol error: too big"), e.getMessage());
+        }
+        assertEquals(2, RespCodec.parseCommand(bytes("GET " + "k".repeat(60 * 1024) + "\r\n")).size());
+    }
+
+    @Test
+    @DisplayName("Test replies of every type round-trip")
+    void testReplies() throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(8);
+        out = RespCodec.writeSimple(out, "OK");
+        out = RespCodec.writeError(out, "ERR no");
+        out = RespCodec.writeInteger(out, -42);
+        out = RespCodec.writeBulk(out, "värde".getBytes(StandardCharsets.UTF_8));
+        out = RespCodec.writeBulk(out, null);
+        out = RespCodec.writeArrayHeader(out, 2);
+        out = RespCodec.writeInteger(out, 1);
+        out = RespCodec.writeSimple(out, "two");
+        out.flip();
+
+        assertEquals("OK", RespCodec.parseReply(out));
+        assertEquals("ERR no", RespCodec.parseReply(out).toString());
+        assertEquals(-42L, RespCodec.parseReply(out));
+        assertEquals("värde", new String((byte[]) RespCodec.parseReply(out), StandardCharsets.UTF_8));
+        assertNull(RespCodec.parseReply(out));
+        assertEquals(List.of(1L, "two"), RespCodec.parseReply(out));
+        assertSame(RespCodec.INCOMPLETE, RespCodec.parseReply(out));
+    }
+
+    @Test
+    @DisplayName("Test a bad request closes only its own connection")
+    void testServerSurvivesBadRequest() throws Exception {
+        KeyValueServer server = new KeyValueServer(new InMemoryEngine(), 0);
+        Thread thread = new Thread(server, "kv-server");
+        thread.start();
+        try {
+            try (SocketChannel bad = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()))) {
+                bad.write(bytes("*3000000000\r\n"));
+                ByteBuffer reply = ByteBuffer.allocate(256);
+                while (bad.read(reply) >= 0) {
+                    // read the error until the server hangs up
+                }
+                String text = new String(reply.array(), 0, reply.position(), StandardCharsets.UTF_8);
+                assertTrue(text.startsWith("-ERR Protocol error: invalid multibulk length"), text);
+            }
+            try (SocketChannel good = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()))) {
+                good.write(RespCodec.writeCommand(ByteBuffer.allocate(64), "PING").flip());
+                ByteBuffer reply = ByteBuffer.allocate(64);
+                Object pong;
+                while ((pong = RespCodec.parseReply(reply.flip())) == RespCodec.INCOMPLETE) {
+                    reply.compact();
+                    assertTrue(good.read(reply) >= 0);
+                }
+                assertEquals("PONG", pong);
+            }
+        } finally {
+            server.stop();
+            thread.join(5000);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package git.folio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=git.folio.StripedHashEngineBenchmark
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedHashEngineBenchmark {
+    private static final int KEY_COUNT = 100_000;
+
+    @Param({"striped", "synchronized"})
+    public String engineType;
+
+    private StorageEngine engine;
+    private String[] keys;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = "striped".equals(engineType) ? new StripedHashEngine() : new SynchronizedEngine(new InMemoryEngine());
+        keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = "key:" + i;
+            engine.put(keys[i], "value:" + i);
+        }
+    }
+
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+    }
+
+    @Benchmark
+    public void readOnly(Blackhole bh) throws Exception {
+        bh.consume(engine.get(randomKey()));
+    }
+
+    // 90% reads, 10% writes
+    @Benchmark
+    public void mixed(Blackhole bh) throws Exception {
+        String key = randomKey();
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            engine.put(key, "updated");
+        } else {
+            bh.consume(engine.get(key));
+        }
+    }
+
+    @Benchmark
+    public void computeIncrement(Blackhole bh) throws Exception {
+        bh.consume(engine.compute(randomKey(), (k, v) -> v == null ? "1" : v.length() > 16 ? "1" : v + "1"));
+    }
+
+    // The global-lock wrapper the striped engine is meant to replace
+    static final class SynchronizedEngine implements StorageEngine {
+        private final StorageEngine delegate;
+
+        SynchronizedEngine(StorageEngine delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void put(String key, String value) throws IOException {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public synchronized String get(String key) throws IOException {
+            return delegate.get(key);
+        }
+
+        @Override
+        public synchronized void delete(String key) throws IOException {
+            delegate.delete(key);
+        }
+
+        @Override
+        public synchronized String compute(String key, BiFunction<String, String, String> remapping)
+                throws IOException {
+            return delegate.compute(key, remapping);
+        }
+    }
+
+    // Runs every benchmark with 1, 2, 4, ... threads up to the number of cores to show scaling
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            Options options = new OptionsBuilder()
+                    .include(StripedHashEngineBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            System.out.println("=== " + threads + " thread(s) ===");
+            new Runner(options).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
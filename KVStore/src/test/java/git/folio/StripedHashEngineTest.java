@@ -0,0 +1,63 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedHashEngineTest {
+
+    @Test
+    @DisplayName("Test put, get and delete across table resizes")
+    void testPutGetDelete() {
+        StripedHashEngine engine = new StripedHashEngine(4);
+        for (int i = 0; i < 10_000; i++) {
+            engine.put("key" + i, "value" + i);
+        }
+        engine.put("key5", "updated");
+        for (int i = 0; i < 10_000; i += 2) {
+            engine.delete("key" + i);
+        }
+        engine.delete("missing");
+        assertEquals(5_000, engine.size());
+        assertEquals("updated", engine.get("key5"));
+        assertNull(engine.get("key4"));
+        assertEquals("value9999", engine.get("key9999"));
+    }
+
+    @Test
+    @DisplayName("Test putIfAbsent and compute")
+    void testAtomicOperations() {
+        StripedHashEngine engine = new StripedHashEngine();
+        assertNull(engine.putIfAbsent("key", "first"));
+        assertEquals("first", engine.putIfAbsent("key", "second"));
+        assertEquals("first!", engine.compute("key", (k, v) -> v + "!"));
+        assertNull(engine.compute("key", (k, v) -> null));
+        assertNull(engine.get("key"));
+        assertEquals(0, engine.size());
+    }
+
+    @Test
+    @DisplayName("Test concurrent increments through compute are not lost")
+    void testConcurrentCompute() throws InterruptedException {
+        StripedHashEngine engine = new StripedHashEngine(8);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    engine.compute("counter" + (i % 16), (k, v) -> String.valueOf(v == null ? 1 : Integer.parseInt(v) + 1));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 16; i++) {
+            assertEquals("2500", engine.get("counter" + i));
+        }
+    }
+}
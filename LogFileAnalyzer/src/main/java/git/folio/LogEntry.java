@@ -0,0 +1,41 @@
+package git.folio;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public class LogEntry {
+    private final long epochSecond; // the local timestamp counted as if it were UTC
+    private final String level;
+    private final String message;
+
+    public LogEntry(LocalDateTime timestamp, String level, String message) {
+        this(timestamp.toEpochSecond(ZoneOffset.UTC), level, message);
+    }
+
+    LogEntry(long epochSecond, String level, String message) {
+        this.epochSecond = epochSecond;
+        this.level = level;
+        this.message = message;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    public long getEpochSecond() {
+        return epochSecond;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return getTimestamp() + " [" + level + "] " + message;
+    }
+}
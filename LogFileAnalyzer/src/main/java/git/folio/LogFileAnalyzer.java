@@ -1,12 +1,16 @@
 package git.folio;
 
 import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.time.*;
 import java.time.format.*;
 import java.util.*;
+import java.util.function.*;
 import java.util.regex.*;
 import java.util.stream.*;
 
+// Log files are read as UTF-8, with lines ending in \n, \r or \r\n, on the sequential and parallel paths alike
 public class LogFileAnalyzer {
 
     private List<LogEntry> logEntries = new ArrayList<>();
@@ -14,10 +18,18 @@ public class LogFileAnalyzer {
     private DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     public void analyzeLogFile(String filePath, String keyword) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+        analyzeLogFile(filePath, keyword, logEntries::add);
+    }
+
+    // Hands each matching entry to the sink instead of keeping it, so memory stays flat however big the file is
+    public void analyzeLogFile(String filePath, String keyword, Consumer<LogEntry> sink) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                parseLine(line, keyword);
+                LogEntry entry = parseLine(line, keyword);
+                if (entry != null) {
+                    sink.accept(entry);
+                }
             }
         } catch (FileNotFoundException e) {
             System.err.println("Error: File not found - " + filePath);
@@ -26,22 +38,46 @@ public class LogFileAnalyzer {
         }
     }
 
-    private void parseLine(String line, String keyword) {
+    // Parses on the given number of threads and keeps the entries in timestamp order; see ParallelLogReader
+    public void analyzeLogFileParallel(String filePath, String keyword, int parallelism) throws IOException {
+        try {
+            logEntries.addAll(new ParallelLogReader(line -> parseLine(line, keyword), parallelism).read(Path.of(filePath)));
+        } catch (NoSuchFileException e) {
+            System.err.println("Error: File not found - " + filePath);
+        } catch (IOException e) {
+            System.err.println("Error reading file: " + e.getMessage());
+        }
+    }
+
+    private LogEntry parseLine(String line, String keyword) {
+        LogEntry entry = LogLineParser.parse(line);
+        if (entry == null) {
+            entry = parseWithPattern(line);
+        }
+        if (entry != null && (keyword == null || entry.getMessage().toLowerCase().contains(keyword.toLowerCase()))) {
+            return entry;
+        }
+        return null;
+    }
+
+    // The general path, for lines LogLineParser does not take
+    LogEntry parseWithPattern(String line) {
         Matcher matcher = logPattern.matcher(line);
         if (matcher.find()) {
             try {
                 LocalDateTime timestamp = LocalDateTime.parse(matcher.group(1), dateFormatter);
-                String level = matcher.group(2);
-                String message = matcher.group(3);
-                if (keyword == null || message.toLowerCase().contains(keyword.toLowerCase())) {
-                    logEntries.add(new LogEntry(timestamp, level, message));
-                }
+                return new LogEntry(timestamp, LogLineParser.level(line, matcher.start(2), matcher.end(2)), matcher.group(3));
             } catch (DateTimeParseException e) {
                 System.err.println("Error parsing date: " + matcher.group(1));
             }
         } else {
             System.err.println("Warning: Unparseable log entry: " + line);
         }
+        return null;
+    }
+
+    public List<LogEntry> getEntries() {
+        return Collections.unmodifiableList(logEntries);
     }
 
     public void printEntries() {
@@ -49,35 +85,66 @@ public class LogFileAnalyzer {
     }
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.out.println("Usage: java LogFileAnalyzer <logfile> [keyword]");
+        String filePath = null;
+        String keyword = null;
+        boolean stats = false;
+        int top = 10;
+        long every = 0;
+        int threads = 0;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--stats" -> stats = true;
+                    case "--top" -> top = Integer.parseInt(args[++i]);
+                    case "--every" -> every = Long.parseLong(args[++i]);
+                    case "--parallel" -> threads = Runtime.getRuntime().availableProcessors();
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    default -> {
+                        if (filePath == null) {
+                            filePath = args[i];
+                        } else {
+                            keyword = args[i];
+                        }
+                    }
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            filePath = null;
+        }
+        if (filePath == null || threads < 0 || stats && threads > 0) {
+            System.out.println("Usage: java LogFileAnalyzer <logfile> [keyword] [--stats [--top <n>] [--every <lines>]]"
+                    + " [--parallel | --threads <n>]");
+            System.out.println("  --stats           print aggregates instead of the entries, in constant memory");
+            System.out.println("  --top <n>         how many of the most frequent messages to show (default 10)");
+            System.out.println("  --every <lines>   also print a summary after every so many matching lines");
+            System.out.println("  --parallel        parse on every core and list entries in timestamp order (not with --stats)");
+            System.out.println("  --threads <n>     like --parallel, on n threads");
             return;
         }
 
         LogFileAnalyzer analyzer = new LogFileAnalyzer();
         try {
-            String keyword = args.length > 1 ? args[1] : null;
-            analyzer.analyzeLogFile(args[0], keyword);
+            if (stats) {
+                LogStatistics statistics = new LogStatistics(top);
+                long interval = every;
+                analyzer.analyzeLogFile(filePath, keyword, entry -> {
+                    statistics.accept(entry);
+                    if (interval > 0 && statistics.getLines() % interval == 0) {
+                        statistics.printSummary(System.out);
+                        System.out.println();
+                    }
+                });
+                statistics.printReport(System.out);
+                return;
+            }
+            if (threads > 0) {
+                analyzer.analyzeLogFileParallel(filePath, keyword, threads);
+            } else {
+                analyzer.analyzeLogFile(filePath, keyword);
+            }
             analyzer.printEntries();
         } catch (IOException e) {
             System.err.println("Error analyzing log file: " + e.getMessage());
         }
     }
 }
-
-class LogEntry {
-    private LocalDateTime timestamp;
-    private String level;
-    private String message;
-
-    public LogEntry(LocalDateTime timestamp, String level, String message) {
-        this.timestamp = timestamp;
-        this.level = level;
-        this.message = message;
-    }
-
-    @Override
-    public String toString() {
-        return timestamp + " [" + level + "] " + message;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package git.folio;
+
+// Hand-written parser for the usual "yyyy-MM-dd HH:mm:ss [LEVEL] message" line. It reads the
+// timestamp digits straight into epoch seconds and takes the level from a table of interned strings,
+// so the only allocations are the message and the entry. A line it is not sure about comes back as
+// null and goes through the regular expression instead; that covers anything other than the exact
+// layout at the start of the line, dates the formatter would adjust or reject, and messages holding
+// characters the pattern's '.' does not match.
+final class LogLineParser {
+    private static final String[] LEVELS = {"INFO", "WARN", "WARNING", "ERROR", "DEBUG", "TRACE", "FATAL", "SEVERE"};
+    private static final int TIMESTAMP_LENGTH = 19;
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private LogLineParser() {
+    }
+
+    static LogEntry parse(String line) {
+        int length = line.length();
+        if (length < TIMESTAMP_LENGTH + 5 || line.charAt(10) != ' ' || line.charAt(19) != ' ' || line.charAt(20) != '[') {
+            return null;
+        }
+        int year = digits(line, 0, 4);
+        int month = digits(line, 5, 2);
+        int day = digits(line, 8, 2);
+        int hour = digits(line, 11, 2);
+        int minute = digits(line, 14, 2);
+        int second = digits(line, 17, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+                || line.charAt(4) != '-' || line.charAt(7) != '-' || line.charAt(13) != ':' || line.charAt(16) != ':') {
+            return null;
+        }
+        int levelStart = TIMESTAMP_LENGTH + 2;
+        int levelEnd = levelStart;
+        while (levelEnd < length && isWordChar(line.charAt(levelEnd))) {
+            levelEnd++;
+        }
+        int messageStart = levelEnd + 2;
+        if (levelEnd == levelStart || messageStart > length || line.charAt(levelEnd) != ']' || line.charAt(levelEnd + 1) != ' ') {
+            return null;
+        }
+        for (int i = messageStart; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return null;
+            }
+        }
+        long epochSecond = epochDay(year, month, day) * 86_400 + hour * 3600 + minute * 60 + second;
+        return new LogEntry(epochSecond, level(line, levelStart, levelEnd), line.substring(messageStart));
+    }
+
+    // The level as an interned string, found in the table without allocating when it is a common one
+    static String level(String line, int start, int end) {
+        int length = end - start;
+        for (String level : LEVELS) {
+            if (level.length() == length && line.startsWith(level, start)) {
+                return level;
+            }
+        }
+        return line.substring(start, end).intern();
+    }
+
+    // The value of count ASCII digits, or -1 if any of them is not one
+    private static int digits(String line, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date, as LocalDate.toEpochDay counts them
+    static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
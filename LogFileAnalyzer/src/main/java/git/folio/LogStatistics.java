@@ -0,0 +1,84 @@
+package git.folio;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Aggregates over a stream of entries without keeping them: counts per level, per-minute and
+// per-hour histograms and the most frequent messages. Memory is bounded by the number of distinct
+// levels, the histogram windows (a day of minutes, a month of hours) and the top-message table.
+public class LogStatistics implements Consumer<LogEntry> {
+    private static final int MINUTE_BUCKETS = 24 * 60;
+    private static final int HOUR_BUCKETS = 31 * 24;
+
+    private final int topCount;
+    private final TopMessages topMessages;
+    private final Map<String, Integer> levelIndex = new HashMap<>();
+    private final List<String> levels = new ArrayList<>();
+    private long[] levelCounts = new long[8];
+    private final TimeHistogram perMinute = new TimeHistogram(60, MINUTE_BUCKETS);
+    private final TimeHistogram perHour = new TimeHistogram(3600, HOUR_BUCKETS);
+    private long lines;
+
+    // Reports the topCount most frequent messages, tracking ten times as many candidates
+    public LogStatistics(int topCount) {
+        this.topCount = topCount;
+        this.topMessages = new TopMessages(Math.max(10 * topCount, 100));
+    }
+
+    @Override
+    public void accept(LogEntry entry) {
+        Integer index = levelIndex.get(entry.getLevel());
+        if (index == null) {
+            index = levels.size();
+            levels.add(entry.getLevel());
+            levelIndex.put(entry.getLevel(), index);
+            if (index >= levelCounts.length) {
+                levelCounts = Arrays.copyOf(levelCounts, index * 2);
+            }
+        }
+        lines++;
+        levelCounts[index]++;
+        long epochSecond = entry.getEpochSecond();
+        perMinute.add(epochSecond, index);
+        perHour.add(epochSecond, index);
+        topMessages.add(entry.getMessage());
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getLevelCount(String level) {
+        Integer index = levelIndex.get(level);
+        return index == null ? 0 : levelCounts[index];
+    }
+
+    // Lines, levels and top messages
+    public void printSummary(PrintStream out) {
+        out.println("Lines: " + lines);
+        out.println("Levels:");
+        for (int i = 0; i < levels.size(); i++) {
+            out.printf("  %-10s %d%n", levels.get(i), levelCounts[i]);
+        }
+        out.println("Top " + topCount + " messages:");
+        for (TopMessages.Counter counter : topMessages.top(topCount)) {
+            // A non-zero error means the count may include up to that many other messages
+            String error = counter.error() > 0 ? " (+/-" + counter.error() + ")" : "";
+            out.printf("  %8d%s %s%n", counter.count(), error, counter.message());
+        }
+    }
+
+    // The summary followed by both histograms
+    public void printReport(PrintStream out) {
+        printSummary(out);
+        out.println("Per hour:");
+        perHour.print(out, levels);
+        out.println("Per minute:");
+        perMinute.print(out, levels);
+    }
+}
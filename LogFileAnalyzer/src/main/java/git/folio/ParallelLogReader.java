@@ -0,0 +1,184 @@
+package git.folio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+// Parses a UTF-8 log file on a ForkJoinPool. The file is cut into chunks that end on a newline, each chunk
+// is memory-mapped and parsed on its own, and the results are merged pairwise on the way back up the
+// task tree, so the entries come out in timestamp order. The sort is stable: entries with the same
+// timestamp stay in file order, and a file already in time order comes out exactly as read.
+final class ParallelLogReader {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 256L << 20; // a mapping must stay under 2 GB; this keeps them small
+    private static final Comparator<LogEntry> BY_TIME = Comparator.comparingLong(LogEntry::getEpochSecond);
+
+    private final Function<String, LogEntry> parser;
+    private final int parallelism;
+
+    // parser turns a line into an entry, or null to skip it; it is called from several threads at once
+    ParallelLogReader(Function<String, LogEntry> parser, int parallelism) {
+        this.parser = parser;
+        this.parallelism = parallelism;
+    }
+
+    List<LogEntry> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                return pool.invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Offsets where chunks start, plus the file size; every chunk but the last ends just after a newline
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long target = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (parallelism * 4L)));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (size - start > target) {
+            long position = start + target;
+            long lineEnd = -1;
+            while (lineEnd < 0 && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lineEnd = position + i + 1;
+                        break;
+                    }
+                }
+                position += read;
+            }
+            if (lineEnd < 0 || lineEnd >= size) {
+                break; // the rest of the file is one line
+            }
+            bounds.add(lineEnd);
+            start = lineEnd;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Chunks first through last - 1 of the bounds, split in halves until there is one to parse
+    private final class ChunkTask extends RecursiveTask<List<LogEntry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final int first;
+        private final int last;
+
+        ChunkTask(FileChannel channel, long[] bounds, int first, int last) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected List<LogEntry> compute() {
+            if (last - first <= 1) {
+                try {
+                    return parseChunk(channel.map(FileChannel.MapMode.READ_ONLY, bounds[first], bounds[last] - bounds[first]));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (first + last) >>> 1;
+            ChunkTask right = new ChunkTask(channel, bounds, middle, last);
+            right.fork();
+            List<LogEntry> left = new ChunkTask(channel, bounds, first, middle).compute();
+            return merge(left, right.join());
+        }
+    }
+
+    // Splits lines the way BufferedReader.readLine does, on \n, \r or \r\n, and decodes them as UTF-8
+    private List<LogEntry> parseChunk(MappedByteBuffer chunk) {
+        List<LogEntry> entries = new ArrayList<>();
+        byte[] line = new byte[256];
+        int length = 0;
+        boolean afterCarriageReturn = false;
+        while (chunk.hasRemaining()) {
+            byte b = chunk.get();
+            if (b == '\n' && afterCarriageReturn) {
+                afterCarriageReturn = false;
+                continue;
+            }
+            afterCarriageReturn = b == '\r';
+            if (b == '\n' || b == '\r') {
+                addLine(entries, line, length);
+                length = 0;
+                continue;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = b;
+        }
+        if (length > 0) {
+            addLine(entries, line, length);
+        }
+        for (int i = 1; i < entries.size(); i++) {
+            if (BY_TIME.compare(entries.get(i - 1), entries.get(i)) > 0) {
+                entries.sort(BY_TIME);
+                break;
+            }
+        }
+        return entries;
+    }
+
+    private void addLine(List<LogEntry> entries, byte[] line, int length) {
+        LogEntry entry = parser.apply(new String(line, 0, length, StandardCharsets.UTF_8));
+        if (entry != null) {
+            entries.add(entry);
+        }
+    }
+
+    // Stable merge of two lists in timestamp order; left wins ties since it comes first in the file
+    private static List<LogEntry> merge(List<LogEntry> left, List<LogEntry> right) {
+        if (left.isEmpty()) {
+            return right;
+        }
+        if (right.isEmpty() || BY_TIME.compare(left.get(left.size() - 1), right.get(0)) <= 0) {
+            left.addAll(right); // the usual case for a log: chunks follow each other in time
+            return left;
+        }
+        List<LogEntry> merged = new ArrayList<>(left.size() + right.size());
+        int i = 0;
+        int j = 0;
+        while (i < left.size() && j < right.size()) {
+            merged.add(BY_TIME.compare(right.get(j), left.get(i)) < 0 ? right.get(j++) : left.get(i++));
+        }
+        merged.addAll(left.subList(i, left.size()));
+        merged.addAll(right.subList(j, right.size()));
+        return merged;
+    }
+}
@@ -0,0 +1,73 @@
+package git.folio;
+
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Line counts per level in fixed-width time buckets. Only the newest maxBuckets buckets are kept,
+// so memory does not grow with the length of the log; lines in dropped buckets are only counted.
+final class TimeHistogram {
+    private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final long bucketSeconds;
+    private final int maxBuckets;
+    private final TreeMap<Long, long[]> buckets = new TreeMap<>();
+    // Logs are mostly in time order, so the bucket of the previous line is usually the right one
+    private long lastBucket = Long.MIN_VALUE;
+    private long[] lastCounts;
+    private long droppedLines;
+
+    TimeHistogram(long bucketSeconds, int maxBuckets) {
+        this.bucketSeconds = bucketSeconds;
+        this.maxBuckets = maxBuckets;
+    }
+
+    void add(long epochSecond, int level) {
+        long bucket = Math.floorDiv(epochSecond, bucketSeconds);
+        long[] counts = bucket == lastBucket ? lastCounts : buckets.get(bucket);
+        if (counts == null) {
+            if (buckets.size() >= maxBuckets && bucket < buckets.firstKey()) {
+                droppedLines++; // older than everything kept
+                return;
+            }
+            counts = new long[level + 1];
+            buckets.put(bucket, counts);
+            if (buckets.size() > maxBuckets) {
+                for (long count : buckets.pollFirstEntry().getValue()) {
+                    droppedLines += count;
+                }
+            }
+        }
+        if (level >= counts.length) {
+            counts = Arrays.copyOf(counts, level + 1);
+            buckets.put(bucket, counts);
+        }
+        lastBucket = bucket;
+        lastCounts = counts;
+        counts[level]++;
+    }
+
+    void print(PrintStream out, List<String> levels) {
+        if (droppedLines > 0) {
+            out.println("  (" + droppedLines + " lines in older buckets not shown)");
+        }
+        for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+            long[] counts = entry.getValue();
+            long total = 0;
+            StringBuilder detail = new StringBuilder();
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                if (counts[i] > 0) {
+                    detail.append(' ').append(levels.get(i)).append('=').append(counts[i]);
+                }
+            }
+            LocalDateTime start = LocalDateTime.ofEpochSecond(entry.getKey() * bucketSeconds, 0, ZoneOffset.UTC);
+            out.printf("  %s %8d %s%n", start.format(BUCKET_FORMAT), total, detail.toString().trim());
+        }
+    }
+}
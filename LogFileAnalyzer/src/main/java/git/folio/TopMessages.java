@@ -0,0 +1,117 @@
+package git.folio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Space-Saving heavy hitters: at most capacity messages are counted. A message not being counted
+// takes over the counter with the smallest count and inherits that count as its error, so every
+// count overestimates by at most its error, and any message seen more than lines / capacity times
+// is guaranteed to be in the table. Counters sit in a min-heap keyed by count.
+final class TopMessages {
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    TopMessages(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        counters = new HashMap<>(capacity * 2);
+        heap = new Counter[capacity];
+    }
+
+    void add(String message) {
+        Counter counter = counters.get(message);
+        if (counter == null && size < heap.length) {
+            // A new counter starts at 1, no more than any other, so it belongs at the top of the heap
+            counter = new Counter(message, 1, size);
+            heap[size++] = counter;
+            counters.put(message, counter);
+            siftUp(counter.index);
+            return;
+        }
+        if (counter == null) {
+            counter = heap[0];
+            counters.remove(counter.message);
+            counter.message = message;
+            counter.error = counter.count;
+            counters.put(message, counter);
+        }
+        counter.count++;
+        siftDown(counter.index);
+    }
+
+    // The n largest counts, largest first
+    List<Counter> top(int n) {
+        List<Counter> sorted = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            sorted.add(heap[i]);
+        }
+        sorted.sort((a, b) -> Long.compare(b.count, a.count));
+        return sorted.subList(0, Math.min(n, sorted.size()));
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (heap[child].count >= counter.count) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    static final class Counter {
+        private String message;
+        private long count;
+        private long error;
+        private int index;
+
+        private Counter(String message, long count, int index) {
+            this.message = message;
+            this.count = count;
+            this.index = index;
+        }
+
+        String message() {
+            return message;
+        }
+
+        long count() {
+            return count;
+        }
+
+        // How much of count may belong to messages this counter tracked before
+        long error() {
+            return error;
+        }
+    }
+}
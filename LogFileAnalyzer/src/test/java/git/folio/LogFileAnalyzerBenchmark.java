@@ -0,0 +1,81 @@
+package git.folio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=git.folio.LogFileAnalyzerBenchmark
+// Parses the same generated log with the single BufferedReader path (threads = 0) and with
+// ParallelLogReader on 1, 2, 4 and 8 threads; scores are milliseconds per file.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LogFileAnalyzerBenchmark {
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARNING", "ERROR"};
+    private static final String[] MESSAGES = {
+            "Request completed: GET /api/products",
+            "Database query failed: SELECT * FROM users WHERE id = ",
+            "User authentication successful: user",
+            "Slow query detected: execution time > 2000ms"};
+
+    @Param({"1000000"})
+    public int lines;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("log-benchmark", ".log");
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        LocalDateTime time = LocalDateTime.of(2020, 6, 22, 0, 0);
+        Random random = new Random(1);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < lines; i++) {
+                time = time.plusSeconds(random.nextInt(2));
+                writer.write(time.format(format) + " [" + LEVELS[random.nextInt(LEVELS.length)] + "] "
+                        + MESSAGES[random.nextInt(MESSAGES.length)] + random.nextInt(100_000));
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int analyze() throws IOException {
+        LogFileAnalyzer analyzer = new LogFileAnalyzer();
+        if (threads == 0) {
+            analyzer.analyzeLogFile(file.toString(), null);
+        } else {
+            analyzer.analyzeLogFileParallel(file.toString(), null, threads);
+        }
+        return analyzer.getEntries().size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LogFileAnalyzerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
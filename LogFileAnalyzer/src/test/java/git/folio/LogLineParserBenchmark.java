@@ -0,0 +1,51 @@
+package git.folio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=git.folio.LogLineParserBenchmark
+// One line through LogLineParser against the same line through the regular expression and
+// DateTimeFormatter; scores are nanoseconds per line. Add -prof gc to compare allocation.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogLineParserBenchmark {
+    private static final String[] LINES = {
+            "2020-06-22 09:15:23 [INFO] Application started",
+            "2020-06-22 09:15:27 [ERROR] Database query failed: SELECT * FROM users WHERE id = 456",
+            "2020-06-22 09:15:29 [WARNING] Slow query detected: execution time > 2000ms",
+            "2020-06-22 09:15:31 [DEBUG] NullPointerException in UserService.java at line 127"};
+
+    private final LogFileAnalyzer analyzer = new LogFileAnalyzer();
+    private int next;
+
+    private String line() {
+        next = (next + 1) & (LINES.length - 1);
+        return LINES[next];
+    }
+
+    @Benchmark
+    public LogEntry fastPath() {
+        return LogLineParser.parse(line());
+    }
+
+    @Benchmark
+    public LogEntry pattern() {
+        return analyzer.parseWithPattern(line());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LogLineParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,74 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogLineParserTest {
+
+    private final LogFileAnalyzer analyzer = new LogFileAnalyzer();
+
+    private void assertSameAsPattern(String line) {
+        LogEntry fast = LogLineParser.parse(line);
+        LogEntry pattern = analyzer.parseWithPattern(line);
+        assertNotNull(fast, line);
+        assertNotNull(pattern, line);
+        assertEquals(pattern.getEpochSecond(), fast.getEpochSecond(), line);
+        assertSame(pattern.getLevel(), fast.getLevel(), line);
+        assertEquals(pattern.getMessage(), fast.getMessage(), line);
+    }
+
+    @Test
+    @DisplayName("Test the fast path reads lines exactly as the pattern does")
+    void testMatchesPattern() {
+        assertSameAsPattern("2020-06-22 09:15:23 [INFO] Application started");
+        assertSameAsPattern("2020-06-22 09:15:27 [ERROR] Database query failed: SELECT * FROM users WHERE id = 456");
+        assertSameAsPattern("2020-02-29 23:59:59 [WARNING] Leap day");
+        assertSameAsPattern("1969-12-31 23:59:59 [DEBUG] Before the epoch");
+        assertSameAsPattern("0001-01-01 00:00:00 [TRACE] The first day");
+        assertSameAsPattern("2020-06-22 09:15:23 [Custom_Level2] Not in the table");
+        assertSameAsPattern("2020-06-22 09:15:23 [INFO] ");
+        assertSameAsPattern("2020-06-22 09:15:23 [INFO] [nested] brackets ] and unicode ü€");
+    }
+
+    @Test
+    @DisplayName("Test random valid timestamps give the same epoch seconds as LocalDateTime")
+    void testEpochSeconds() {
+        Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            LocalDateTime time = LocalDate.ofEpochDay(random.nextInt(3_000_000) - 719_000)
+                    .atTime(random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            String line = String.format("%04d-%02d-%02d %02d:%02d:%02d [INFO] tick", time.getYear(),
+                    time.getMonthValue(), time.getDayOfMonth(), time.getHour(), time.getMinute(), time.getSecond());
+            LogEntry entry = LogLineParser.parse(line);
+            assertNotNull(entry, line);
+            assertEquals(time, entry.getTimestamp(), line);
+        }
+    }
+
+    @Test
+    @DisplayName("Test lines outside the fixed layout are left to the pattern")
+    void testFallsBack() {
+        assertNull(LogLineParser.parse("not a log line"));
+        assertNull(LogLineParser.parse("prefix 2020-06-22 09:15:23 [INFO] found by the pattern"));
+        assertNull(LogLineParser.parse("2020-06-22 09:15:23 [INFO]"));
+        assertNull(LogLineParser.parse("2020-06-22 09:15:23 [IN-FO] dash"));
+        assertNull(LogLineParser.parse("2020-06-22T09:15:23 [INFO] iso separator"));
+        assertNull(LogLineParser.parse("2020-13-01 00:00:00 [INFO] month 13"));
+        assertNull(LogLineParser.parse("2021-02-29 00:00:00 [INFO] not a leap year"));
+        assertNull(LogLineParser.parse("2020-06-22 24:00:00 [INFO] hour 24"));
+        assertNull(LogLineParser.parse("0000-06-22 09:15:23 [INFO] year zero"));
+        assertNull(LogLineParser.parse("2020-06-22 09:15:23 [INFO] line\u2028separator"));
+
+        // The pattern still finds an entry after a prefix, and keeps the layout's behaviour for odd dates
+        LogEntry prefixed = analyzer.parseWithPattern("prefix 2020-06-22 09:15:23 [INFO] found by the pattern");
+        assertEquals("found by the pattern", prefixed.getMessage());
+        assertSame("INFO", prefixed.getLevel());
+        LogEntry clamped = analyzer.parseWithPattern("2021-02-29 00:00:00 [INFO] not a leap year");
+        assertEquals(LocalDateTime.of(2021, 2, 28, 0, 0), clamped.getTimestamp());
+    }
+}
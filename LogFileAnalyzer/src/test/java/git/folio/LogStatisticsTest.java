@@ -0,0 +1,104 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogStatisticsTest {
+
+    private Path logFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        logFile = Files.createTempFile("log-statistics", ".log");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(logFile);
+    }
+
+    private static String report(LogStatistics statistics) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        statistics.printReport(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Test levels and histograms are counted while streaming the file")
+    void testLevelsAndHistograms() throws IOException {
+        Files.write(logFile, List.of(
+                "2020-06-22 09:15:23 [INFO] Application started",
+                "2020-06-22 09:15:59 [ERROR] Database query failed",
+                "not a log line",
+                "2020-06-22 09:16:01 [INFO] Request completed",
+                "2020-06-22 10:00:00 [WARNING] Low disk space"));
+        LogStatistics statistics = new LogStatistics(2);
+        new LogFileAnalyzer().analyzeLogFile(logFile.toString(), null, statistics);
+
+        assertEquals(4, statistics.getLines());
+        assertEquals(2, statistics.getLevelCount("INFO"));
+        assertEquals(1, statistics.getLevelCount("ERROR"));
+        assertEquals(0, statistics.getLevelCount("DEBUG"));
+        String report = report(statistics);
+        assertTrue(report.contains("2020-06-22 09:00        3 INFO=2 ERROR=1"), report);
+        assertTrue(report.contains("2020-06-22 10:00        1 WARNING=1"), report);
+        assertTrue(report.contains("2020-06-22 09:15        2 INFO=1 ERROR=1"), report);
+        assertTrue(report.contains("2020-06-22 09:16        1 INFO=1"), report);
+    }
+
+    @Test
+    @DisplayName("Test frequent messages are found among many distinct ones")
+    void testTopMessages() {
+        LogStatistics statistics = new LogStatistics(3);
+        Random random = new Random(42);
+        LocalDateTime time = LocalDateTime.of(2020, 6, 22, 0, 0);
+        for (int i = 0; i < 100_000; i++) {
+            int pick = random.nextInt(10);
+            String message = pick == 0 ? "Slow query" : pick < 3 ? "Cache miss" : pick < 6 ? "Request completed"
+                    : "User " + random.nextInt(1_000_000) + " logged in";
+            statistics.accept(new LogEntry(time, "INFO", message));
+        }
+        String report = report(statistics);
+        int completed = report.indexOf("Request completed");
+        int cacheMiss = report.indexOf("Cache miss");
+        int slowQuery = report.indexOf("Slow query");
+        assertTrue(completed > 0 && completed < cacheMiss && cacheMiss < slowQuery, report);
+        assertFalse(report.contains("logged in"), report);
+    }
+
+    @Test
+    @DisplayName("Test the minute histogram keeps only the newest day")
+    void testHistogramWindow() {
+        LogStatistics statistics = new LogStatistics(1);
+        LocalDateTime start = LocalDateTime.of(2020, 6, 1, 0, 0);
+        for (int minute = 0; minute < 3 * 24 * 60; minute++) {
+            statistics.accept(new LogEntry(start.plusMinutes(minute), "INFO", "tick"));
+        }
+        String report = report(statistics);
+        List<String> minuteLines = new ArrayList<>();
+        boolean inMinutes = false;
+        for (String line : report.split("\\R")) {
+            if (line.equals("Per minute:")) {
+                inMinutes = true;
+            } else if (inMinutes && line.startsWith("  20")) {
+                minuteLines.add(line);
+            }
+        }
+        assertEquals(24 * 60, minuteLines.size());
+        assertTrue(minuteLines.get(0).startsWith("  2020-06-03 00:00"), minuteLines.get(0));
+        assertTrue(report.contains("(" + 2 * 24 * 60 + " lines in older buckets not shown)"), report);
+        assertEquals(3 * 24 * 60, statistics.getLines());
+    }
+}
@@ -0,0 +1,107 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelLogReaderTest {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private Path logFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        logFile = Files.createTempFile("parallel-log", ".log");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(logFile);
+    }
+
+    private static List<String> lines(List<LogEntry> entries) {
+        List<String> lines = new ArrayList<>(entries.size());
+        for (LogEntry entry : entries) {
+            lines.add(entry.toString());
+        }
+        return lines;
+    }
+
+    @Test
+    @DisplayName("Test a file in time order parses the same in parallel as sequentially")
+    void testMatchesSequential() throws IOException {
+        LocalDateTime time = LocalDateTime.of(2020, 6, 22, 0, 0);
+        Random random = new Random(7);
+        try (BufferedWriter writer = Files.newBufferedWriter(logFile)) {
+            // About 5 MB, so the file is cut into several chunks
+            for (int i = 0; i < 100_000; i++) {
+                time = time.plusSeconds(random.nextInt(2));
+                writer.write(time.format(FORMAT) + " [INFO] Request " + i + (i % 3 == 0 ? "\r\n" : "\n"));
+            }
+            writer.write(time.format(FORMAT) + " [ERROR] Last line without a newline");
+        }
+        LogFileAnalyzer sequential = new LogFileAnalyzer();
+        sequential.analyzeLogFile(logFile.toString(), null);
+        LogFileAnalyzer parallel = new LogFileAnalyzer();
+        parallel.analyzeLogFileParallel(logFile.toString(), null, 4);
+
+        assertEquals(100_001, parallel.getEntries().size());
+        assertEquals(lines(sequential.getEntries()), lines(parallel.getEntries()));
+    }
+
+    @Test
+    @DisplayName("Test entries out of time order come back sorted, ties in file order")
+    void testSortedAcrossChunks() throws IOException {
+        LocalDateTime start = LocalDateTime.of(2020, 6, 22, 0, 0);
+        try (BufferedWriter writer = Files.newBufferedWriter(logFile)) {
+            // Two interleaved runs of timestamps, so every chunk overlaps the others in time
+            for (int i = 0; i < 60_000; i++) {
+                LocalDateTime time = start.plusSeconds(i % 2 == 0 ? i / 2 : 30_000 - i / 2);
+                writer.write(time.format(FORMAT) + " [INFO] Line " + i + " of the test file\n");
+            }
+        }
+        LogFileAnalyzer sequential = new LogFileAnalyzer();
+        sequential.analyzeLogFile(logFile.toString(), "line");
+        List<LogEntry> expected = new ArrayList<>(sequential.getEntries());
+        expected.sort(Comparator.comparing(LogEntry::getTimestamp));
+
+        LogFileAnalyzer parallel = new LogFileAnalyzer();
+        parallel.analyzeLogFileParallel(logFile.toString(), "line", 3);
+        assertEquals(lines(expected), lines(parallel.getEntries()));
+    }
+
+    @Test
+    @DisplayName("Test both paths decode UTF-8 and split lines on \\n, \\r and \\r\\n alike")
+    void testLineEndingsAndCharset() throws IOException {
+        StringBuilder text = new StringBuilder();
+        String[] endings = {"\n", "\r", "\r\n"};
+        LocalDateTime time = LocalDateTime.of(2020, 6, 22, 0, 0);
+        for (int i = 0; i < 60_000; i++) {
+            text.append(time.plusSeconds(i).format(FORMAT)).append(" [INFO] Grüße € ").append(i).append(endings[i % 3]);
+        }
+        text.append("\r\n\r");
+        Files.write(logFile, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        LogFileAnalyzer sequential = new LogFileAnalyzer();
+        sequential.analyzeLogFile(logFile.toString(), "grüße");
+        LogFileAnalyzer parallel = new LogFileAnalyzer();
+        parallel.analyzeLogFileParallel(logFile.toString(), "grüße", 4);
+
+        assertEquals(60_000, sequential.getEntries().size());
+        assertEquals("Grüße € 59999", sequential.getEntries().get(59_999).getMessage());
+        assertEquals(lines(sequential.getEntries()), lines(parallel.getEntries()));
+    }
+}
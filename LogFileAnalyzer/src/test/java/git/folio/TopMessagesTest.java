@@ -0,0 +1,57 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopMessagesTest {
+
+    @Test
+    @DisplayName("Test a heavy hitter seen first is not evicted by later messages")
+    void testHeavyHitterFirst() {
+        TopMessages top = new TopMessages(3);
+        for (int i = 0; i < 5; i++) {
+            top.add("A");
+        }
+        top.add("B");
+        top.add("C");
+        top.add("D");
+
+        List<TopMessages.Counter> counters = top.top(3);
+        assertEquals("A", counters.get(0).message());
+        assertEquals(5, counters.get(0).count());
+        assertEquals(0, counters.get(0).error());
+        // D took over one of the counters at 1
+        TopMessages.Counter d = counters.stream().filter(c -> c.message().equals("D")).findFirst().orElseThrow();
+        assertEquals(2, d.count());
+        assertEquals(1, d.error());
+    }
+
+    @Test
+    @DisplayName("Test every message above lines / capacity is kept with an upper-bound count")
+    void testGuarantee() {
+        int capacity = 20;
+        TopMessages top = new TopMessages(capacity);
+        Random random = new Random(11);
+        int lines = 50_000;
+        int heavy = 0;
+        for (int i = 0; i < lines; i++) {
+            // The heavy message is spread out, with fresh noise around it
+            if (i % 10 == 0) {
+                top.add("heavy");
+                heavy++;
+            } else {
+                top.add("noise " + random.nextInt(1_000_000));
+            }
+        }
+        TopMessages.Counter first = top.top(1).get(0);
+        assertEquals("heavy", first.message());
+        assertTrue(first.count() >= heavy && first.count() - first.error() <= heavy);
+        for (TopMessages.Counter counter : top.top(capacity)) {
+            assertTrue(counter.error() <= lines / capacity);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package git.folio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Blocking client for a MessageBroker. One request is in flight at a time, so batch messages into
+// sendAll for throughput. Not safe for use by several threads at once.
+public class BrokerClient implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public BrokerClient(String host, int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    public void send(String message) throws IOException {
+        send(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void send(byte[] message) throws IOException {
+        sendAllBytes(List.of(message));
+    }
+
+    public void sendAll(List<String> messages) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            encoded.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        sendAllBytes(encoded);
+    }
+
+    // Returns once the broker has appended the whole batch to its queue
+    public void sendAllBytes(List<byte[]> messages) throws IOException {
+        out.clear();
+        out = BrokerProtocol.writeProduce(out, messages);
+        ByteBuffer reply = call();
+        if (reply.getInt() != messages.size()) {
+            throw new IOException("Broker stored a different number of messages than sent");
+        }
+    }
+
+    // Takes up to max messages for the group, waiting up to the timeout for the first one;
+    // returns an empty list if none arrived
+    public List<String> fetch(String group, int max, long timeout, TimeUnit unit) throws IOException {
+        List<String> messages = new ArrayList<>();
+        for (byte[] message : fetchBytes(group, max, timeout, unit)) {
+            messages.add(new String(message, StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    public List<byte[]> fetchBytes(String group, int max, long timeout, TimeUnit unit) throws IOException {
+        out.clear();
+        out = BrokerProtocol.writeFetch(out, group, max, (int) Math.min(Integer.MAX_VALUE, unit.toMillis(timeout)));
+        ByteBuffer reply = call();
+        int count = reply.getInt();
+        List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] message = new byte[reply.getInt()];
+            reply.get(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    // Sends the request in the output buffer and returns the body of the reply, past its status
+    private ByteBuffer call() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        in.clear().limit(4);
+        fill(in);
+        int length = in.getInt(0);
+        if (length < 1 || length > BrokerProtocol.MAX_FRAME) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (in.capacity() < length) {
+            in = ByteBuffer.allocate(length);
+        }
+        in.clear().limit(length);
+        fill(in);
+        in.flip();
+        if (in.get() == BrokerProtocol.ERROR) {
+            throw new IOException("Broker error: " + BrokerProtocol.readString(in, in.remaining()));
+        }
+        return in;
+    }
+
+    private void fill(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Connection closed by broker");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,81 @@
+package git.folio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Framing shared by MessageBroker and BrokerClient. Every frame is [length(4)][type(1)][body], the
+// length counting the type byte and the body; integers are big-endian.
+//   PRODUCE  [count(4)] then count x [length(4)][bytes]       -> OK [count(4)]
+//   FETCH    [group length(2)][group][max(4)][wait millis(4)] -> OK [count(4)] then count x [length(4)][bytes]
+// Any request can be answered with ERROR [UTF-8 message]. Responses come back in request order.
+// A fetch asks for at most MAX_FETCH messages, and gets fewer when more would not fit in one frame.
+final class BrokerProtocol {
+    static final byte PRODUCE = 1;
+    static final byte FETCH = 2;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final int HEADER = 5; // length(4) + type(1)
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+    static final int MAX_FETCH = 64 * 1024;
+
+    private BrokerProtocol() {
+    }
+
+    // Returns the length of the complete frame at the buffer's position, or -1 if more bytes are needed
+    static int frameLength(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4) {
+            return -1;
+        }
+        int length = in.getInt(in.position());
+        if (length < 1 || length > MAX_FRAME) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        return in.remaining() - 4 >= length ? length : -1;
+    }
+
+    static ByteBuffer writeProduce(ByteBuffer out, List<byte[]> messages) {
+        int length = 1 + 4;
+        for (byte[] message : messages) {
+            length += 4 + message.length;
+        }
+        out = ensureCapacity(out, 4 + length);
+        out.putInt(length).put(PRODUCE).putInt(messages.size());
+        for (byte[] message : messages) {
+            out.putInt(message.length).put(message);
+        }
+        return out;
+    }
+
+    static ByteBuffer writeFetch(ByteBuffer out, String group, int max, int waitMillis) {
+        byte[] name = group.getBytes(StandardCharsets.UTF_8);
+        out = ensureCapacity(out, HEADER + 2 + name.length + 8);
+        return out.putInt(1 + 2 + name.length + 8).put(FETCH)
+                .putShort((short) name.length).put(name).putInt(max).putInt(waitMillis);
+    }
+
+    static ByteBuffer writeError(ByteBuffer out, String message) {
+        byte[] text = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        out = ensureCapacity(out, HEADER + text.length);
+        return out.putInt(1 + text.length).put(ERROR).put(text);
+    }
+
+    static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Buffers are grown by copying; callers must keep the returned reference
+    static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
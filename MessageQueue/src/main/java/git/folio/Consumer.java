@@ -4,19 +4,38 @@ import java.io.IOException;
 
 public class Consumer {
     public static void main(String[] args) {
+        MessageQueue queue;
+        try {
+            queue = new MessageQueue();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // On Ctrl-C or kill, interrupt take() and let the loop close the queue, which hands back its wakeup slot
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            main.interrupt();
+            try {
+                main.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "consumer-shutdown"));
         try {
-            MessageQueue queue = new MessageQueue();
             while (true) {
-                String message = queue.receive();
-                if (message != null) {
-                    System.out.println("Received: " + message);
-                } else {
-                    System.out.println("No message available");
-                    Thread.sleep(1000); // Wait before checking again
-                }
+                String message = queue.take();
+                System.out.println("Received: " + message);
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (InterruptedException e) {
+            // shutting down
+        } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            try {
+                queue.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package git.folio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A named reader of a MessageQueue. Its position is kept in groups/<name>.offset next to the
+// segments and survives restarts, so a group picks up where it left off. Every group sees every
+// message; the consumers of one group, in any number of threads or processes, share its messages.
+// Get one from MessageQueue.group(name).
+public final class ConsumerGroup implements Closeable {
+    private final MessageQueue queue;
+    private final String name;
+    private final FileChannel channel;
+    final MappedByteBuffer cursor;
+    // Unpublished record this group's consumers in this instance are stuck at, and since when
+    volatile long stalledAt = -1;
+    volatile long stalledSince;
+
+    ConsumerGroup(MessageQueue queue, String name, FileChannel channel, MappedByteBuffer cursor) {
+        this.queue = queue;
+        this.name = name;
+        this.channel = channel;
+        this.cursor = cursor;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // Position in the log of the next record this group reads
+    public long position() {
+        return queue.position(this);
+    }
+
+    // Bytes written to the log that this group has not read yet
+    public long lag() {
+        return queue.lag(this);
+    }
+
+    // Returns null when there is no message available
+    public String receive() throws IOException {
+        byte[] message = receiveBytes();
+        return message == null ? null : new String(message, StandardCharsets.UTF_8);
+    }
+
+    public byte[] receiveBytes() throws IOException {
+        return queue.receiveBytes(this);
+    }
+
+    // Moves up to max available messages into target with one update of the position; returns how many
+    public int drainTo(Collection<? super String> target, int max) throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        drainBytesTo(messages, max);
+        for (byte[] message : messages) {
+            target.add(new String(message, StandardCharsets.UTF_8));
+        }
+        return messages.size();
+    }
+
+    public int drainBytesTo(Collection<? super byte[]> target, int max) throws IOException {
+        return queue.drainBytesTo(this, target, max);
+    }
+
+    public boolean poll(MessageQueue.MessageHandler handler) throws IOException {
+        return poll(handler, 1) > 0;
+    }
+
+    public int poll(MessageQueue.MessageHandler handler, int max) throws IOException {
+        return queue.poll(this, handler, max);
+    }
+
+    // Waits up to the timeout for a message; returns null if none arrived
+    public String receive(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        byte[] message = receiveBytes(timeout, unit);
+        return message == null ? null : new String(message, StandardCharsets.UTF_8);
+    }
+
+    public byte[] receiveBytes(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        return queue.await(this, System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    // Waits as long as it takes for a message
+    public String take() throws IOException, InterruptedException {
+        return new String(takeBytes(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] takeBytes() throws IOException, InterruptedException {
+        return queue.await(this, 0, false);
+    }
+
+    // Stops reading as this group here; the offset file stays, so the group still holds back retention
+    @Override
+    public void close() throws IOException {
+        queue.closeGroup(this);
+    }
+
+    void closeChannel() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,368 @@
+package git.folio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Single-threaded NIO server that puts a MessageQueue on the network (see BrokerProtocol for the frames).
+// A produce request appends its whole batch with one sendAllBytes; a fetch request takes up to max
+// messages for a consumer group, as many as fit in one frame, and copies them from the mapped
+// segments straight into the reply.
+// A fetch that finds nothing waits up to its wait time: the connection stops reading further requests
+// and the fetch is retried after every round of requests, and every few milliseconds to pick up
+// messages written by other processes sharing the queue directory.
+// A fetched group only moves past the messages once the whole reply has been written to the socket,
+// so a connection that drops before then gets them fetched again by the next consumer; a reply lost
+// after the kernel took it is not. Until then, other fetches for the group wait rather than being
+// handed the same messages.
+// Clients can only fetch as groups that already exist: every group holds back deletion of the
+// segments it has not read, so groups are created by the queue's owner or on the command line.
+public class MessageBroker implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 4 * 1024 * 1024;
+    private static final long FETCH_RECHECK_MILLIS = 5;
+
+    private final MessageQueue queue;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Set<SelectionKey> waitingFetches = new LinkedHashSet<>();
+    private final Set<ConsumerGroup> groupsInFlight = new HashSet<>();
+    private volatile boolean running = true;
+
+    public MessageBroker(MessageQueue queue, int port) throws IOException {
+        this.queue = queue;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(waitingFetches.isEmpty() ? 0 : FETCH_RECHECK_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        closeConnection(key);
+                    }
+                }
+                if (!waitingFetches.isEmpty()) {
+                    retryWaitingFetches();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Broker error: " + e.getMessage());
+        } finally {
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("Error closing broker: " + e.getMessage());
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.socket().setTcpNoDelay(true);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        connection.in = BrokerProtocol.ensureCapacity(connection.in, 1024);
+        if (channel.read(connection.in) < 0) {
+            closeConnection(key);
+            return;
+        }
+        process(key);
+    }
+
+    // Handles every complete request in the input, stopping at a fetch that has to wait
+    private void process(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.in.flip();
+        int length;
+        while (connection.waitingGroup == null && (length = BrokerProtocol.frameLength(connection.in)) >= 0) {
+            int start = connection.in.position() + 4;
+            byte type = connection.in.get(start);
+            ByteBuffer body = connection.in.slice(start + 1, length - 1);
+            connection.in.position(start + length);
+            try {
+                if (type == BrokerProtocol.PRODUCE) {
+                    produce(connection, body);
+                } else if (type == BrokerProtocol.FETCH) {
+                    fetch(key, connection, body);
+                } else {
+                    connection.out = BrokerProtocol.writeError(connection.out, "Unknown request type " + type);
+                }
+            } catch (IOException | RuntimeException e) {
+                connection.out = BrokerProtocol.writeError(connection.out, e.getMessage());
+            }
+        }
+        connection.in.compact();
+        // Make room for the rest of a frame bigger than the buffer
+        if (connection.in.position() >= 4) {
+            int frame = connection.in.getInt(0) + 4;
+            if (frame > connection.in.capacity() && frame <= BrokerProtocol.MAX_FRAME + 4) {
+                connection.in = BrokerProtocol.ensureCapacity(connection.in, frame - connection.in.position());
+            }
+        }
+        write(key);
+    }
+
+    private void produce(Connection connection, ByteBuffer body) throws IOException {
+        int count = body.getInt();
+        if (count < 0) {
+            throw new IOException("Invalid message count " + count);
+        }
+        List<byte[]> messages = new ArrayList<>(Math.min(count, body.remaining() / 4));
+        for (int i = 0; i < count; i++) {
+            int length = body.getInt();
+            if (length < 0 || length > body.remaining()) {
+                throw new IOException("Invalid message length " + length);
+            }
+            byte[] message = new byte[length];
+            body.get(message);
+            messages.add(message);
+        }
+        queue.sendAllBytes(messages);
+        connection.out = BrokerProtocol.ensureCapacity(connection.out, BrokerProtocol.HEADER + 4);
+        connection.out.putInt(1 + 4).put(BrokerProtocol.OK).putInt(count);
+    }
+
+    private void fetch(SelectionKey key, Connection connection, ByteBuffer body) throws IOException {
+        String name = BrokerProtocol.readString(body, body.getShort() & 0xFFFF);
+        int max = body.getInt();
+        int waitMillis = body.getInt();
+        if (max <= 0 || max > BrokerProtocol.MAX_FETCH) {
+            throw new IOException("Invalid fetch size " + max);
+        }
+        if (connection.pendingGroup != null) {
+            write(key); // the previous reply has to go out before this connection gets another
+        }
+        ConsumerGroup group = queue.existingGroup(name);
+        if (group == null) {
+            throw new IOException("Unknown group " + name);
+        }
+        if (take(connection, group, max)) {
+            return;
+        }
+        if (waitMillis <= 0) {
+            emptyReply(connection);
+            return;
+        }
+        connection.waitingGroup = group;
+        connection.waitingMax = max;
+        connection.waitingDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        waitingFetches.add(key);
+    }
+
+    // Copies up to max messages of the group into a reply without taking them yet; writes nothing and
+    // returns false if there are none, or if the group or this connection already has a reply unwritten.
+    // The reply stops short of MAX_FRAME, except that a single bigger message is still sent alone.
+    private boolean take(Connection connection, ConsumerGroup group, int max) throws IOException {
+        if (connection.pendingGroup != null || groupsInFlight.contains(group)) {
+            return false;
+        }
+        while (true) {
+            connection.out = BrokerProtocol.ensureCapacity(connection.out, BrokerProtocol.HEADER + 4);
+            int start = connection.out.position();
+            connection.out.position(start + BrokerProtocol.HEADER + 4);
+            connection.pendingCount = 0;
+            long from = group.position();
+            long end;
+            try {
+                end = queue.peek(group, from, message -> {
+                    ByteBuffer out = BrokerProtocol.ensureCapacity(connection.out, 4 + message.remaining());
+                    out.putInt(message.remaining()).put(message);
+                    connection.out = out;
+                    connection.pendingCount++;
+                }, max, BrokerProtocol.MAX_FRAME - 1 - 4 - 4L * max);
+            } catch (IOException | RuntimeException e) {
+                connection.out.position(start);
+                throw e;
+            }
+            ByteBuffer out = connection.out;
+            int count = connection.pendingCount;
+            if (count == 0) {
+                out.position(start);
+                if (end == from) {
+                    return false;
+                }
+                queue.commit(group, from, end, 0); // only aborted records or padding; step over them
+                continue;
+            }
+            out.putInt(start, out.position() - start - 4).put(start + 4, BrokerProtocol.OK).putInt(start + 5, count);
+            connection.pendingGroup = group;
+            connection.pendingStart = from;
+            connection.pendingEnd = end;
+            connection.pendingBytes = out.position();
+            groupsInFlight.add(group);
+            return true;
+        }
+    }
+
+    // The reply is all in the socket, so its messages count as delivered. If another process took
+    // the same messages meanwhile, both consumers got them.
+    private void commitPending(Connection connection) throws IOException {
+        ConsumerGroup group = connection.pendingGroup;
+        connection.pendingGroup = null;
+        groupsInFlight.remove(group);
+        queue.commit(group, connection.pendingStart, connection.pendingEnd, connection.pendingCount);
+    }
+
+    private static void emptyReply(Connection connection) {
+        connection.out = BrokerProtocol.ensureCapacity(connection.out, BrokerProtocol.HEADER + 4);
+        connection.out.putInt(1 + 4).put(BrokerProtocol.OK).putInt(0);
+    }
+
+    private void retryWaitingFetches() {
+        List<SelectionKey> finished = new ArrayList<>();
+        long now = System.nanoTime();
+        for (SelectionKey key : waitingFetches) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (take(connection, connection.waitingGroup, connection.waitingMax)) {
+                    finished.add(key);
+                } else if (now - connection.waitingDeadline >= 0) {
+                    emptyReply(connection);
+                    finished.add(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                connection.out = BrokerProtocol.writeError(connection.out, e.getMessage());
+                finished.add(key);
+            }
+        }
+        for (SelectionKey key : finished) {
+            waitingFetches.remove(key);
+            ((Connection) key.attachment()).waitingGroup = null;
+            try {
+                process(key); // answers the fetch and carries on with requests sent behind it
+            } catch (IOException e) {
+                closeConnection(key);
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        connection.out.flip();
+        int written = channel.write(connection.out);
+        boolean drained = !connection.out.hasRemaining();
+        connection.out.compact();
+        if (connection.pendingGroup != null) {
+            connection.pendingBytes -= written;
+            if (connection.pendingBytes <= 0) {
+                commitPending(connection);
+            }
+        }
+
+        int ops = drained ? 0 : SelectionKey.OP_WRITE;
+        // Stop reading from clients that do not drain their replies, or that wait for a fetch
+        if (connection.out.position() < MAX_PENDING_OUTPUT && connection.waitingGroup == null) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void closeConnection(SelectionKey key) {
+        waitingFetches.remove(key);
+        Connection connection = (Connection) key.attachment();
+        if (connection != null && connection.pendingGroup != null) {
+            groupsInFlight.remove(connection.pendingGroup); // never delivered, so left for the next fetch
+            connection.pendingGroup = null;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.out.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    static final class Connection {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        ConsumerGroup waitingGroup;
+        int waitingMax;
+        long waitingDeadline;
+        ConsumerGroup pendingGroup; // fetched into out but not yet committed
+        long pendingStart;
+        long pendingEnd;
+        int pendingCount;
+        long pendingBytes; // bytes in out up to the end of that reply
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java MessageBroker <port> [queue directory] [group to create...]");
+            return;
+        }
+        try {
+            MessageQueue queue = args.length > 1 ? new MessageQueue(Paths.get(args[1])) : new MessageQueue();
+            for (int i = 2; i < args.length; i++) {
+                queue.group(args[i]);
+            }
+            MessageBroker broker = new MessageBroker(queue, Integer.parseInt(args[0]));
+            System.out.println("Message broker listening on port " + broker.getPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                broker.stop();
+                try {
+                    queue.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing queue: " + e.getMessage());
+                }
+            }));
+            broker.run();
+        } catch (IOException e) {
+            System.out.println("Error starting broker: " + e.getMessage());
+        }
+    }
+}
@@ -1,90 +1,1032 @@
 package git.folio;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Append-only log of length-prefixed records spread over memory-mapped segment files.
+// Positions are byte offsets into the whole log; a segment file is named after the position it
+// starts at. A record never straddles two segments: when it does not fit, the rest of the segment
+// is marked as padding and the record goes to the next one. The write position lives in a small
+// mapped meta file.
+//
+// Any number of producers and consumers, in this JVM or others, can share a queue directory.
+// Producers reserve space by CAS on the write position and then publish the record by setting
+// its state word; consumers CAS their group's position past a published record to take it.
+// Each named ConsumerGroup keeps its position in its own mapped file and reads the whole log at its
+// own pace, so several groups fan out the same messages without copying them; consumers within a
+// group compete for its messages. Segments are deleted once the slowest group has moved past them.
+// A record left unpublished for longer than the claim timeout, because its producer died or hung
+// between reserving and publishing, is aborted by the first consumer stuck behind it; a producer
+// that comes back to it afterwards gets an IOException instead of a silently lost message.
+// receive(timeout) and take() wait for a message through a WaitStrategy instead of sleep-polling.
+// How often mapped pages are forced to disk is set by the Durability mode; sendAll and drainTo move
+// a whole batch with one position update and at most one flush.
+// claim() and poll() work on the mapped bytes directly: a producer fills a claimed region in place
+// and a consumer is handed a read-only view, so neither copies nor allocates per message.
+// The default queue imports the unread messages of the old message_queue.dat ring file, if there
+// is one, the first time it is opened.
 public class MessageQueue {
-    private static final int MAX_MESSAGES = 100;
-    private static final int MESSAGE_SIZE = 256;
-    private static final String QUEUE_FILE = "message_queue.dat";
-    private static final int HEADER_SIZE = 8; // 4 bytes for write position, 4 bytes for read position
+    private static final String QUEUE_DIRECTORY = "message_queue";
+    // The fixed ring of 100 slots of 256 bytes that the default queue used to live in
+    private static final String LEGACY_QUEUE_FILE = "message_queue.dat";
+    private static final String LEGACY_MIGRATED_SUFFIX = ".migrated";
+    private static final int LEGACY_HEADER_SIZE = 8; // write slot(4) + read slot(4)
+    private static final int LEGACY_SLOTS = 100;
+    private static final int LEGACY_SLOT_SIZE = 256;
+    private static final String META_FILE = "queue.meta";
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int META_SIZE = 4096;
+    private static final int WRITE_POSITION = 0;
+    private static final int OLDEST_POSITION = 64; // start of the oldest segment not deleted
+    private static final int SEGMENT_SIZE = 128;
+    private static final String GROUPS_DIRECTORY = "groups";
+    private static final String GROUP_SUFFIX = ".offset";
+    private static final String RETENTION_LOCK_FILE = "retention.lock";
+    private static final String DEFAULT_GROUP = "default";
+    private static final int GROUP_FILE_SIZE = 16;
+    private static final int GROUP_POSITION = 0;
+    private static final int GROUP_CREATED = 8;
+    private static final int RECORD_HEADER = 8; // state(4) + length(4)
+    private static final int ALIGNMENT = 8;
+    private static final int UNCOMMITTED = 0;
+    private static final int COMMITTED = 1;
+    private static final int PADDING = 2;
+    private static final int ABORTED = 3; // claimed and then given up; skipped by consumers
+    private static final long DEFAULT_CLAIM_TIMEOUT_MILLIS = 10_000;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
 
-    private FileChannel channel;
-    private MappedByteBuffer buffer;
+    // Atomic access to the mapped files; every other access uses the same native byte order
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    // A FileLock belongs to the whole JVM, so threads and queue instances in it take turns here first
+    private static final Object RETENTION_MONITOR = new Object();
+
+    private final Path directory;
+    private final Path groupsDirectory;
+    private final int segmentSize;
+    private final FileChannel metaChannel;
+    private final MappedByteBuffer meta;
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final Map<Long, MappedByteBuffer> unsyncedSegments = new ConcurrentHashMap<>();
+    private final Map<String, ConsumerGroup> groups = new ConcurrentHashMap<>();
+    private final FileChannel retentionChannel;
+    private volatile ConsumerGroup defaultGroup;
+    private final AtomicLong unsyncedMessages = new AtomicLong();
+    private final WaitStrategy waitStrategy;
+    private final Durability durability;
+    private final long syncEvery;
+    private final ScheduledExecutorService syncExecutor;
+    private final ThreadLocal<Claim> claims = ThreadLocal.withInitial(() -> new Claim(this));
+    private final ThreadLocal<PollBatch> pollBatches = ThreadLocal.withInitial(PollBatch::new);
+    private volatile long claimTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CLAIM_TIMEOUT_MILLIS);
+
+    public enum Durability {
+        SYNC_EVERY_MESSAGE, // send/receive return once the change is on disk
+        SYNC_EVERY_N_MESSAGES, // flush after every syncEvery messages sent or received
+        SYNC_INTERVAL, // flush every syncEvery milliseconds in the background
+        OS_MANAGED // leave it to the page cache; a crash of the machine can lose recent messages
+    }
 
     public MessageQueue() throws IOException {
-        Path path = Paths.get(QUEUE_FILE);
-        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
-        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (MAX_MESSAGES * MESSAGE_SIZE));
+        this(Paths.get(QUEUE_DIRECTORY), DEFAULT_SEGMENT_SIZE);
+        migrateLegacyFile(Paths.get(LEGACY_QUEUE_FILE));
+    }
+
+    public MessageQueue(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
 
-        // Initialize write and read positions if the file is new
-        if (channel.size() == 0) {
-            buffer.putInt(0, 0); // Write position
-            buffer.putInt(4, 0); // Read position
+    public MessageQueue(Path directory, int segmentSize) throws IOException {
+        this(directory, segmentSize, Durability.SYNC_EVERY_MESSAGE, 0);
+    }
+
+    // The segment size is fixed when the queue is created; reopening uses the stored size.
+    // syncEvery is a message count for SYNC_EVERY_N_MESSAGES and milliseconds for SYNC_INTERVAL.
+    public MessageQueue(Path directory, int segmentSize, Durability durability, long syncEvery) throws IOException {
+        if ((durability == Durability.SYNC_EVERY_N_MESSAGES || durability == Durability.SYNC_INTERVAL) && syncEvery <= 0) {
+            throw new IllegalArgumentException("syncEvery must be positive for " + durability);
+        }
+        if (segmentSize % ALIGNMENT != 0 || segmentSize < 2 * RECORD_HEADER) {
+            throw new IllegalArgumentException("Segment size must be a multiple of " + ALIGNMENT);
+        }
+        this.directory = directory;
+        this.groupsDirectory = directory.resolve(GROUPS_DIRECTORY);
+        Files.createDirectories(groupsDirectory);
+        retentionChannel = FileChannel.open(directory.resolve(RETENTION_LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        metaChannel = FileChannel.open(directory.resolve(META_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        meta = metaChannel.map(FileChannel.MapMode.READ_WRITE, 0, META_SIZE);
+        meta.order(ByteOrder.nativeOrder());
+        INT.compareAndSet(meta, SEGMENT_SIZE, 0, segmentSize);
+        this.segmentSize = (int) INT.getVolatile(meta, SEGMENT_SIZE);
+        this.waitStrategy = new WaitStrategy(meta);
+        this.durability = durability;
+        this.syncEvery = syncEvery;
+        if (durability == Durability.SYNC_INTERVAL) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "queue-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::syncQuietly, syncEvery, syncEvery, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
         }
     }
 
     public void send(String message) throws IOException {
-        byte[] messageBytes = message.getBytes();
-        if (messageBytes.length > MESSAGE_SIZE - 4) {
-            throw new IllegalArgumentException("Message too long");
+        send(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void send(byte[] message) throws IOException {
+        Claim claim = claim(message.length);
+        claim.buffer().put(message);
+        claim.commit();
+    }
+
+    // Reserves room for a message of the given length; the caller fills claim.buffer() and then
+    // commits or aborts. Each thread has one reusable claim, so it must be finished before the next.
+    public Claim claim(int length) throws IOException {
+        int recordSize = align(RECORD_HEADER + length);
+        if (length < 0 || recordSize > segmentSize) {
+            throw new IllegalArgumentException("Message too long for a segment of " + segmentSize + " bytes");
         }
+        Claim claim = claims.get();
+        if (claim.active) {
+            throw new IllegalStateException("The previous claim on this thread was not committed or aborted");
+        }
+        while (true) {
+            long position = reserve(recordSize);
+            MappedByteBuffer segment = segment(position);
+            int offset = offsetOf(position);
+            // Fails only if a consumer gave up on the empty header first; the space stays aborted
+            if (LONG.compareAndSet(segment, offset, 0L, header(UNCOMMITTED, length))) {
+                claim.wrap(position, segment, offset, length, recordSize);
+                return claim;
+            }
+        }
+    }
 
-        int writePosition = buffer.getInt(0);
-        int readPosition = buffer.getInt(4);
+    // How long a reserved record may stay unpublished before consumers abort it and move on
+    public void setClaimTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Claim timeout must be positive");
+        }
+        claimTimeoutNanos = unit.toNanos(timeout);
+    }
 
-        if ((writePosition + 1) % MAX_MESSAGES == readPosition) {
-            throw new IOException("Queue is full");
+    // State and length as one long, so a record header is set in a single atomic step
+    private static long header(int state, int length) {
+        return LITTLE_ENDIAN ? (long) length << 32 | (state & 0xffffffffL) : (long) state << 32 | (length & 0xffffffffL);
+    }
+
+    private void published(long position, MappedByteBuffer segment, int offset, int recordSize) throws IOException {
+        if (durability == Durability.SYNC_EVERY_MESSAGE) {
+            segment.force(offset, recordSize);
+            meta.force();
+        } else {
+            afterChange(position, segment, 1);
         }
+        waitStrategy.signal();
+    }
 
-        int offset = HEADER_SIZE + (writePosition * MESSAGE_SIZE);
-        buffer.putInt(offset, messageBytes.length);
-        buffer.position(offset + 4);
-        buffer.put(messageBytes);
+    // Moves the unread messages of an old ring file into this queue and renames the file so it is
+    // only imported once. A crash before the rename imports them again on the next start.
+    void migrateLegacyFile(Path file) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        try (channel; FileLock lock = channel.lock()) {
+            // Another process may have migrated and renamed it while we waited for the lock
+            if (!Files.exists(file)) {
+                return;
+            }
+            if (channel.size() != LEGACY_HEADER_SIZE + (long) LEGACY_SLOTS * LEGACY_SLOT_SIZE) {
+                throw new IOException("Cannot migrate " + file + ": unexpected size " + channel.size());
+            }
+            ByteBuffer ring = ByteBuffer.allocate((int) channel.size());
+            while (ring.hasRemaining() && channel.read(ring, ring.position()) >= 0) {
+                // read the whole ring
+            }
+            int writeSlot = ring.getInt(0);
+            int readSlot = ring.getInt(4);
+            if (writeSlot < 0 || writeSlot >= LEGACY_SLOTS || readSlot < 0 || readSlot >= LEGACY_SLOTS) {
+                throw new IOException("Cannot migrate " + file + ": corrupt read or write position");
+            }
+            List<byte[]> messages = new ArrayList<>();
+            for (int slot = readSlot; slot != writeSlot; slot = (slot + 1) % LEGACY_SLOTS) {
+                int offset = LEGACY_HEADER_SIZE + slot * LEGACY_SLOT_SIZE;
+                int length = ring.getInt(offset);
+                // The old receive skipped slots like these too
+                if (length > 0 && length <= LEGACY_SLOT_SIZE - 4) {
+                    messages.add(Arrays.copyOfRange(ring.array(), offset + 4, offset + 4 + length));
+                }
+            }
+            sendAllBytes(messages);
+            sync();
+            Files.move(file, file.resolveSibling(file.getFileName() + LEGACY_MIGRATED_SUFFIX));
+        }
+    }
+
+    public void sendAll(List<String> messages) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        for (String message : messages) {
+            encoded.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        sendAllBytes(encoded);
+    }
 
-        buffer.putInt(0, (writePosition + 1) % MAX_MESSAGES);
-        buffer.force();
+    // Reserves room for the whole batch with one update of the write position and flushes once
+    public void sendAllBytes(List<byte[]> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int[] recordSizes = new int[messages.size()];
+        for (int i = 0; i < recordSizes.length; i++) {
+            recordSizes[i] = align(RECORD_HEADER + messages.get(i).length);
+            if (recordSizes[i] > segmentSize) {
+                throw new IllegalArgumentException("Message too long for a segment of " + segmentSize + " bytes");
+            }
+        }
+        long[] starts = reserveAll(recordSizes);
+        int lost = 0;
+        for (int i = 0; i < starts.length; i++) {
+            MappedByteBuffer segment = segment(starts[i]);
+            int offset = offsetOf(starts[i]);
+            byte[] message = messages.get(i);
+            if (!LONG.compareAndSet(segment, offset, 0L, header(UNCOMMITTED, message.length))) {
+                lost++;
+                continue;
+            }
+            segment.put(offset + RECORD_HEADER, message);
+            if (!LONG.compareAndSet(segment, offset, header(UNCOMMITTED, message.length), header(COMMITTED, message.length))) {
+                lost++;
+            }
+        }
+        long end = starts[starts.length - 1] + recordSizes[recordSizes.length - 1];
+        if (durability == Durability.SYNC_EVERY_MESSAGE) {
+            forceRange(starts[0], end);
+            meta.force();
+        } else {
+            for (long base = baseOf(starts[0]); base < end; base += segmentSize) {
+                unsyncedSegments.putIfAbsent(base, segment(base));
+            }
+            afterChange(end, null, messages.size());
+        }
+        waitStrategy.signal();
+        if (lost > 0) {
+            throw new IOException(lost + " of " + messages.size() + " messages were aborted by consumers after the claim timeout");
+        }
     }
 
+    // Claims recordSize bytes at the end of the log, padding out the current segment if the record
+    // does not fit in it, and returns the position the record starts at
+    private long reserve(int recordSize) throws IOException {
+        while (true) {
+            long position = (long) LONG.getVolatile(meta, WRITE_POSITION);
+            int offset = offsetOf(position);
+            long start = offset + recordSize > segmentSize ? position + segmentSize - offset : position;
+            if (LONG.compareAndSet(meta, WRITE_POSITION, position, start + recordSize)) {
+                if (start != position) {
+                    pad(position);
+                }
+                return start;
+            }
+        }
+    }
+
+    // Lays the records out back to back from the current write position, padding wherever one does
+    // not fit in the rest of a segment, and claims the whole span with a single CAS
+    private long[] reserveAll(int[] recordSizes) throws IOException {
+        long[] starts = new long[recordSizes.length];
+        while (true) {
+            long position = (long) LONG.getVolatile(meta, WRITE_POSITION);
+            long cursor = position;
+            for (int i = 0; i < recordSizes.length; i++) {
+                int offset = offsetOf(cursor);
+                if (offset + recordSizes[i] > segmentSize) {
+                    cursor += segmentSize - offset;
+                }
+                starts[i] = cursor;
+                cursor += recordSizes[i];
+            }
+            if (LONG.compareAndSet(meta, WRITE_POSITION, position, cursor)) {
+                long previousEnd = position;
+                for (int i = 0; i < starts.length; i++) {
+                    if (starts[i] != previousEnd) {
+                        pad(previousEnd);
+                    }
+                    previousEnd = starts[i] + recordSizes[i];
+                }
+                return starts;
+            }
+        }
+    }
+
+    // Marks the rest of the segment from position on as unused. A consumer that already aborted the
+    // empty headers there has skipped the same space.
+    private void pad(long position) throws IOException {
+        MappedByteBuffer segment = segment(position);
+        int offset = offsetOf(position);
+        LONG.compareAndSet(segment, offset, 0L, header(PADDING, 0));
+        if (durability == Durability.SYNC_EVERY_MESSAGE) {
+            segment.force(offset, RECORD_HEADER);
+        } else {
+            unsyncedSegments.putIfAbsent(baseOf(position), segment);
+        }
+    }
+
+    // The plain receive methods read as the "default" group
     public String receive() throws IOException {
-        int writePosition = buffer.getInt(0);
-        int readPosition = buffer.getInt(4);
+        return defaultGroup().receive();
+    }
+
+    public byte[] receiveBytes() throws IOException {
+        return defaultGroup().receiveBytes();
+    }
+
+    public int drainTo(Collection<? super String> target, int max) throws IOException {
+        return defaultGroup().drainTo(target, max);
+    }
+
+    public int drainBytesTo(Collection<? super byte[]> target, int max) throws IOException {
+        return defaultGroup().drainBytesTo(target, max);
+    }
+
+    public boolean poll(MessageHandler handler) throws IOException {
+        return defaultGroup().poll(handler);
+    }
+
+    public int poll(MessageHandler handler, int max) throws IOException {
+        return defaultGroup().poll(handler, max);
+    }
+
+    public String receive(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        return defaultGroup().receive(timeout, unit);
+    }
+
+    public byte[] receiveBytes(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        return defaultGroup().receiveBytes(timeout, unit);
+    }
+
+    public String take() throws IOException, InterruptedException {
+        return defaultGroup().take();
+    }
+
+    public byte[] takeBytes() throws IOException, InterruptedException {
+        return defaultGroup().takeBytes();
+    }
+
+    private ConsumerGroup defaultGroup() throws IOException {
+        ConsumerGroup group = defaultGroup;
+        if (group == null) {
+            group = group(DEFAULT_GROUP);
+            defaultGroup = group;
+        }
+        return group;
+    }
+
+    // Opens the named group, creating it at the oldest message still on disk if it is new.
+    // Every group reads the whole log; consumers that open the same group share its messages.
+    public ConsumerGroup group(String name) throws IOException {
+        if (!name.matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("Invalid group name: " + name);
+        }
+        synchronized (groups) {
+            ConsumerGroup group = groups.get(name);
+            if (group == null) {
+                group = openGroup(name);
+                groups.put(name, group);
+            }
+            return group;
+        }
+    }
+
+    // Like group, but never creates one: returns null unless the group is open here or has an offset file
+    public ConsumerGroup existingGroup(String name) throws IOException {
+        if (!name.matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("Invalid group name: " + name);
+        }
+        synchronized (groups) {
+            ConsumerGroup group = groups.get(name);
+            if (group == null && Files.exists(groupsDirectory.resolve(name + GROUP_SUFFIX))) {
+                group = group(name);
+            }
+            return group;
+        }
+    }
+
+    private ConsumerGroup openGroup(String name) throws IOException {
+        synchronized (RETENTION_MONITOR) {
+            try (FileLock lock = retentionChannel.lock()) {
+                FileChannel channel = FileChannel.open(groupsDirectory.resolve(name + GROUP_SUFFIX),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                MappedByteBuffer offset = channel.map(FileChannel.MapMode.READ_WRITE, 0, GROUP_FILE_SIZE);
+                offset.order(ByteOrder.nativeOrder());
+                if ((int) INT.getVolatile(offset, GROUP_CREATED) == 0) {
+                    LONG.setVolatile(offset, GROUP_POSITION, (long) LONG.getVolatile(meta, OLDEST_POSITION));
+                    INT.setVolatile(offset, GROUP_CREATED, 1);
+                    offset.force();
+                }
+                return new ConsumerGroup(this, name, channel, offset);
+            }
+        }
+    }
+
+    // Names of every group with an offset file, including ones only other processes have open
+    public List<String> groups() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(groupsDirectory, "*" + GROUP_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                names.add(name.substring(0, name.length() - GROUP_SUFFIX.length()));
+            }
+        }
+        return names;
+    }
+
+    // Drops a group and its offset, so it no longer holds back deletion of consumed segments.
+    // Nobody may still be reading as the group, in this process or any other.
+    public void deleteGroup(String name) throws IOException {
+        synchronized (groups) {
+            ConsumerGroup group = groups.remove(name);
+            if (group != null) {
+                group.closeChannel();
+                if (group == defaultGroup) {
+                    defaultGroup = null;
+                }
+            }
+        }
+        synchronized (RETENTION_MONITOR) {
+            try (FileLock lock = retentionChannel.lock()) {
+                Files.deleteIfExists(groupsDirectory.resolve(name + GROUP_SUFFIX));
+            }
+        }
+        deleteConsumedSegments();
+    }
+
+    void closeGroup(ConsumerGroup group) throws IOException {
+        synchronized (groups) {
+            if (groups.remove(group.name(), group)) {
+                if (group == defaultGroup) {
+                    defaultGroup = null;
+                }
+                group.cursor.force();
+                group.closeChannel();
+            }
+        }
+    }
+
+    long position(ConsumerGroup group) {
+        return (long) LONG.getVolatile(group.cursor, GROUP_POSITION);
+    }
+
+    // Bytes between the group's position and the write position, including records not yet published
+    long lag(ConsumerGroup group) {
+        return (long) LONG.getVolatile(meta, WRITE_POSITION) - position(group);
+    }
 
-        if (readPosition == writePosition) {
-            return null; // No message available
+    // Returns null when the group has read everything or its next record has been reserved but not yet published
+    byte[] receiveBytes(ConsumerGroup group) throws IOException {
+        while (true) {
+            long position = position(group);
+            if (position >= (long) LONG.getVolatile(meta, WRITE_POSITION)) {
+                return null;
+            }
+            int offset = offsetOf(position);
+            MappedByteBuffer segment = segment(position);
+            int state = (int) INT.getAcquire(segment, offset);
+            if (state == UNCOMMITTED) {
+                if (position != position(group)) {
+                    continue; // another consumer moved on, maybe out of a segment that was then deleted
+                }
+                if (abortStalled(group, position)) {
+                    continue;
+                }
+                return null;
+            }
+            if (state == PADDING) {
+                advancePosition(group, position, position + segmentSize - offset, 0);
+                continue;
+            }
+            int length = segment.getInt(offset + 4);
+            if (state == ABORTED) {
+                advancePosition(group, position, position + align(RECORD_HEADER + length), 0);
+                continue;
+            }
+            if (advancePosition(group, position, position + align(RECORD_HEADER + length), 1)) {
+                byte[] message = new byte[length];
+                segment.get(offset + RECORD_HEADER, message);
+                return message;
+            }
         }
+    }
 
-        int offset = HEADER_SIZE + (readPosition * MESSAGE_SIZE);
-        int messageLength = buffer.getInt(offset);
+    // Moves up to max available messages into target with one update of the group's position
+    int drainBytesTo(ConsumerGroup group, Collection<? super byte[]> target, int max) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        while (true) {
+            batch.clear();
+            long start = position(group);
+            long write = (long) LONG.getVolatile(meta, WRITE_POSITION);
+            long position = start;
+            // Copy first: committed records never change, and a lost race just discards the copies
+            while (batch.size() < max && position < write) {
+                MappedByteBuffer segment = segment(position);
+                int offset = offsetOf(position);
+                int state = (int) INT.getAcquire(segment, offset);
+                if (state == UNCOMMITTED) {
+                    if (position == start && abortStalled(group, position)) {
+                        continue; // read it again as aborted
+                    }
+                    break;
+                }
+                if (state == PADDING) {
+                    position += segmentSize - offset;
+                    continue;
+                }
+                if (state == ABORTED) {
+                    position += align(RECORD_HEADER + segment.getInt(offset + 4));
+                    continue;
+                }
+                byte[] message = new byte[segment.getInt(offset + 4)];
+                segment.get(offset + RECORD_HEADER, message);
+                batch.add(message);
+                position += align(RECORD_HEADER + message.length);
+            }
+            if (position == start) {
+                if (start != position(group)) {
+                    continue; // another consumer moved on, maybe out of a segment that was then deleted
+                }
+                return 0;
+            }
+            if (advancePosition(group, start, position, batch.size()) && !batch.isEmpty()) {
+                target.addAll(batch);
+                return batch.size();
+            }
+        }
+    }
 
-        if (messageLength <= 0 || messageLength > MESSAGE_SIZE - 4) {
-            // Invalid message length, move to next position
-            buffer.putInt(4, (readPosition + 1) % MAX_MESSAGES);
-            buffer.force();
-            return null;
+    // Takes up to max messages with one update of the group's position and hands each to the handler
+    // as a read-only view of the mapped bytes. A view is only valid during the call. If the handler
+    // throws, the rest of the batch has already been taken and is dropped.
+    int poll(ConsumerGroup group, MessageHandler handler, int max) throws IOException {
+        PollBatch batch = pollBatches.get();
+        while (true) {
+            batch.clear();
+            long start = position(group);
+            long position = collect(group, batch, start, max, Long.MAX_VALUE);
+            if (position == start) {
+                if (start != position(group)) {
+                    continue;
+                }
+                return 0;
+            }
+            if (!LONG.compareAndSet(group.cursor, GROUP_POSITION, start, position)) {
+                continue;
+            }
+            try {
+                for (int i = 0; i < batch.size; i++) {
+                    handler.onMessage(batch.view(i));
+                }
+            } finally {
+                afterRead(group, start, position, batch.size);
+            }
+            if (batch.size > 0) {
+                return batch.size;
+            }
         }
+    }
 
-        byte[] messageBytes = new byte[messageLength];
-        buffer.position(offset + 4);
+    // Like poll, but leaves the group where it is: hands the handler up to max messages from start,
+    // which must be the group's position, and returns the position after them. Returns start without
+    // calling the handler if there are none or the group has moved. The caller takes the messages
+    // with commit once it has delivered them. The messages add up to at most maxBytes unless the
+    // first one alone is bigger, in which case it is the only one.
+    long peek(ConsumerGroup group, long start, MessageHandler handler, int max, long maxBytes) throws IOException {
+        PollBatch batch = pollBatches.get();
+        batch.clear();
+        try {
+            long position = collect(group, batch, start, max, maxBytes);
+            if (position(group) != start) {
+                return start;
+            }
+            for (int i = 0; i < batch.size; i++) {
+                handler.onMessage(batch.view(i));
+            }
+            return position;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    // Moves the group from start to end after a peek; false if another consumer moved it first
+    boolean commit(ConsumerGroup group, long start, long end, int messages) throws IOException {
+        return advancePosition(group, start, end, messages);
+    }
 
-        // Check if there's enough data to read
-        if (buffer.remaining() < messageLength) {
-            return null; // Not enough data available
+    // Gathers up to max published records from start into the batch, stopping before one that would
+    // take their total length past maxBytes, and returns the position after the last record looked
+    // at, aborted and padding ones included
+    private long collect(ConsumerGroup group, PollBatch batch, long start, int max, long maxBytes) throws IOException {
+        long write = (long) LONG.getVolatile(meta, WRITE_POSITION);
+        long position = start;
+        long bytes = 0;
+        while (batch.size < max && position < write) {
+            MappedByteBuffer segment = segment(position);
+            int offset = offsetOf(position);
+            int state = (int) INT.getAcquire(segment, offset);
+            if (state == UNCOMMITTED) {
+                if (position == start && abortStalled(group, position)) {
+                    continue; // read it again as aborted
+                }
+                break;
+            }
+            if (state == PADDING) {
+                position += segmentSize - offset;
+                continue;
+            }
+            int length = segment.getInt(offset + 4);
+            if (state == COMMITTED) {
+                if (batch.size > 0 && bytes + length > maxBytes) {
+                    break;
+                }
+                bytes += length;
+                // Keep the mapping: once the position moves, the segment file may be deleted
+                batch.add(segment, baseOf(position), offset, length);
+            }
+            position += align(RECORD_HEADER + length);
         }
+        return position;
+    }
 
-        buffer.get(messageBytes);
+    // Waits until the deadline for a message, or as long as it takes when not timed
+    byte[] await(ConsumerGroup group, long deadline, boolean timed) throws IOException, InterruptedException {
+        for (int idle = 0; ; idle++) {
+            byte[] message = receiveBytes(group);
+            if (message != null) {
+                return message;
+            }
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return null;
+            }
+            waitStrategy.idle(idle, remaining, () -> hasMessage(group));
+        }
+    }
 
-        buffer.putInt(4, (readPosition + 1) % MAX_MESSAGES);
-        buffer.force();
+    // Aborts the record at the group's position once this consumer has seen it unpublished for the claim
+    // timeout. A header still empty means the producer never got as far as the length, so the extent
+    // is unknown: every empty header up to the next record is aborted as an empty record instead.
+    // Returns true if it aborted anything.
+    private boolean abortStalled(ConsumerGroup group, long position) throws IOException {
+        long now = System.nanoTime();
+        if (group.stalledAt != position) {
+            group.stalledAt = position;
+            group.stalledSince = now;
+            return false;
+        }
+        if (now - group.stalledSince < claimTimeoutNanos) {
+            return false;
+        }
+        MappedByteBuffer segment = segment(position);
+        int offset = offsetOf(position);
+        long header = (long) LONG.getVolatile(segment, offset);
+        if (header != 0) {
+            int length = segment.getInt(offset + 4);
+            return LONG.compareAndSet(segment, offset, header, header(ABORTED, length))
+                    || (int) INT.getAcquire(segment, offset) != UNCOMMITTED;
+        }
+        long end = Math.min(position - offset + segmentSize, (long) LONG.getVolatile(meta, WRITE_POSITION));
+        boolean aborted = false;
+        for (long p = position; p < end; p += RECORD_HEADER) {
+            if (!LONG.compareAndSet(segment, offsetOf(p), 0L, header(ABORTED, 0))) {
+                break;
+            }
+            aborted = true;
+        }
+        return aborted || (int) INT.getAcquire(segment, offset) != UNCOMMITTED;
+    }
 
-        return new String(messageBytes);
+    private boolean hasMessage(ConsumerGroup group) {
+        long position = position(group);
+        if (position >= (long) LONG.getVolatile(meta, WRITE_POSITION)) {
+            return false;
+        }
+        try {
+            return (int) INT.getAcquire(segment(position), offsetOf(position)) != UNCOMMITTED;
+        } catch (IOException e) {
+            return true; // let the next poll report it
+        }
+    }
+
+    // Bytes the default group has yet to read, including records not yet published
+    public long size() throws IOException {
+        return defaultGroup().lag();
+    }
+
+    // Forces every change made through this instance to disk
+    public void sync() throws IOException {
+        for (Long base : unsyncedSegments.keySet()) {
+            MappedByteBuffer segment = unsyncedSegments.remove(base);
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        for (ConsumerGroup group : groups.values()) {
+            group.cursor.force();
+        }
+        meta.force();
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error syncing queue: " + e.getMessage());
+        }
+    }
+
+    // Records a change under the durability mode other than SYNC_EVERY_MESSAGE
+    private void afterChange(long position, MappedByteBuffer segment, int messages) throws IOException {
+        if (segment != null) {
+            unsyncedSegments.putIfAbsent(baseOf(position), segment);
+        }
+        if (durability == Durability.SYNC_EVERY_N_MESSAGES && unsyncedMessages.addAndGet(messages) >= syncEvery) {
+            unsyncedMessages.set(0);
+            sync();
+        }
+    }
+
+    private void forceRange(long start, long end) throws IOException {
+        for (long position = start; position < end; ) {
+            int offset = offsetOf(position);
+            int length = (int) Math.min(segmentSize - offset, end - position);
+            segment(position).force(offset, length);
+            position += length;
+        }
     }
 
     public void close() throws IOException {
-        channel.close();
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+        waitStrategy.close();
+        sync();
+        synchronized (groups) {
+            for (ConsumerGroup group : groups.values()) {
+                group.closeChannel();
+            }
+            groups.clear();
+            defaultGroup = null;
+        }
+        segments.clear();
+        retentionChannel.close();
+        metaChannel.close();
+    }
+
+    // Loses to a consumer of the same group that got there first
+    private boolean advancePosition(ConsumerGroup group, long expected, long position, int messages) throws IOException {
+        if (!LONG.compareAndSet(group.cursor, GROUP_POSITION, expected, position)) {
+            return false;
+        }
+        afterRead(group, expected, position, messages);
+        return true;
+    }
+
+    private void afterRead(ConsumerGroup group, long expected, long position, int messages) throws IOException {
+        if (durability == Durability.SYNC_EVERY_MESSAGE) {
+            group.cursor.force();
+        } else {
+            afterChange(position, null, messages);
+        }
+        if (position / segmentSize != expected / segmentSize) {
+            deleteConsumedSegments();
+        }
+    }
+
+    // Deletes the segments every group has moved past. Runs under the retention lock, so a group
+    // being created cannot pick a starting segment that is about to go.
+    private void deleteConsumedSegments() throws IOException {
+        synchronized (RETENTION_MONITOR) {
+            try (FileLock lock = retentionChannel.lock()) {
+                long slowest = Long.MAX_VALUE;
+                ByteBuffer offset = ByteBuffer.allocate(GROUP_FILE_SIZE).order(ByteOrder.nativeOrder());
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(groupsDirectory, "*" + GROUP_SUFFIX)) {
+                    for (Path file : files) {
+                        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                            offset.clear();
+                            while (offset.hasRemaining() && channel.read(offset) >= 0) {
+                                // read the whole header
+                            }
+                        } catch (NoSuchFileException e) {
+                            continue; // removed from outside the queue
+                        }
+                        if (offset.hasRemaining() || offset.getInt(GROUP_CREATED) == 0) {
+                            return; // a group that was never set up, so nothing is known to be consumed
+                        }
+                        slowest = Math.min(slowest, offset.getLong(GROUP_POSITION));
+                    }
+                }
+                if (slowest == Long.MAX_VALUE) {
+                    return; // nobody has read anything yet
+                }
+                long base = baseOf(slowest);
+                if (base > (long) LONG.getVolatile(meta, OLDEST_POSITION)) {
+                    LONG.setVolatile(meta, OLDEST_POSITION, base);
+                    meta.force();
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                    for (Path file : files) {
+                        long segmentBase = segmentBase(file);
+                        if (segmentBase < base) {
+                            segments.remove(segmentBase);
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static long segmentBase(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private MappedByteBuffer segment(long position) throws IOException {
+        long base = baseOf(position);
+        MappedByteBuffer segment = segments.get(base);
+        if (segment == null) {
+            Path file = directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            segment.order(ByteOrder.nativeOrder());
+            // Only the segments under the write position and this instance's group positions stay mapped
+            Set<Long> inUse = new HashSet<>();
+            inUse.add(baseOf((long) LONG.getVolatile(meta, WRITE_POSITION)));
+            for (ConsumerGroup group : groups.values()) {
+                inUse.add(baseOf(position(group)));
+            }
+            segments.keySet().removeIf(cached -> !inUse.contains(cached));
+            MappedByteBuffer existing = segments.putIfAbsent(base, segment);
+            if (existing != null) {
+                segment = existing;
+            }
+        }
+        return segment;
+    }
+
+    private long baseOf(long position) {
+        return position - offsetOf(position);
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    @FunctionalInterface
+    public interface MessageHandler {
+        void onMessage(ByteBuffer message) throws IOException;
+    }
+
+    // Flyweight over a reserved record; reused by every claim made on the same thread
+    public static final class Claim {
+        private final MessageQueue queue;
+        private ByteBuffer view;
+        private long viewBase = -1;
+        private long position;
+        private MappedByteBuffer segment;
+        private int offset;
+        private int length;
+        private int recordSize;
+        private boolean active;
+
+        private Claim(MessageQueue queue) {
+            this.queue = queue;
+        }
+
+        private void wrap(long position, MappedByteBuffer segment, int offset, int length, int recordSize) {
+            long base = position - offset;
+            if (base != viewBase || view == null) {
+                view = segment.duplicate().order(ByteOrder.BIG_ENDIAN);
+                viewBase = base;
+            }
+            view.clear();
+            view.limit(offset + RECORD_HEADER + length);
+            view.position(offset + RECORD_HEADER);
+            this.position = position;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.recordSize = recordSize;
+            this.active = true;
+        }
+
+        // Positioned at the start of the message and limited to its length
+        public ByteBuffer buffer() {
+            return view;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void commit() throws IOException {
+            finish(COMMITTED);
+        }
+
+        // Consumers skip an aborted record; it still takes up its space in the log
+        public void abort() throws IOException {
+            finish(ABORTED);
+        }
+
+        private void finish(int state) throws IOException {
+            if (!active) {
+                throw new IllegalStateException("Claim already committed or aborted");
+            }
+            active = false;
+            if (!LONG.compareAndSet(segment, offset, header(UNCOMMITTED, length), header(state, length))) {
+                throw new IOException("Claim was aborted by a consumer after staying uncommitted past the claim timeout");
+            }
+            queue.published(position, segment, offset, recordSize);
+        }
+    }
+
+    // Records taken by one poll, kept with their mappings; reused by every poll on the same thread
+    private static final class PollBatch {
+        private MappedByteBuffer[] segments = new MappedByteBuffer[16];
+        private long[] bases = new long[16];
+        private int[] offsets = new int[16];
+        private int[] lengths = new int[16];
+        private int size;
+        private ByteBuffer view;
+        private long viewBase = -1;
+
+        void clear() {
+            Arrays.fill(segments, 0, size, null);
+            size = 0;
+        }
+
+        void add(MappedByteBuffer segment, long base, int offset, int length) {
+            if (size == segments.length) {
+                segments = Arrays.copyOf(segments, size * 2);
+                bases = Arrays.copyOf(bases, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+            }
+            segments[size] = segment;
+            bases[size] = base;
+            offsets[size] = offset;
+            lengths[size] = length;
+            size++;
+        }
+
+        ByteBuffer view(int i) {
+            if (bases[i] != viewBase || view == null) {
+                view = segments[i].asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+                viewBase = bases[i];
+            }
+            view.clear();
+            view.limit(offsets[i] + RECORD_HEADER + lengths[i]);
+            view.position(offsets[i] + RECORD_HEADER);
+            return view;
+        }
     }
-}
\ No newline at end of file
+}
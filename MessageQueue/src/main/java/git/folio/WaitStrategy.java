@@ -0,0 +1,285 @@
+package git.folio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// Backs off from busy-spinning to yielding to parking while a consumer finds the queue empty.
+// Parked consumers are counted in the meta file, so producers only pay for a wakeup when someone
+// is actually waiting. Waiting threads in this JVM are unparked directly; other processes get a
+// one-byte datagram on the loopback port their queue registered in the meta file. A timed park
+// is the fallback when a wakeup is lost or every slot is taken.
+// Each slot records its owner's pid, a lease the owner renews while it waits, its port and how many of
+// its threads are parked. A process killed while it held a slot cannot clear it, so a slot whose
+// owner is gone and whose lease has run out is taken over, and its parked count is dropped from the total.
+final class WaitStrategy implements Closeable {
+    // In the meta file: the total parked count at WAITERS, then SLOT_COUNT slots of pid(8) lease(8) port(4) waiters(4)
+    static final int WAITERS = 1024;
+    static final int WAKEUP_SLOTS = 1088;
+    static final int SLOT_COUNT = 64;
+    static final int SLOT_SIZE = 32;
+    static final int SLOT_PID = 0;
+    static final int SLOT_LEASE = 8;
+    static final int SLOT_PORT = 16;
+    static final int SLOT_WAITERS = 20;
+    static final long LEASE_MILLIS = 10_000;
+    private static final int SPIN_TRIES = 200;
+    private static final int YIELD_TRIES = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long PID = ProcessHandle.current().pid();
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer meta;
+    private final Set<Thread> parked = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock listenerLock = new ReentrantLock();
+    private final Object registration = new Object();
+    private final ByteBuffer wakeup = ByteBuffer.allocateDirect(1);
+    private volatile Selector selector;
+    private volatile DatagramChannel listener;
+    private DatagramChannel sender;
+    private volatile int port;
+    private volatile int slot = -1; // offset of this instance's slot in the meta file
+    private long retryRegistrationAt;
+    private volatile long nextSweep;
+    private volatile boolean closed;
+
+    WaitStrategy(MappedByteBuffer meta) {
+        this.meta = meta;
+    }
+
+    // Called after idle consecutive empty polls; returns once the caller should poll again
+    void idle(int idle, long remainingNanos, BooleanSupplier ready) throws IOException, InterruptedException {
+        if (idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            park(Math.min(remainingNanos, MAX_PARK_NANOS), ready);
+        }
+    }
+
+    private void park(long nanos, BooleanSupplier ready) throws IOException, InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        int offset = register();
+        if (offset < 0) {
+            // Not counted anywhere, so no producer will wake us
+            if (!ready.getAsBoolean() && !closed) {
+                LockSupport.parkNanos(this, nanos);
+            }
+            return;
+        }
+        // The total first and the slot second (and the reverse on the way out), so a process killed in
+        // between leaves the total too high, which only costs wakeups, never too low
+        INT.getAndAdd(meta, WAITERS, 1);
+        INT.getAndAdd(meta, offset + SLOT_WAITERS, 1);
+        try {
+            // Checked again after announcing ourselves, so a producer that missed the count was seen here
+            if (ready.getAsBoolean() || closed) {
+                return;
+            }
+            if (listenerLock.tryLock()) {
+                try {
+                    listen(offset, nanos);
+                } finally {
+                    listenerLock.unlock();
+                }
+            } else {
+                Thread current = Thread.currentThread();
+                parked.add(current);
+                try {
+                    if (!ready.getAsBoolean()) {
+                        LockSupport.parkNanos(this, nanos);
+                    }
+                } finally {
+                    parked.remove(current);
+                }
+            }
+        } finally {
+            INT.getAndAdd(meta, offset + SLOT_WAITERS, -1);
+            INT.getAndAdd(meta, WAITERS, -1);
+        }
+    }
+
+    // One thread per queue instance waits on the datagram channel and passes wakeups on to the rest
+    private void listen(int offset, long nanos) throws IOException {
+        Selector local = selector;
+        if (closed || local == null) {
+            return;
+        }
+        LONG.setVolatile(meta, offset + SLOT_LEASE, System.currentTimeMillis());
+        local.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        local.selectedKeys().clear();
+        wakeup.clear();
+        while (listener.receive(wakeup) != null) {
+            wakeup.clear();
+        }
+        parked.forEach(LockSupport::unpark);
+    }
+
+    // Returns the offset of this instance's slot, opening the listener and claiming a slot first if
+    // needed, or -1 if none is free. A slot can be lost to a process that wrongly took this one for
+    // dead; it is then claimed again here.
+    private int register() throws IOException {
+        int offset = slot;
+        if (offset >= 0 && owns(offset)) {
+            return offset;
+        }
+        synchronized (registration) {
+            offset = slot;
+            if (offset >= 0 && owns(offset)) {
+                return offset;
+            }
+            long now = System.currentTimeMillis();
+            if (closed || now < retryRegistrationAt) {
+                return -1;
+            }
+            if (listener == null) {
+                DatagramChannel channel = DatagramChannel.open();
+                channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                channel.configureBlocking(false);
+                Selector opened = Selector.open();
+                channel.register(opened, SelectionKey.OP_READ);
+                port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+                listener = channel;
+                selector = opened;
+            }
+            offset = claimSlot(now);
+            if (offset < 0) {
+                retryRegistrationAt = now + LEASE_MILLIS; // table full, fall back to timed parks for now
+            }
+            slot = offset;
+            return offset;
+        }
+    }
+
+    private boolean owns(int offset) {
+        return (long) LONG.getVolatile(meta, offset + SLOT_PID) == PID && (int) INT.getVolatile(meta, offset + SLOT_PORT) == port;
+    }
+
+    private int claimSlot(long now) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int offset = WAKEUP_SLOTS + i * SLOT_SIZE;
+            long owner = (long) LONG.getVolatile(meta, offset + SLOT_PID);
+            boolean claimed = owner == 0 ? LONG.compareAndSet(meta, offset + SLOT_PID, 0L, PID) : takeOver(offset, owner, now);
+            if (claimed) {
+                LONG.setVolatile(meta, offset + SLOT_LEASE, now);
+                INT.setVolatile(meta, offset + SLOT_PORT, port);
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    // Takes a slot whose owner has died, leaving this process as its owner; false if the owner may be alive
+    private boolean takeOver(int offset, long owner, long now) {
+        if (owner == PID || now - (long) LONG.getVolatile(meta, offset + SLOT_LEASE) < LEASE_MILLIS
+                || ProcessHandle.of(owner).map(ProcessHandle::isAlive).orElse(false)
+                || !LONG.compareAndSet(meta, offset + SLOT_PID, owner, PID)) {
+            return false;
+        }
+        INT.setVolatile(meta, offset + SLOT_PORT, 0);
+        int stale = (int) INT.getAndSet(meta, offset + SLOT_WAITERS, 0);
+        if (stale != 0) {
+            INT.getAndAdd(meta, WAITERS, -stale);
+        }
+        return true;
+    }
+
+    // Frees the slots of dead processes that nobody has needed to claim, so their parked count stops
+    // costing every send a round of wakeups
+    private void sweep(long now) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int offset = WAKEUP_SLOTS + i * SLOT_SIZE;
+            long owner = (long) LONG.getVolatile(meta, offset + SLOT_PID);
+            if (owner != 0 && takeOver(offset, owner, now)) {
+                LONG.setVolatile(meta, offset + SLOT_PID, 0L);
+            }
+        }
+    }
+
+    // Called by producers after publishing
+    void signal() throws IOException {
+        VarHandle.fullFence(); // orders the publish before reading the waiter count
+        if ((int) INT.getVolatile(meta, WAITERS) == 0) {
+            return;
+        }
+        parked.forEach(LockSupport::unpark);
+        Selector local = selector;
+        if (local != null) {
+            local.wakeup();
+        }
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int offset = WAKEUP_SLOTS + i * SLOT_SIZE;
+            int target = (int) INT.getVolatile(meta, offset + SLOT_PORT);
+            if (target != 0 && target != port && (int) INT.getVolatile(meta, offset + SLOT_WAITERS) > 0) {
+                send(target);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextSweep) {
+            nextSweep = now + LEASE_MILLIS;
+            sweep(now);
+        }
+    }
+
+    private synchronized void send(int target) throws IOException {
+        if (sender == null) {
+            sender = DatagramChannel.open();
+            sender.configureBlocking(false);
+        }
+        sender.send(ByteBuffer.wrap(new byte[1]), new InetSocketAddress(InetAddress.getLoopbackAddress(), target));
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        parked.forEach(LockSupport::unpark);
+        Selector local = selector;
+        if (local != null) {
+            local.wakeup();
+        }
+        listenerLock.lock();
+        try {
+            synchronized (registration) {
+                int offset = slot;
+                if (offset >= 0 && owns(offset)) {
+                    // The parked count is left alone: threads still on their way out of park() drop it
+                    INT.setVolatile(meta, offset + SLOT_PORT, 0);
+                    LONG.setVolatile(meta, offset + SLOT_PID, 0L);
+                }
+                slot = -1;
+                if (listener != null) {
+                    selector.close();
+                    listener.close();
+                    listener = null;
+                }
+            }
+        } finally {
+            listenerLock.unlock();
+        }
+        synchronized (this) {
+            if (sender != null) {
+                sender.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs a broker on an ephemeral loopback port with clients in the same JVM
+class MessageBrokerTest {
+
+    @TempDir
+    Path directory;
+    private MessageQueue queue;
+    private MessageBroker broker;
+    private Thread brokerThread;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        queue = new MessageQueue(directory, 1024 * 1024, MessageQueue.Durability.OS_MANAGED, 0);
+        for (String group : new String[] {"readers", "audit", "billing"}) {
+            queue.group(group);
+        }
+        broker = new MessageBroker(queue, 0);
+        brokerThread = new Thread(broker, "message-broker");
+        brokerThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        broker.stop();
+        brokerThread.join();
+        queue.close();
+    }
+
+    @Test
+    @DisplayName("Test batched produce and fetch preserve order across segments")
+    void testProduceAndFetch() throws IOException {
+        try (BrokerClient client = client()) {
+            List<String> sent = new ArrayList<>();
+            for (int batch = 0; batch < 20; batch++) {
+                List<String> messages = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    messages.add("message-" + (batch * 500 + i) + "-" + "x".repeat(i % 300));
+                }
+                client.sendAll(messages);
+                sent.addAll(messages);
+            }
+            List<String> received = new ArrayList<>();
+            List<String> fetched;
+            while (!(fetched = client.fetch("readers", 700, 0, TimeUnit.MILLISECONDS)).isEmpty()) {
+                assertTrue(fetched.size() <= 700);
+                received.addAll(fetched);
+            }
+            assertEquals(sent, received);
+        }
+    }
+
+    @Test
+    @DisplayName("Test long-polling fetch returns as soon as a message is produced")
+    void testLongPollFetch() throws Exception {
+        try (BrokerClient consumer = client(); BrokerClient producer = client()) {
+            Thread sender = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                    producer.send("wake up");
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            long start = System.nanoTime();
+            sender.start();
+            List<String> fetched = consumer.fetch("readers", 10, 10, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            sender.join();
+            assertEquals(List.of("wake up"), fetched);
+            assertTrue(elapsedMillis >= 150 && elapsedMillis < 5_000, "fetch returned after " + elapsedMillis + " ms");
+        }
+    }
+
+    @Test
+    @DisplayName("Test fetch with nothing to read returns empty after its wait time")
+    void testFetchTimesOut() throws IOException {
+        try (BrokerClient client = client()) {
+            long start = System.nanoTime();
+            assertTrue(client.fetch("readers", 10, 100, TimeUnit.MILLISECONDS).isEmpty());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+            client.send("after timeout");
+            assertEquals(List.of("after timeout"), client.fetch("readers", 10, 0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    @DisplayName("Test every consumer group receives every message")
+    void testGroupsFanOut() throws IOException {
+        try (BrokerClient client = client()) {
+            client.sendAll(List.of("a", "b", "c"));
+            assertEquals(List.of("a", "b", "c"), client.fetch("audit", 10, 0, TimeUnit.MILLISECONDS));
+            assertEquals(List.of("a", "b"), client.fetch("billing", 2, 0, TimeUnit.MILLISECONDS));
+            assertEquals(List.of("c"), client.fetch("billing", 10, 0, TimeUnit.MILLISECONDS));
+            assertEquals(0, queue.group("audit").lag());
+        }
+    }
+
+    @Test
+    @DisplayName("Test invalid requests get an error without dropping the connection")
+    void testErrorReply() throws IOException {
+        try (BrokerClient client = client()) {
+            IOException error = assertThrows(IOException.class, () -> client.fetch("bad/name", 10, 0, TimeUnit.MILLISECONDS));
+            assertTrue(error.getMessage().contains("Invalid group name"), error.getMessage());
+            error = assertThrows(IOException.class, () -> client.fetch("unknown", 10, 0, TimeUnit.MILLISECONDS));
+            assertTrue(error.getMessage().contains("Unknown group unknown"), error.getMessage());
+            assertFalse(queue.groups().contains("unknown"));
+            client.send("still connected");
+            assertEquals(List.of("still connected"), client.fetch("readers", 10, 0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    @DisplayName("Test messages of a reply that never reached the client are fetched again")
+    void testUnwrittenReplyRedelivered() throws Exception {
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] message = new byte[200 * 1024];
+            message[0] = (byte) i;
+            messages.add(message);
+        }
+        queue.sendAllBytes(messages);
+
+        // Asks for 8 MB and never reads it, so most of the reply is still in the broker when it hangs up
+        try (SocketChannel stalled = SocketChannel.open()) {
+            stalled.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+            stalled.connect(new InetSocketAddress("127.0.0.1", broker.getPort()));
+            ByteBuffer fetch = BrokerProtocol.writeFetch(ByteBuffer.allocate(64), "readers", 40, 0).flip();
+            while (fetch.hasRemaining()) {
+                stalled.write(fetch);
+            }
+            Thread.sleep(200);
+            try (BrokerClient other = client()) {
+                // Those messages are out to the stalled connection, so nobody else is handed them meanwhile
+                assertTrue(other.fetchBytes("readers", 40, 0, TimeUnit.MILLISECONDS).isEmpty());
+            }
+        }
+
+        try (BrokerClient client = client()) {
+            List<byte[]> fetched = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (fetched.size() < 40 && System.currentTimeMillis() < deadline) {
+                fetched.addAll(client.fetchBytes("readers", 40, 100, TimeUnit.MILLISECONDS));
+            }
+            assertEquals(40, fetched.size());
+            for (int i = 0; i < 40; i++) {
+                assertEquals((byte) i, fetched.get(i)[0]);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test a fetch for more than fits in one frame gets what fits and the rest on the next fetch")
+    void testFetchLimitedToOneFrame() throws IOException {
+        // Four records fill a segment; 300 of them are well over one frame
+        int size = 256 * 1024 - 64;
+        for (int batch = 0; batch < 6; batch++) {
+            List<byte[]> messages = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                messages.add(ByteBuffer.allocate(size).putInt(0, batch * 50 + i).array());
+            }
+            queue.sendAllBytes(messages);
+        }
+        try (BrokerClient client = client()) {
+            IOException error = assertThrows(IOException.class,
+                    () -> client.fetchBytes("readers", BrokerProtocol.MAX_FETCH + 1, 0, TimeUnit.MILLISECONDS));
+            assertTrue(error.getMessage().contains("Invalid fetch size"), error.getMessage());
+
+            List<byte[]> first = client.fetchBytes("readers", 1000, 0, TimeUnit.MILLISECONDS);
+            assertTrue(first.size() > 200 && first.size() < 300, String.valueOf(first.size()));
+            assertTrue((long) first.size() * (4 + size) + 5 <= BrokerProtocol.MAX_FRAME);
+            int next = 0;
+            List<byte[]> fetched = first;
+            while (!fetched.isEmpty()) {
+                for (byte[] message : fetched) {
+                    assertEquals(size, message.length);
+                    assertEquals(next++, ByteBuffer.wrap(message).getInt());
+                }
+                fetched = client.fetchBytes("readers", 1000, 0, TimeUnit.MILLISECONDS);
+            }
+            assertEquals(300, next);
+        }
+    }
+
+    private BrokerClient client() throws IOException {
+        return new BrokerClient("127.0.0.1", broker.getPort());
+    }
+}
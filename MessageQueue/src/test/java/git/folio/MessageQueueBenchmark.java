@@ -0,0 +1,132 @@
+package git.folio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=git.folio.MessageQueueBenchmark
+// Every benchmark runs against each durability mode and message size; scores are messages per microsecond.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageQueueBenchmark {
+    private static final int BATCH = 32;
+    private static final int SYNC_EVERY_MESSAGES = 100;
+    private static final int SYNC_INTERVAL_MILLIS = 10;
+
+    @Param({"OS_MANAGED", "SYNC_INTERVAL", "SYNC_EVERY_N_MESSAGES", "SYNC_EVERY_MESSAGE"})
+    public MessageQueue.Durability durability;
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private Path directory;
+    private MessageQueue queue;
+    private byte[] payload;
+    private List<byte[]> batch;
+
+    // A fresh queue per iteration keeps the log, and the disk it takes up, to what one iteration writes
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("queue-benchmark");
+        long syncEvery = durability == MessageQueue.Durability.SYNC_EVERY_N_MESSAGES ? SYNC_EVERY_MESSAGES
+                : durability == MessageQueue.Durability.SYNC_INTERVAL ? SYNC_INTERVAL_MILLIS : 0;
+        queue = new MessageQueue(directory, 64 * 1024 * 1024, durability, syncEvery);
+        payload = new byte[size];
+        batch = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(payload);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        queue.close();
+        deleteDirectory(directory);
+    }
+
+    @State(Scope.Thread)
+    public static class Consumer {
+        final List<byte[]> drained = new ArrayList<>(BATCH);
+        long bytes;
+        final MessageQueue.MessageHandler handler = message -> bytes += message.remaining();
+    }
+
+    // Each thread sends a message and takes one back; with more threads they contend on both positions
+    @Benchmark
+    public byte[] sendReceive() throws IOException {
+        queue.send(payload);
+        return queue.receiveBytes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int sendAllDrain(Consumer consumer) throws IOException {
+        queue.sendAllBytes(batch);
+        consumer.drained.clear();
+        return queue.drainBytesTo(consumer.drained, BATCH);
+    }
+
+    // The zero-copy path: fill a claimed region in place and read through a mapped view
+    @Benchmark
+    public long claimPoll(Consumer consumer) throws IOException {
+        MessageQueue.Claim claim = queue.claim(size);
+        claim.buffer().put(payload);
+        claim.commit();
+        queue.poll(consumer.handler);
+        return consumer.bytes;
+    }
+
+    // Producer and consumer on their own threads; the two scores are send and receive rates
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public void produce() throws IOException {
+        queue.send(payload);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public byte[] consume() throws IOException, InterruptedException {
+        // Times out rather than blocking, so the consumer can finish once the producer has stopped
+        return queue.receiveBytes(10, TimeUnit.MILLISECONDS);
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // Runs every benchmark with 1, 2, 4, ... threads up to the number of cores to show scaling
+    public static void main(String[] args) throws RunnerException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            Options options = new OptionsBuilder()
+                    .include(MessageQueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            System.out.println("=== " + threads + " thread(s) ===");
+            new Runner(options).run();
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package git.folio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Run with: mvn test-compile && java -cp target/classes:target/test-classes git.folio.MessageQueueLatencyBenchmark <args>
+// (a plain JVM, so the "process" consumer can be started on the same class path)
+// Measures send-to-delivery latency through a queue directory with a consumer blocked in take().
+// "idle" spaces messages out so the consumer has parked by the time each one arrives; "loaded" sends
+// ten times as often while two more producers add bursts of background traffic. With "process" the
+// consumer runs in a separate JVM, which relies on System.nanoTime sharing one clock across processes
+// (true on Linux).
+public class MessageQueueLatencyBenchmark {
+    private static final long IDLE_GAP_NANOS = 2_000_000;
+    private static final long LOADED_GAP_NANOS = 200_000;
+    private static final int BACKGROUND_BURST = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java MessageQueueLatencyBenchmark <directory> <idle | loaded> [messages] [size] [thread | process]");
+            return;
+        }
+        Path directory = Paths.get(args[0]);
+        String mode = args[1];
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        if (mode.equals("consume")) {
+            MessageQueue queue = new MessageQueue(directory);
+            report("delivery", consume(queue, messages));
+            queue.close();
+            return;
+        }
+        int size = Math.max(Long.BYTES, args.length > 3 ? Integer.parseInt(args[3]) : 64);
+        boolean separateProcess = args.length > 4 && args[4].equals("process");
+        boolean loaded = mode.equals("loaded");
+
+        MessageQueue queue = new MessageQueue(directory);
+        while (queue.receiveBytes() != null) {
+            // start from an empty queue
+        }
+
+        Process consumerProcess = null;
+        Thread consumerThread = null;
+        if (separateProcess) {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            consumerProcess = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    MessageQueueLatencyBenchmark.class.getName(), args[0], "consume", Integer.toString(messages))
+                    .inheritIO()
+                    .start();
+            Thread.sleep(1_000); // let the consumer JVM start and park
+        } else {
+            consumerThread = new Thread(() -> {
+                try {
+                    report("delivery", consume(queue, messages));
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("Consumer failed: " + e.getMessage());
+                }
+            }, "latency-consumer");
+            consumerThread.start();
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] background = new Thread[loaded ? 2 : 0];
+        for (int i = 0; i < background.length; i++) {
+            background[i] = new Thread(() -> {
+                byte[] noise = new byte[size]; // a zero timestamp is not measured
+                try {
+                    while (running.get()) {
+                        for (int j = 0; j < BACKGROUND_BURST; j++) {
+                            queue.send(noise);
+                        }
+                        Thread.sleep(1);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    System.out.println("Background producer failed: " + e.getMessage());
+                }
+            }, "background-producer-" + i);
+            background[i].start();
+        }
+
+        System.out.println("Sending " + messages + " messages of " + size + " bytes (" + mode + ")");
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        for (int i = 0; i < messages; i++) {
+            payload.putLong(0, System.nanoTime());
+            queue.send(payload.array());
+            long until = System.nanoTime() + (loaded ? LOADED_GAP_NANOS : IDLE_GAP_NANOS);
+            while (System.nanoTime() < until) {
+                LockSupport.parkNanos(until - System.nanoTime());
+            }
+        }
+        running.set(false);
+        for (Thread producer : background) {
+            producer.join();
+        }
+        if (consumerThread != null) {
+            consumerThread.join();
+        } else {
+            consumerProcess.waitFor();
+        }
+        queue.close();
+    }
+
+    private static long[] consume(MessageQueue queue, int messages) throws IOException, InterruptedException {
+        long[] latencies = new long[messages];
+        int count = 0;
+        while (count < messages) {
+            byte[] message = queue.takeBytes();
+            long sentAt = ByteBuffer.wrap(message).getLong(0);
+            if (sentAt != 0) {
+                latencies[count++] = System.nanoTime() - sentAt;
+            }
+        }
+        return latencies;
+    }
+
+    private static void report(String label, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%s latency (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n", label,
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1000.0);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1000.0;
+    }
+}
@@ -0,0 +1,83 @@
+package git.folio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=git.folio.MessageQueueRoundTripBenchmark
+// End-to-end latency through two queues: the benchmark thread sends a request, an echo thread blocked
+// in take() sends it back on the reply queue, and the benchmark thread takes the reply. SampleTime
+// prints the percentile histogram of the round trip; one way is roughly half of it.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageQueueRoundTripBenchmark {
+
+    @Param({"OS_MANAGED", "SYNC_EVERY_MESSAGE"})
+    public MessageQueue.Durability durability;
+
+    @Param({"16", "256", "4096", "65536"})
+    public int size;
+
+    private Path directory;
+    private MessageQueue requests;
+    private MessageQueue replies;
+    private Thread echo;
+    private volatile boolean running;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("queue-round-trip");
+        requests = new MessageQueue(directory.resolve("requests"), 64 * 1024 * 1024, durability, 0);
+        replies = new MessageQueue(directory.resolve("replies"), 64 * 1024 * 1024, durability, 0);
+        payload = new byte[size];
+        running = true;
+        echo = new Thread(() -> {
+            try {
+                while (running) {
+                    byte[] message = requests.receiveBytes(100, TimeUnit.MILLISECONDS);
+                    if (message != null) {
+                        replies.send(message);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                System.out.println("Echo failed: " + e.getMessage());
+            }
+        }, "queue-echo");
+        echo.setDaemon(true);
+        echo.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        running = false;
+        echo.join();
+        requests.close();
+        replies.close();
+        MessageQueueBenchmark.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException, InterruptedException {
+        requests.send(payload);
+        return replies.takeBytes();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageQueueRoundTripBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
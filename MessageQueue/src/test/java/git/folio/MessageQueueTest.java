@@ -0,0 +1,281 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Tiny segments so a handful of messages roll over, pad and get deleted
+class MessageQueueTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path directory;
+    private MessageQueue queue;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        queue = open();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        queue.close();
+    }
+
+    private MessageQueue open() throws IOException {
+        return new MessageQueue(directory, SEGMENT_SIZE);
+    }
+
+    private List<String> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).filter(name -> name.endsWith(".segment")).sorted().toList();
+        }
+    }
+
+    private static String message(int i) {
+        return "message-" + i + "-" + "x".repeat(i * 7 % 90);
+    }
+
+    @Test
+    @DisplayName("Test records that do not fit roll over to a new segment behind padding")
+    void testSegmentRollover() throws IOException {
+        for (int i = 0; i < 40; i++) {
+            queue.send(message(i));
+        }
+        List<String> segments = segmentFiles();
+        assertTrue(segments.size() > 5, segments.toString());
+        assertEquals(String.format("%020d.segment", 0), segments.get(0));
+        assertEquals(String.format("%020d.segment", SEGMENT_SIZE), segments.get(1));
+        for (int i = 0; i < 40; i++) {
+            assertEquals(message(i), queue.receive());
+        }
+        assertNull(queue.receive());
+        assertEquals(0, queue.size());
+        assertThrows(IllegalArgumentException.class, () -> queue.send("x".repeat(SEGMENT_SIZE)));
+    }
+
+    @Test
+    @DisplayName("Test segments are deleted once read and unread messages survive a reopen")
+    void testRetentionAndReopen() throws IOException {
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            sent.add(message(i));
+            queue.send(message(i));
+        }
+        int segmentsBefore = segmentFiles().size();
+        for (int i = 0; i < 30; i++) {
+            assertEquals(sent.get(i), queue.receive());
+        }
+        List<String> segmentsAfter = segmentFiles();
+        assertTrue(segmentsAfter.size() < segmentsBefore, segmentsAfter.toString());
+        assertNotEquals(String.format("%020d.segment", 0), segmentsAfter.get(0));
+
+        queue.close();
+        queue = open();
+        for (int i = 30; i < 60; i++) {
+            assertEquals(sent.get(i), queue.receive());
+        }
+        assertNull(queue.receive());
+    }
+
+    @Test
+    @DisplayName("Test sendAll and drainTo move batches across segments in order")
+    void testSendAllDrainTo() throws IOException {
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sent.add(message(i));
+        }
+        queue.sendAll(sent.subList(0, 25));
+        queue.sendAll(List.of());
+        queue.sendAll(sent.subList(25, 50));
+
+        List<String> received = new ArrayList<>();
+        assertEquals(10, queue.drainTo(received, 10));
+        assertEquals(sent.subList(0, 10), received);
+        assertEquals(sent.get(10), queue.receive());
+        while (queue.drainTo(received, 7) > 0) {
+            // keep draining
+        }
+        assertEquals(49, received.size());
+        assertEquals(sent.subList(11, 50), received.subList(10, 49));
+        assertEquals(0, queue.drainTo(received, 10));
+    }
+
+    @Test
+    @DisplayName("Test every durability mode delivers what it sent, including after a reopen")
+    void testDurabilityModes() throws IOException {
+        queue.close();
+        Object[][] modes = {{MessageQueue.Durability.SYNC_EVERY_N_MESSAGES, 3L}, {MessageQueue.Durability.SYNC_INTERVAL, 5L},
+                {MessageQueue.Durability.OS_MANAGED, 0L}};
+        for (Object[] mode : modes) {
+            queue = new MessageQueue(directory, SEGMENT_SIZE, (MessageQueue.Durability) mode[0], (Long) mode[1]);
+            queue.send("one " + mode[0]);
+            queue.sendAll(List.of("two " + mode[0], "three " + mode[0]));
+            queue.close();
+            queue = new MessageQueue(directory, SEGMENT_SIZE, (MessageQueue.Durability) mode[0], (Long) mode[1]);
+            List<String> received = new ArrayList<>();
+            queue.drainTo(received, 10);
+            assertEquals(List.of("one " + mode[0], "two " + mode[0], "three " + mode[0]), received);
+            queue.close();
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> new MessageQueue(directory, SEGMENT_SIZE, MessageQueue.Durability.SYNC_INTERVAL, 0));
+        queue = open();
+    }
+
+    @Test
+    @DisplayName("Test claimed records are read once committed and skipped once aborted")
+    void testClaimCommitAbort() throws IOException {
+        MessageQueue.Claim claim = queue.claim(5);
+        assertEquals(5, claim.length());
+        claim.buffer().put("first".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalStateException.class, () -> queue.claim(1));
+        assertNull(queue.receive()); // reserved but not yet published
+        claim.commit();
+        assertThrows(IllegalStateException.class, claim::commit);
+
+        queue.claim(7).abort();
+        claim = queue.claim(0);
+        claim.commit();
+        queue.send("last");
+
+        assertEquals("first", queue.receive());
+        assertEquals("", queue.receive());
+        assertEquals("last", queue.receive());
+        assertNull(queue.receive());
+        assertThrows(IllegalArgumentException.class, () -> queue.claim(SEGMENT_SIZE));
+    }
+
+    @Test
+    @DisplayName("Test poll hands out read-only views of the records in order")
+    void testPoll() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            queue.send(message(i));
+        }
+        queue.claim(3).abort();
+        queue.send("after abort");
+
+        List<String> received = new ArrayList<>();
+        MessageQueue.MessageHandler handler = message -> {
+            assertTrue(message.isReadOnly());
+            received.add(StandardCharsets.UTF_8.decode(message).toString());
+        };
+        assertTrue(queue.poll(handler));
+        assertEquals(List.of(message(0)), received);
+        while (queue.poll(handler, 6) > 0) {
+            // keep polling
+        }
+        assertEquals(21, received.size());
+        assertEquals(message(19), received.get(19));
+        assertEquals("after abort", received.get(20));
+        assertFalse(queue.poll(handler));
+
+        // A handler that throws has still taken its message
+        queue.send("boom");
+        assertThrows(IOException.class, () -> queue.poll(message -> {
+            throw new IOException("handler failed");
+        }));
+        assertFalse(queue.poll((ByteBuffer message) -> fail("already taken")));
+    }
+
+    @Test
+    @DisplayName("Test groups read independently and keep their offsets across a reopen")
+    void testGroupOffsetsSurviveReopen() throws IOException {
+        ConsumerGroup audit = queue.group("audit");
+        ConsumerGroup billing = queue.group("billing");
+        for (int i = 0; i < 10; i++) {
+            queue.send(message(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(message(i), audit.receive());
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(message(i), billing.receive());
+        }
+        long billingPosition = billing.position();
+        assertEquals(0, audit.lag());
+        assertTrue(billing.lag() > 0);
+
+        queue.close();
+        queue = open();
+        assertEquals(List.of("audit", "billing"), queue.groups().stream().sorted().toList());
+        assertNull(queue.group("audit").receive());
+        assertEquals(billingPosition, queue.group("billing").position());
+        assertEquals(message(4), queue.group("billing").receive());
+        assertThrows(IllegalArgumentException.class, () -> queue.group("../escape"));
+    }
+
+    @Test
+    @DisplayName("Test the slowest group holds back retention and a new group starts at the oldest retained message")
+    void testGroupRetention() throws IOException {
+        ConsumerGroup fast = queue.group("fast");
+        ConsumerGroup slow = queue.group("slow");
+        for (int i = 0; i < 60; i++) {
+            queue.send(message(i));
+        }
+        for (int i = 0; i < 60; i++) {
+            assertEquals(message(i), fast.receive());
+        }
+        assertEquals(String.format("%020d.segment", 0), segmentFiles().get(0)); // slow has read nothing
+
+        for (int i = 0; i < 40; i++) {
+            assertEquals(message(i), slow.receive());
+        }
+        String oldest = segmentFiles().get(0);
+        assertNotEquals(String.format("%020d.segment", 0), oldest);
+
+        // Starts at the first record of the oldest segment left, not at position 0
+        ConsumerGroup late = queue.group("late");
+        assertEquals(Long.parseLong(oldest.substring(0, 20)), late.position());
+        String first = late.receive();
+        assertTrue(first.startsWith("message-"), first);
+        int index = Integer.parseInt(first.split("-")[1]);
+        assertTrue(index > 0 && index <= 40, first);
+
+        // Dropping the laggards lets retention catch up with the fast group
+        late.close();
+        queue.deleteGroup("late");
+        queue.deleteGroup("slow");
+        assertEquals(List.of("fast"), queue.groups());
+        List<String> segments = segmentFiles();
+        assertEquals(1, segments.size(), segments.toString());
+    }
+
+    @Test
+    @DisplayName("Test the unread messages of an old ring file are imported once, in order")
+    void testMigrateLegacyFile() throws IOException {
+        // Header of write and read slot, then 100 slots of a length and up to 252 bytes
+        ByteBuffer ring = ByteBuffer.allocate(8 + 100 * 256);
+        ring.putInt(0, 2).putInt(4, 97);
+        for (int slot : new int[] {96, 97, 99, 0, 1, 2}) {
+            byte[] bytes = ("old-" + slot).getBytes(StandardCharsets.UTF_8);
+            ring.putInt(8 + slot * 256, bytes.length).put(8 + slot * 256 + 4, bytes);
+        }
+        ring.putInt(8 + 98 * 256, 300); // a slot the old receive would have skipped
+        Path file = directory.resolve("message_queue.dat");
+        Files.write(file, ring.array());
+
+        queue.migrateLegacyFile(file);
+        assertFalse(Files.exists(file));
+        assertTrue(Files.exists(directory.resolve("message_queue.dat.migrated")));
+        queue.migrateLegacyFile(file);
+        for (String expected : new String[] {"old-97", "old-99", "old-0", "old-1"}) {
+            assertEquals(expected, queue.receive());
+        }
+        assertNull(queue.receive());
+
+        Files.write(file, new byte[100]);
+        IOException e = assertThrows(IOException.class, () -> queue.migrateLegacyFile(file));
+        assertTrue(e.getMessage().startsWith("Cannot migrate"), e.getMessage());
+    }
+}
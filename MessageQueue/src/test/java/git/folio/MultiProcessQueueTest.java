@@ -0,0 +1,209 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Producers and consumers in separate JVMs share one queue directory; main() is what each child runs
+class MultiProcessQueueTest {
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final String GROUP = "workers";
+    private static final String END = "END";
+
+    @TempDir
+    Path directory;
+    private final List<Process> children = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        children.forEach(Process::destroyForcibly);
+    }
+
+    private MessageQueue open() throws IOException {
+        return new MessageQueue(directory, SEGMENT_SIZE, MessageQueue.Durability.OS_MANAGED, 0);
+    }
+
+    @Test
+    @DisplayName("Test a claim left uncommitted past the timeout is skipped and its late commit fails")
+    void testAbandonedClaimSkipped() throws Exception {
+        MessageQueue queue = open();
+        queue.setClaimTimeout(200, TimeUnit.MILLISECONDS);
+        MessageQueue.Claim[] stuck = new MessageQueue.Claim[1];
+        Thread producer = new Thread(() -> {
+            try {
+                stuck[0] = queue.claim(5);
+                stuck[0].buffer().put("stuck".getBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+        producer.join();
+        queue.send("after");
+
+        assertNull(queue.receive());
+        long start = System.nanoTime();
+        assertEquals("after", queue.receive(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertThrows(IOException.class, stuck[0]::commit);
+        queue.close();
+    }
+
+    @Test
+    @DisplayName("Test space reserved by a producer that died before writing a header is skipped")
+    void testEmptyReservationSkipped() throws Exception {
+        MessageQueue queue = open();
+        queue.setClaimTimeout(100, TimeUnit.MILLISECONDS);
+        queue.send("first");
+        // Stand in for producers killed right after moving the write position: one in the middle of a
+        // segment, and one whose record did not fit, before it padded out the segment
+        try (FileChannel channel = FileChannel.open(directory.resolve("queue.meta"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+            meta.order(ByteOrder.nativeOrder());
+            meta.putLong(0, meta.getLong(0) + 64);
+            queue.send("second");
+            meta.putLong(0, SEGMENT_SIZE + 128);
+        }
+        queue.send("third");
+
+        assertEquals("first", queue.receive(5, TimeUnit.SECONDS));
+        assertEquals("second", queue.receive(5, TimeUnit.SECONDS));
+        assertEquals("third", queue.receive(5, TimeUnit.SECONDS));
+        assertNull(queue.receive());
+        queue.close();
+    }
+
+    @Test
+    @DisplayName("Test 4 producer JVMs and 3 consumer JVMs deliver 200k messages exactly once and in producer order")
+    void testProducersAndConsumersAcrossJvms() throws Exception {
+        int producers = 4;
+        int consumers = 3;
+        int perProducer = 50_000;
+        open().group(GROUP).close(); // so consumers start reading at the very first message
+        // A producer killed between claiming and committing must not stall the rest
+        assertEquals(0, start("halt").waitFor());
+
+        List<Path> outputs = new ArrayList<>();
+        List<Process> consumerProcesses = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            Path output = directory.resolve("consumer-" + i + ".txt");
+            outputs.add(output);
+            consumerProcesses.add(start("consume", output.toString()));
+        }
+        List<Process> producerProcesses = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            producerProcesses.add(start("produce", Integer.toString(i), Integer.toString(perProducer)));
+        }
+        assertTimeoutPreemptively(Duration.ofMinutes(3), () -> {
+            for (Process process : producerProcesses) {
+                assertEquals(0, process.waitFor());
+            }
+            MessageQueue queue = open();
+            for (int i = 0; i < consumers; i++) {
+                queue.send(END);
+            }
+            queue.close();
+            for (Process process : consumerProcesses) {
+                assertEquals(0, process.waitFor());
+            }
+        });
+
+        Map<String, Integer> seen = new HashMap<>();
+        for (Path output : outputs) {
+            Map<Integer, Integer> lastSeq = new HashMap<>();
+            for (String line : Files.readAllLines(output)) {
+                assertNull(seen.put(line, 1), "delivered twice: " + line);
+                String[] parts = line.split(":");
+                int producer = Integer.parseInt(parts[0]);
+                int seq = Integer.parseInt(parts[1]);
+                assertTrue(seq > lastSeq.getOrDefault(producer, -1), "out of order: " + line);
+                lastSeq.put(producer, seq);
+            }
+        }
+        assertEquals(producers * perProducer, seen.size());
+    }
+
+    private Process start(String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), MultiProcessQueueTest.class.getName(), directory.toString()));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+        children.add(process);
+        return process;
+    }
+
+    public static void main(String[] args) throws Exception {
+        MessageQueue queue = new MessageQueue(Path.of(args[0]), SEGMENT_SIZE, MessageQueue.Durability.OS_MANAGED, 0);
+        switch (args[1]) {
+            case "halt" -> {
+                queue.claim(16).buffer().put("never committed".getBytes());
+                Runtime.getRuntime().halt(0);
+            }
+            case "produce" -> {
+                int id = Integer.parseInt(args[2]);
+                int count = Integer.parseInt(args[3]);
+                // Half the producers send one at a time, the other half in batches
+                List<String> batch = new ArrayList<>();
+                for (int seq = 0; seq < count; seq++) {
+                    if (id % 2 == 0) {
+                        queue.send(id + ":" + seq);
+                    } else {
+                        batch.add(id + ":" + seq);
+                        if (batch.size() == 100 || seq == count - 1) {
+                            queue.sendAll(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            }
+            case "consume" -> {
+                queue.setClaimTimeout(500, TimeUnit.MILLISECONDS);
+                ConsumerGroup group = queue.group(GROUP);
+                List<String> messages = new ArrayList<>();
+                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(args[2])))) {
+                    int ends = 0;
+                    while (ends == 0) {
+                        messages.clear();
+                        if (group.drainTo(messages, 256) == 0) {
+                            String message = group.receive(100, TimeUnit.MILLISECONDS);
+                            if (message == null) {
+                                continue;
+                            }
+                            messages.add(message);
+                        }
+                        for (String message : messages) {
+                            if (message.equals(END)) {
+                                ends++;
+                            } else {
+                                out.println(message);
+                            }
+                        }
+                    }
+                    // One END is ours; any others in the batch belong to consumers still running
+                    for (int i = 1; i < ends; i++) {
+                        queue.send(END);
+                    }
+                }
+            }
+            default -> throw new IllegalArgumentException(args[1]);
+        }
+        queue.close();
+    }
+}
@@ -0,0 +1,156 @@
+package git.folio;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Works on a bare meta file, writing slots by hand to stand in for other processes
+class WaitStrategyTest {
+    private static final long PID = ProcessHandle.current().pid();
+
+    @TempDir
+    Path directory;
+    private FileChannel channel;
+    private MappedByteBuffer meta;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        channel = FileChannel.open(directory.resolve("queue.meta"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        meta = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096);
+        meta.order(ByteOrder.nativeOrder());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private static int slot(int i) {
+        return WaitStrategy.WAKEUP_SLOTS + i * WaitStrategy.SLOT_SIZE;
+    }
+
+    private void fillSlot(int i, long pid, long lease, int port, int waiters) {
+        meta.putLong(slot(i) + WaitStrategy.SLOT_PID, pid);
+        meta.putLong(slot(i) + WaitStrategy.SLOT_LEASE, lease);
+        meta.putInt(slot(i) + WaitStrategy.SLOT_PORT, port);
+        meta.putInt(slot(i) + WaitStrategy.SLOT_WAITERS, waiters);
+        meta.putInt(WaitStrategy.WAITERS, meta.getInt(WaitStrategy.WAITERS) + waiters);
+    }
+
+    private static long deadPid() throws Exception {
+        Process process = new ProcessBuilder("true").start();
+        process.waitFor();
+        return process.pid();
+    }
+
+    private static void parkOnce(WaitStrategy wait) throws Exception {
+        wait.idle(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toNanos(20), () -> false);
+    }
+
+    @Test
+    @DisplayName("Test slots and parked counts left by dead processes are reclaimed")
+    void testDeadSlotsReclaimed() throws Exception {
+        long dead = deadPid();
+        for (int i = 0; i < WaitStrategy.SLOT_COUNT; i++) {
+            fillSlot(i, dead, 0, 1, 1);
+        }
+        WaitStrategy wait = new WaitStrategy(meta);
+        // The table is full of dead owners: parking takes one over and drops its count
+        parkOnce(wait);
+        assertEquals(WaitStrategy.SLOT_COUNT - 1, meta.getInt(WaitStrategy.WAITERS));
+        assertEquals(PID, meta.getLong(slot(0) + WaitStrategy.SLOT_PID));
+
+        // A producer sweeps the rest
+        wait.signal();
+        assertEquals(0, meta.getInt(WaitStrategy.WAITERS));
+        for (int i = 1; i < WaitStrategy.SLOT_COUNT; i++) {
+            assertEquals(0, meta.getLong(slot(i) + WaitStrategy.SLOT_PID), "slot " + i);
+            assertEquals(0, meta.getInt(slot(i) + WaitStrategy.SLOT_WAITERS), "slot " + i);
+        }
+
+        wait.close();
+        assertEquals(0, meta.getLong(slot(0) + WaitStrategy.SLOT_PID));
+        assertEquals(0, meta.getInt(slot(0) + WaitStrategy.SLOT_PORT));
+    }
+
+    @Test
+    @DisplayName("Test slots of live processes or with a current lease are left alone")
+    void testLiveSlotsKept() throws Exception {
+        long dead = deadPid();
+        long now = System.currentTimeMillis();
+        Process sleeper = new ProcessBuilder("sleep", "30").start();
+        try {
+            fillSlot(0, sleeper.pid(), 0, 1, 1); // lease ran out, but the process is alive
+            fillSlot(1, dead, now, 2, 1); // dead, but its lease has not run out yet
+            WaitStrategy wait = new WaitStrategy(meta);
+            parkOnce(wait);
+            wait.signal();
+            assertEquals(2, meta.getInt(WaitStrategy.WAITERS));
+            assertEquals(sleeper.pid(), meta.getLong(slot(0) + WaitStrategy.SLOT_PID));
+            assertEquals(dead, meta.getLong(slot(1) + WaitStrategy.SLOT_PID));
+            assertEquals(PID, meta.getLong(slot(2) + WaitStrategy.SLOT_PID));
+            wait.close();
+        } finally {
+            sleeper.destroyForcibly();
+        }
+    }
+
+    @Test
+    @DisplayName("Test a full table of live slots falls back to an uncounted timed park")
+    void testFullTableTimedPark() throws Exception {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < WaitStrategy.SLOT_COUNT; i++) {
+            fillSlot(i, PID, now, 1, 0);
+        }
+        WaitStrategy wait = new WaitStrategy(meta);
+        long start = System.nanoTime();
+        parkOnce(wait);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15));
+        assertEquals(0, meta.getInt(WaitStrategy.WAITERS));
+        wait.close();
+        assertEquals(PID, meta.getLong(slot(0) + WaitStrategy.SLOT_PID));
+    }
+
+    @Test
+    @DisplayName("Test a Consumer process stopped with SIGTERM hands back its slot")
+    void testConsumerShutdownReleasesSlot() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process consumer = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Consumer.class.getName())
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            Path metaFile = directory.resolve("message_queue").resolve("queue.meta");
+            long deadline = System.currentTimeMillis() + 10_000;
+            MappedByteBuffer consumerMeta = null;
+            while (consumerMeta == null || consumerMeta.getLong(slot(0) + WaitStrategy.SLOT_PID) != consumer.pid()) {
+                assertTrue(System.currentTimeMillis() < deadline, "consumer never parked");
+                if (consumerMeta == null && Files.exists(metaFile) && Files.size(metaFile) >= 4096) {
+                    try (FileChannel file = FileChannel.open(metaFile, StandardOpenOption.READ)) {
+                        consumerMeta = file.map(FileChannel.MapMode.READ_ONLY, 0, 4096);
+                        consumerMeta.order(ByteOrder.nativeOrder());
+                    }
+                }
+                Thread.sleep(20);
+            }
+            consumer.destroy();
+            assertEquals(143, consumer.waitFor());
+            assertEquals(0, consumerMeta.getLong(slot(0) + WaitStrategy.SLOT_PID));
+            assertEquals(0, consumerMeta.getInt(WaitStrategy.WAITERS));
+        } finally {
+            consumer.destroyForcibly();
+        }
+    }
+}